@@ -3,9 +3,11 @@ package com.surelogic.common.core.adhoc;
 import org.eclipse.core.runtime.jobs.Job;
 
 import com.surelogic.common.adhoc.AdHocQueryFullyBound;
+import com.surelogic.common.adhoc.AdHocQueryRefinement;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.jobs.CancellableAdHocQueryJob;
 import com.surelogic.common.adhoc.jobs.CancellableAdHocQueryMonitorJob;
+import com.surelogic.common.adhoc.jobs.RefineAdHocQueryResultJob;
 import com.surelogic.common.core.EclipseUtility;
 
 /**
@@ -54,6 +56,21 @@ public final class EclipseQueryUtility {
     monJob.schedule();
   }
 
+  /**
+   * Submits a job in Eclipse that sorts and filters the rows of a result on the
+   * database.
+   * 
+   * @param result
+   *          the non-null result whose rows are refined.
+   * @param refinement
+   *          the non-null sort and filter to apply.
+   */
+  public static void scheduleRefinement(final AdHocQueryResultSqlData result, final AdHocQueryRefinement refinement) {
+    final Job job = EclipseUtility.toEclipseJob(new RefineAdHocQueryResultJob(result, refinement), result.getAccessKeys());
+    job.setUser(true);
+    job.schedule();
+  }
+
   private EclipseQueryUtility() {
     // no instances
   }
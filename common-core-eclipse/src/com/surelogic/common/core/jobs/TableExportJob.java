@@ -20,14 +20,13 @@ public final class TableExportJob extends EclipseAccessKeysJob {
 
   @Override
   protected IStatus run(IProgressMonitor monitor) {
-    monitor.beginTask("Exporting data", IProgressMonitor.UNKNOWN);
     try {
-      f_exporter.export();
+      // the wrapper begins and ends the task
+      f_exporter.export(new SLProgressMonitorWrapper(monitor, "Exporting data"));
     } catch (Exception e) {
       final int errNo = 45;
       return SLEclipseStatusUtility.createErrorStatus(errNo, I18N.err(errNo), e);
     }
-    monitor.done();
-    return Status.OK_STATUS;
+    return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
   }
 }
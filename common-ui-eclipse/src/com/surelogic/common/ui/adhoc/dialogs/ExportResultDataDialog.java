@@ -22,11 +22,13 @@ import org.eclipse.swt.widgets.Text;
 import com.surelogic.common.CommonImages;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.jobs.ExportResultDataInCSVFormatJob;
+import com.surelogic.common.adhoc.jobs.ExportResultDataInColumnarFormatJob;
 import com.surelogic.common.adhoc.jobs.ExportResultDataInTableHTMLFormatJob;
 import com.surelogic.common.adhoc.jobs.ExportResultDataInTreeHTMLFormatJob;
-import com.surelogic.common.adhoc.jobs.ExportResultDataJob;
 import com.surelogic.common.core.EclipseUtility;
+import com.surelogic.common.export.ExportFactory;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jobs.SLJob;
 import com.surelogic.common.ui.EclipseUIUtility;
 import com.surelogic.common.ui.SLImages;
 
@@ -46,6 +48,7 @@ public final class ExportResultDataDialog extends Dialog {
 	Button f_csvFormat;
 	Button f_htmlFormat;
 	Button f_htmlTreeFormat;
+	Button f_columnarFormat;
 
 	public ExportResultDataDialog(final Shell parent,
 			final AdHocQueryResultSqlData data) {
@@ -87,7 +90,7 @@ public final class ExportResultDataDialog extends Dialog {
 		f_csvFormat.addListener(SWT.Selection, new Listener() {
 			@Override
       public void handleEvent(final Event event) {
-				changeFileExtension("html", "csv");
+				changeFileExtension("csv");
 			}
 		});
 		f_htmlFormat = new Button(g, SWT.RADIO);
@@ -96,7 +99,7 @@ public final class ExportResultDataDialog extends Dialog {
 		f_htmlFormat.addListener(SWT.Selection, new Listener() {
 			@Override
       public void handleEvent(final Event event) {
-				changeFileExtension("csv", "html");
+				changeFileExtension("html");
 			}
 		});
 		f_htmlTreeFormat = new Button(g, SWT.RADIO);
@@ -105,7 +108,16 @@ public final class ExportResultDataDialog extends Dialog {
 		f_htmlTreeFormat.addListener(SWT.Selection, new Listener() {
 			@Override
       public void handleEvent(final Event event) {
-				changeFileExtension("csv", "html");
+				changeFileExtension("html");
+			}
+		});
+		f_columnarFormat = new Button(g, SWT.RADIO);
+		f_columnarFormat.setText("Compressed Columnar Binary (SLC)");
+		f_columnarFormat.setSelection(false);
+		f_columnarFormat.addListener(SWT.Selection, new Listener() {
+			@Override
+      public void handleEvent(final Event event) {
+				changeFileExtension(ExportFactory.COLUMNAR_SUFFIX.substring(1));
 			}
 		});
 
@@ -132,9 +144,10 @@ public final class ExportResultDataDialog extends Dialog {
 					fd = new FileDialog(getShell(), SWT.SAVE);
 					fd.setText("Destination File");
 					fd.setFilterExtensions(new String[] { "*.csv", "*.xml",
-							"*.*" });
+							"*.slc", "*.*" });
 					fd.setFilterNames(new String[] { "CSV Files (*.csv)",
-							"XML Files (*.xml)", "All Files (*.*)" });
+							"XML Files (*.xml)", "Columnar Files (*.slc)",
+							"All Files (*.*)" });
 				}
 				final String fileName = f_exportFilenameText.getText();
 				final int i = fileName.lastIndexOf(System
@@ -160,12 +173,14 @@ public final class ExportResultDataDialog extends Dialog {
 	protected void okPressed() {
 		final File exportfile = new File(f_exportFilenameText.getText());
 		if (exportfile != null) {
-			ExportResultDataJob job;
+			SLJob job;
 			if (f_csvFormat.getSelection()) {
 				// CSV format
 				job = new ExportResultDataInCSVFormatJob(data, exportfile);
 			} else if (f_htmlFormat.getSelection()) {
 				job = new ExportResultDataInTableHTMLFormatJob(data, exportfile);
+			} else if (f_columnarFormat.getSelection()) {
+				job = new ExportResultDataInColumnarFormatJob(data, exportfile);
 			} else {
 				job = new ExportResultDataInTreeHTMLFormatJob(data, exportfile);
 			}
@@ -176,11 +191,14 @@ public final class ExportResultDataDialog extends Dialog {
 		super.okPressed();
 	}
 
-	void changeFileExtension(final String from, final String to) {
+	void changeFileExtension(final String to) {
 		final StringBuilder b = new StringBuilder(
 				f_exportFilenameText.getText());
-		if (b.toString().endsWith(from)) {
-			b.replace(b.length() - from.length(), b.length(), to);
+		for (final String from : new String[] { "csv", "html", "slc" }) {
+			if (b.toString().endsWith(from)) {
+				b.replace(b.length() - from.length(), b.length(), to);
+				break;
+			}
 		}
 		f_exportFilenameText.setText(b.toString());
 	}
@@ -7,6 +7,9 @@ import java.util.Map;
 import java.util.logging.Level;
 
 import org.apache.commons.lang3.SystemUtils;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuManager;
 import org.eclipse.jface.action.IToolBarManager;
@@ -20,6 +23,7 @@ import org.eclipse.swt.dnd.Transfer;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
@@ -41,20 +45,24 @@ import org.eclipse.swt.widgets.TreeItem;
 import org.eclipse.ui.IActionBars;
 import org.eclipse.ui.IViewPart;
 import org.eclipse.ui.part.ViewPart;
+import org.eclipse.ui.progress.UIJob;
 
 import com.surelogic.Nullable;
 import com.surelogic.common.CommonImages;
 import com.surelogic.common.Justification;
 import com.surelogic.common.XUtil;
 import com.surelogic.common.adhoc.AdHocManager;
+import com.surelogic.common.adhoc.AdHocManagerAdapter;
 import com.surelogic.common.adhoc.AdHocQuery;
 import com.surelogic.common.adhoc.AdHocQueryFullyBound;
+import com.surelogic.common.adhoc.AdHocQueryRefinement;
 import com.surelogic.common.adhoc.AdHocQueryResult;
 import com.surelogic.common.adhoc.AdHocQueryResultEmpty;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlException;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlUpdateCount;
 import com.surelogic.common.adhoc.AdHocSubQuery;
+import com.surelogic.common.adhoc.IAdHocManagerObserver;
 import com.surelogic.common.adhoc.model.AdornedTreeTableModel;
 import com.surelogic.common.adhoc.model.Cell;
 import com.surelogic.common.adhoc.model.LeafTreeCell;
@@ -75,6 +83,7 @@ import com.surelogic.common.ui.adhoc.IQueryResultCustomDisplay;
 import com.surelogic.common.ui.adhoc.views.QueryResultNavigator;
 import com.surelogic.common.ui.adhoc.views.editor.AbstractQueryEditorView;
 import com.surelogic.common.ui.adhoc.views.editor.SQLSyntaxHighlighterSkipFirstLine;
+import com.surelogic.common.ui.jobs.SLUIJob;
 
 public abstract class AbstractQueryResultsView extends ViewPart {
 
@@ -84,6 +93,26 @@ public abstract class AbstractQueryResultsView extends ViewPart {
     QueryResultNavigator f_navigator = null;
     AdHocQueryResult f_result = null;
 
+    /**
+     * Redisplays the result shown by this view as more of its rows are read.
+     */
+    private final IAdHocManagerObserver f_rowsObserver = new AdHocManagerAdapter() {
+        @Override
+        public void notifyResultRowsChange(final AdHocQueryResultSqlData result) {
+            final UIJob job = new SLUIJob() {
+                @Override
+                public IStatus runInUIThread(final IProgressMonitor monitor) {
+                    if (f_result == result && f_parent != null
+                            && !f_parent.isDisposed()) {
+                        displayResult(result);
+                    }
+                    return Status.OK_STATUS;
+                }
+            };
+            job.schedule();
+        }
+    };
+
     @Override
     public void createPartControl(final Composite parent) {
         f_parent = parent;
@@ -139,6 +168,8 @@ public abstract class AbstractQueryResultsView extends ViewPart {
         menu.add(f_navigator.getDisposeAction());
         menu.add(f_navigator.getDisposeAllAction());
 
+        getManager().addObserver(f_rowsObserver);
+
         AdHocQueryResult result = getManager().getSelectedResult();
         if (result != null) {
             displayResult(result);
@@ -149,6 +180,7 @@ public abstract class AbstractQueryResultsView extends ViewPart {
 
     @Override
     public void dispose() {
+        getManager().removeObserver(f_rowsObserver);
         if (f_navigator != null) {
             f_navigator.dispose();
         }
@@ -364,11 +396,19 @@ public abstract class AbstractQueryResultsView extends ViewPart {
 
             boolean allowColumnSorting = data.getQueryFullyBound().getQuery()
                     .getMetaWithName(AdHocQuery.META_DISABLE_COLUMN_SORT) == null;
+            /*
+             * Sorting the rows read for a row limited result would not give the
+             * first rows of the sorted query, so the database sorts them.
+             */
+            final boolean sortOnDatabase = data.isDatabaseRefinementNeeded();
+            final AdHocQueryRefinement refinement = data.getRefinement();
 
             // add the columns
             final String[] columnLabels = model.getColumnLabels();
+            final List<Integer> tableColumns = new ArrayList<>();
             for (int colI = 0; colI < model.getColumnCount(); colI++) {
                 if (model.isColumnVisible(colI)) {
+                    tableColumns.add(colI);
                     final String columnLabel = columnLabels[colI];
                     final TableColumn column = new TableColumn(table, SWT.NONE);
                     column.setText(columnLabel);
@@ -379,7 +419,26 @@ public abstract class AbstractQueryResultsView extends ViewPart {
                     } else if (justification == Justification.CENTER) {
                         column.setAlignment(SWT.CENTER);
                     }
-                    if (allowColumnSorting) {
+                    if (allowColumnSorting && sortOnDatabase) {
+                        final int sourceColI = model.getSourceColumnIndex(colI);
+                        if (refinement.getSortColumn() == sourceColI) {
+                            table.setSortColumn(column);
+                            table.setSortDirection(refinement.isAscending() ? SWT.UP
+                                    : SWT.DOWN);
+                        }
+                        column.addListener(SWT.Selection, new Listener() {
+                            @Override
+                            public void handleEvent(final Event event) {
+                                final AdHocQueryRefinement current = data
+                                        .getRefinement();
+                                final boolean ascending = current
+                                        .getSortColumn() != sourceColI
+                                        || !current.isAscending();
+                                EclipseQueryUtility.scheduleRefinement(data,
+                                        current.sortedBy(sourceColI, ascending));
+                            }
+                        });
+                    } else if (allowColumnSorting) {
                         column.addListener(
                                 SWT.Selection,
                                 TableUtility.SORT_COLUMN_NUMERICALLY_THEN_LEXICALLY);
@@ -439,6 +498,9 @@ public abstract class AbstractQueryResultsView extends ViewPart {
                     runDefaultQueryOf(data, null);
                 }
             });
+            if (sortOnDatabase) {
+                setupFilterMenu(menu, table, data, tableColumns);
+            }
 
             // minimize the column widths
             TableUtility.packColumns(table);
@@ -779,6 +841,112 @@ public abstract class AbstractQueryResultsView extends ViewPart {
         });
     }
 
+    /**
+     * Adds items to the pop-up menu of a table that have the database show only
+     * the rows that match the cell the menu was opened on, or all the rows
+     * again. Only used for results whose rows are sorted and filtered by the
+     * database.
+     * 
+     * @param menu
+     *            the pop-up menu of <tt>table</tt>, which must already be set
+     *            up by {@link #setupSubQueryMenu(Menu, AdHocQueryResult, Map)}.
+     * @param table
+     *            the table showing <tt>data</tt>.
+     * @param data
+     *            a query result.
+     * @param tableColumns
+     *            the index in the model of <tt>data</tt> of each column of
+     *            <tt>table</tt>.
+     */
+    private static void setupFilterMenu(final Menu menu, final Table table,
+            final AdHocQueryResultSqlData data,
+            final List<Integer> tableColumns) {
+        final Point[] menuLocation = new Point[1];
+        table.addListener(SWT.MenuDetect, new Listener() {
+            @Override
+            public void handleEvent(final Event event) {
+                menuLocation[0] = table.toControl(event.x, event.y);
+            }
+        });
+        /*
+         * Added after the listener of setupSubQueryMenu, so it runs after the
+         * menu has been emptied and the sub-queries added.
+         */
+        menu.addListener(SWT.Show, new Listener() {
+            @Override
+            public void handleEvent(final Event event) {
+                final AdHocQueryRefinement current = data.getRefinement();
+                final AdornedTreeTableModel model = data.getModel();
+                int colI = -1;
+                int rowI = -1;
+                final Point location = menuLocation[0];
+                final TableItem item = location == null ? null : table
+                        .getItem(location);
+                if (item != null) {
+                    for (int i = 0; i < tableColumns.size(); i++) {
+                        if (item.getBounds(i).contains(location)) {
+                            colI = tableColumns.get(i);
+                            rowI = (Integer) item.getData();
+                            break;
+                        }
+                    }
+                }
+                /*
+                 * Filter on the value the query returned, not the adorned text
+                 * of the cell, which may be formatted.
+                 */
+                final String value = colI == -1 ? null : model
+                        .getSourceValue(rowI, colI);
+                final boolean canFilter = value != null
+                        && value.trim().length() > 0;
+                final boolean isFiltered = current.getFilterColumn() != -1;
+                if (!canFilter && !isFiltered) {
+                    return;
+                }
+                if (menu.getItemCount() > 0) {
+                    new MenuItem(menu, SWT.SEPARATOR);
+                }
+                if (canFilter) {
+                    final int sourceColI = model.getSourceColumnIndex(colI);
+                    final MenuItem filter = new MenuItem(menu, SWT.PUSH);
+                    filter.setText(I18N.msg("adhoc.query.results.filter",
+                            model.getColumnLabels()[colI], value));
+                    filter.addListener(SWT.Selection, new Listener() {
+                        @Override
+                        public void handleEvent(final Event event) {
+                            final AdHocQueryRefinement refinement;
+                            try {
+                                refinement = data.getRefinement().filteredBy(
+                                        sourceColI, value);
+                            } catch (final IllegalArgumentException e) {
+                                SLLogger.getLogger().log(Level.SEVERE,
+                                        e.getMessage(), e);
+                                return;
+                            }
+                            EclipseQueryUtility.scheduleRefinement(data,
+                                    refinement);
+                        }
+                    });
+                }
+                if (isFiltered) {
+                    final MenuItem showAll = new MenuItem(menu, SWT.PUSH);
+                    showAll.setText(I18N
+                            .msg("adhoc.query.results.filter.remove"));
+                    showAll.addListener(SWT.Selection, new Listener() {
+                        @Override
+                        public void handleEvent(final Event event) {
+                            final AdHocQueryRefinement refinement = data
+                                    .getRefinement();
+                            EclipseQueryUtility.scheduleRefinement(data,
+                                    refinement.filteredBy(
+                                            refinement.getFilterColumn(), null));
+                        }
+                    });
+                }
+            }
+        });
+    }
+
     /**
      * Used to copy query result from the UI.
      * <p>
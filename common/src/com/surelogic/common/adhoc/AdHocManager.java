@@ -80,6 +80,9 @@ public final class AdHocManager {
   public static void shutdown() {
     for (final AdHocManager manager : f_dataSourceToManager.values()) {
       manager.tryToPersistToQuerySaveFile();
+      manager.f_prefetcher.shutdown();
+      manager.f_resultCache.clear();
+      manager.switchDatabase(null);
     }
     f_dataSourceToManager.clear();
   }
@@ -100,6 +103,74 @@ public final class AdHocManager {
     return f_source;
   }
 
+  /**
+   * Runs default sub-queries ahead of the user, see
+   * {@link AdHocQueryPrefetcher}.
+   */
+  @NonNull
+  private final AdHocQueryPrefetcher f_prefetcher = new AdHocQueryPrefetcher(this);
+
+  /**
+   * Holds the rows read by queries run on the data source of this manager.
+   */
+  @NonNull
+  private final AdHocQueryResultCache f_resultCache = new AdHocQueryResultCache();
+
+  /**
+   * Gets the cache of rows read by queries run on the data source of this
+   * manager.
+   * 
+   * @return the cache of rows read by queries.
+   */
+  @NonNull
+  public AdHocQueryResultCache getResultCache() {
+    return f_resultCache;
+  }
+
+  /**
+   * The database used by the last query run by this manager, or {@code null}
+   * if none has been run. It is kept running, rather than shut down after each
+   * query, so that its pooled connections and cached statements serve the
+   * next query, e.g., a drill-down from the result.
+   */
+  @Nullable
+  private DBConnection f_lastDatabase;
+
+  /**
+   * Notes that a query run by this manager has finished with the passed
+   * database. The database of the query before is shut down if it was
+   * different, so that only the database in use is kept running.
+   * 
+   * @param database
+   *          the database the query ran on.
+   */
+  public void doneWithDatabase(@NonNull final DBConnection database) {
+    if (database == null)
+      throw new IllegalArgumentException(I18N.err(44, "database"));
+    switchDatabase(database);
+  }
+
+  private void switchDatabase(@Nullable final DBConnection database) {
+    final DBConnection previous;
+    synchronized (this) {
+      previous = f_lastDatabase;
+      f_lastDatabase = database;
+    }
+    if (previous != null && previous != database) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Gets the prefetcher of default sub-query results for this manager.
+   * 
+   * @return the prefetcher of default sub-query results for this manager.
+   */
+  @NonNull
+  public AdHocQueryPrefetcher getPrefetcher() {
+    return f_prefetcher;
+  }
+
   /**
    * Only called by {@link #getInstance(String)}
    */
@@ -330,6 +401,7 @@ public final class AdHocManager {
        * Remove our link to the query.
        */
       f_queries.remove(query);
+      f_queryToTemplate.remove(query);
       /*
        * We need to ensure that this query is not a sub-query of any of the
        * remaining queries.
@@ -355,6 +427,35 @@ public final class AdHocManager {
     }
   }
 
+  /**
+   * The compiled templates of queries that have been run, see
+   * {@link #getTemplate(AdHocQuery)}.
+   */
+  private final ConcurrentMap<AdHocQuery, AdHocQueryTemplate> f_queryToTemplate = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the compiled template for the current SQL text of the passed query.
+   * Templates are compiled once and kept until the SQL text of the query
+   * changes, so that running the query again with different variable values
+   * reuses the same prepared statement.
+   * 
+   * @param query
+   *          a query owned by this manager.
+   * @return the compiled template for the query.
+   */
+  @NonNull
+  public AdHocQueryTemplate getTemplate(@NonNull final AdHocQuery query) {
+    if (query == null)
+      throw new IllegalArgumentException(I18N.err(44, "query"));
+    final String sql = query.getSql();
+    AdHocQueryTemplate result = f_queryToTemplate.get(query);
+    if (result == null || !result.getSourceSql().equals(sql)) {
+      result = AdHocQueryTemplate.compile(sql);
+      f_queryToTemplate.put(query, result);
+    }
+    return result;
+  }
+
   /**
    * The set of categories owned by this manager. It is an invariant that for
    * all queries and categories <i>x</i> and <i>y</i> that are elements of this
@@ -618,6 +719,8 @@ public final class AdHocManager {
         result.delete();
       }
     }
+    f_prefetcher.cancel();
+    f_resultCache.invalidate(f_database);
     notifyResultModelChange();
   }
 
@@ -858,11 +961,25 @@ public final class AdHocManager {
    * deadlock.
    */
   void notifyResultVariableValueChange(final AdHocQueryResultSqlData result) {
+    f_prefetcher.selectionChanged(result);
     for (final IAdHocManagerObserver o : f_observers) {
       o.notifyResultVariableValueChange(result);
     }
   }
 
+  /**
+   * Notifies the observers of this manager that more rows have been read for a
+   * result.
+   * <p>
+   * Do <i>not</i> call this method holding any locks due to the potential for
+   * deadlock.
+   */
+  void notifyResultRowsChange(final AdHocQueryResultSqlData result) {
+    for (final IAdHocManagerObserver o : f_observers) {
+      o.notifyResultRowsChange(result);
+    }
+  }
+
   @Nullable
   private AdHocQuery f_showForQuerydoc = null;
 
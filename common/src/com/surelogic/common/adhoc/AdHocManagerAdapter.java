@@ -34,6 +34,11 @@ public abstract class AdHocManagerAdapter implements IAdHocManagerObserver {
     // do nothing
   }
 
+  @Override
+  public void notifyResultRowsChange(AdHocQueryResultSqlData result) {
+    // do nothing
+  }
+
   @Override
   public void notifyQuerydocValueChange(AdHocQuery query) {
     // do nothing
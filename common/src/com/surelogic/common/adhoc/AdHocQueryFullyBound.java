@@ -1,12 +1,19 @@
 package com.surelogic.common.adhoc;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 
 import com.surelogic.NonNull;
 import com.surelogic.Nullable;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.StatementCache;
+import com.surelogic.common.logging.SLLogger;
 
 /**
  * A query that has bound all its variables.
@@ -32,6 +39,45 @@ public final class AdHocQueryFullyBound {
     if (!query.isCompletelySubstitutedBy(variableValues)) {
       throw new IllegalStateException(I18N.err(120, query, variableValues));
     }
+    f_refinement = null;
+  }
+
+  private AdHocQueryFullyBound(final AdHocQueryFullyBound from, final AdHocQueryRefinement refinement) {
+    f_query = from.f_query;
+    f_variableValues = from.f_variableValues;
+    f_topVariableValues = from.f_topVariableValues;
+    f_refinement = refinement;
+  }
+
+  /**
+   * The sort and filter of the rows of this query done by the database, or
+   * {@code null} if none.
+   */
+  @Nullable
+  private final AdHocQueryRefinement f_refinement;
+
+  /**
+   * Gets the sort and filter of the rows of this query done by the database.
+   * 
+   * @return the sort and filter of the rows of this query, or {@code null} if
+   *         none.
+   */
+  @Nullable
+  public AdHocQueryRefinement getRefinement() {
+    return f_refinement;
+  }
+
+  /**
+   * Returns a copy of this query, with the same variable values, whose rows
+   * are sorted and filtered by the database.
+   * 
+   * @param refinement
+   *          the sort and filter to apply, or {@code null} for none.
+   * @return a copy of this query.
+   */
+  @NonNull
+  public AdHocQueryFullyBound refinedBy(@Nullable final AdHocQueryRefinement refinement) {
+    return new AdHocQueryFullyBound(this, refinement);
   }
 
   private final AdHocQuery f_query;
@@ -48,12 +94,99 @@ public final class AdHocQueryFullyBound {
   /**
    * Gets the SQL with all variable substitutions performed. This method is
    * equivalent to {@code o.getQuery().getSql(o.getVariableValues())} on an
-   * object {@code o} of this type.
+   * object {@code o} of this type, wrapped by its refinement if it has one.
    * 
    * @return the SQL with all variable substitutions performed.
    */
   public String getSql() {
-    return f_query.getSql(f_variableValues);
+    final String sql = f_query.getSql(f_variableValues);
+    return f_refinement == null ? sql : f_refinement.wrap(sql);
+  }
+
+  /**
+   * Gets the compiled template of this query if the variable values of this
+   * can be bound to it as parameters.
+   * 
+   * @return the compiled template of this query, or {@code null} if the
+   *         variable values must be substituted into the SQL text.
+   */
+  @Nullable
+  public AdHocQueryTemplate getTemplateOrNull() {
+    if (AdHocQueryTemplate.INLINE || f_refinement != null)
+      return null;
+    final AdHocQueryTemplate template = getManager().getTemplate(f_query);
+    return template.canBind(f_variableValues) ? template : null;
+  }
+
+  /**
+   * Executes this query on the passed connection. If the variable values can
+   * be bound as parameters, the statement is checked out of the
+   * {@link StatementCache} of the connection so that Derby does not have to
+   * compile the query again. A template is kept out of the cache until it has
+   * been prepared and bound once. Otherwise the SQL returned by
+   * {@link #getSql()} is executed on a new statement.
+   * <p>
+   * The caller obtains the results from the returned statement and then
+   * releases it with {@link StatementCache#checkIn(Connection, Statement)}.
+   * 
+   * @param c
+   *          a connection.
+   * @return the executed statement.
+   * @throws SQLException
+   *           if the query fails.
+   */
+  @NonNull
+  public Statement execute(@NonNull final Connection c) throws SQLException {
+    final AdHocQueryTemplate template = getTemplateOrNull();
+    if (template != null) {
+      final StatementCache cache = StatementCache.forConnection(c);
+      PreparedStatement st = null;
+      try {
+        if (template.isVerified()) {
+          st = cache.prepare(template.getSql());
+          template.bind(st, f_variableValues);
+        } else {
+          /*
+           * A template that Derby can't compile, e.g., because a parameter is
+           * used where its type can't be inferred, fails either when it is
+           * prepared or, if statements are prepared lazily, when it is bound.
+           */
+          final PreparedStatement candidate = c.prepareStatement(template.getSql());
+          try {
+            template.bind(candidate, f_variableValues);
+          } catch (final SQLException e) {
+            candidate.close();
+            throw e;
+          }
+          template.markVerified();
+          st = cache.add(template.getSql(), candidate);
+        }
+      } catch (final SQLException e) {
+        if (st != null) {
+          cache.checkIn(st);
+          st = null;
+        }
+        template.markFailed();
+        SLLogger.getLogger().log(Level.FINE, e.getMessage(), e);
+      }
+      if (st != null) {
+        try {
+          st.execute();
+        } catch (final SQLException e) {
+          cache.checkIn(st);
+          throw e;
+        }
+        return st;
+      }
+    }
+    final Statement st = c.createStatement();
+    try {
+      st.execute(getSql());
+    } catch (final SQLException e) {
+      st.close();
+      throw e;
+    }
+    return st;
   }
 
   /**
@@ -0,0 +1,279 @@
+package com.surelogic.common.adhoc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.jdbc.CancellableConnection;
+import com.surelogic.common.jdbc.ColumnarResult;
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jdbc.StatementCache;
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * Runs the default sub-query of the selected row of a result, and of the rows
+ * next to it, before the user asks for it. The rows read are put into the
+ * {@link AdHocQueryResultCache} of the manager, where the query jobs look for
+ * them before going to the database.
+ * <p>
+ * Each change of selection supersedes the work started for the previous one:
+ * waiting work is dropped and running statements are cancelled. The number of
+ * threads used by each manager may be set with the {@value #THREADS_PROP}
+ * system property, a value of <tt>0</tt> turns prefetching off. The number of
+ * rows next to the selection that are prefetched may be set with the
+ * {@value #NEIGHBOURS_PROP} system property.
+ * <p>
+ * Each instance is owned by one {@link AdHocManager}. Instances are
+ * thread-safe.
+ */
+public final class AdHocQueryPrefetcher {
+
+  public static final String THREADS_PROP = "com.surelogic.common.adhoc.prefetchThreads";
+  public static final String NEIGHBOURS_PROP = "com.surelogic.common.adhoc.prefetchNeighbours";
+
+  public static final int DEFAULT_THREADS = 1;
+  public static final int DEFAULT_NEIGHBOURS = 1;
+
+  static final int THREADS = Math.max(0, Integer.getInteger(THREADS_PROP, DEFAULT_THREADS));
+  static final int NEIGHBOURS = Math.max(0, Integer.getInteger(NEIGHBOURS_PROP, DEFAULT_NEIGHBOURS));
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  @NonNull
+  private final AdHocManager f_manager;
+
+  /**
+   * The pool work is run on, or {@code null} if prefetching is off.
+   */
+  @Nullable
+  private final ThreadPoolExecutor f_executor;
+
+  /**
+   * The work started for the current selection. Protected by a lock on this.
+   */
+  private final List<Prefetch> f_current = new ArrayList<>();
+
+  AdHocQueryPrefetcher(@NonNull final AdHocManager manager) {
+    f_manager = manager;
+    if (THREADS > 0) {
+      f_executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              final Thread t = new Thread(r, "Ad hoc query prefetch " + THREAD_COUNT.incrementAndGet());
+              t.setDaemon(true);
+              t.setPriority(Thread.MIN_PRIORITY);
+              return t;
+            }
+          });
+      f_executor.allowCoreThreadTimeOut(true);
+    } else {
+      f_executor = null;
+    }
+  }
+
+  /**
+   * Checks if prefetching is on.
+   *
+   * @return {@code true} if prefetching is on, {@code false} otherwise.
+   */
+  public boolean isEnabled() {
+    return f_executor != null && !f_executor.isShutdown();
+  }
+
+  /**
+   * Called when the selection within a result changes. Work for any previous
+   * selection is cancelled and the default sub-query of the newly selected row
+   * and its neighbours is started.
+   *
+   * @param result
+   *          the result whose selection changed.
+   */
+  void selectionChanged(@NonNull final AdHocQueryResultSqlData result) {
+    if (!isEnabled()) {
+      return;
+    }
+    final List<AdHocQueryFullyBound> queries = new ArrayList<>();
+    final int selected = result.getSelectedRowIndex();
+    if (selected != -1) {
+      addDefaultSubQuery(result, result.getVariableValues(), result.getTopVariableValues(), queries);
+      final int rowCount = result.getModel().getRowCount();
+      for (int distance = 1; distance <= NEIGHBOURS; distance++) {
+        for (final int row : new int[] { selected + distance, selected - distance }) {
+          if (row >= 0 && row < rowCount) {
+            addDefaultSubQuery(result, result.getVariableValuesForRow(row), result.getTopVariableValuesForRow(row), queries);
+          }
+        }
+      }
+    } else if (result.getSelectedCell() != null) {
+      addDefaultSubQuery(result, result.getVariableValues(), result.getTopVariableValues(), queries);
+    }
+
+    final AdHocQueryResultCache cache = f_manager.getResultCache();
+    final DBConnection db = result.getDB();
+    synchronized (this) {
+      cancelCurrent();
+      for (final AdHocQueryFullyBound query : queries) {
+        final String sql = query.getSql();
+        if (!cache.contains(db, sql)) {
+          final Prefetch work = new Prefetch(query, sql, db, cache.getGeneration(db));
+          work.future = f_executor.submit(work);
+          f_current.add(work);
+        }
+      }
+    }
+  }
+
+  private static void addDefaultSubQuery(final AdHocQueryResultSqlData result, final Map<String, String> variableValues,
+      final Map<String, String> topVariableValues, final List<AdHocQueryFullyBound> mutable) {
+    final AdHocQuery parentQuery = result.getQueryFullyBound().getQuery();
+    final AdHocSubQuery defaultSubQuery = AdHocSubQuery.sortHelper(parentQuery.getVisibleSubQueryList(), variableValues,
+        parentQuery);
+    if (defaultSubQuery != null) {
+      mutable.add(new AdHocQueryFullyBound(defaultSubQuery.getQuery(), variableValues, topVariableValues));
+    }
+  }
+
+  private void cancelCurrent() {
+    for (final Prefetch work : f_current) {
+      work.cancel();
+    }
+    f_current.clear();
+  }
+
+  /**
+   * Cancels all work.
+   */
+  public synchronized void cancel() {
+    cancelCurrent();
+  }
+
+  /**
+   * Cancels all work and stops the threads used by this.
+   */
+  void shutdown() {
+    cancel();
+    if (f_executor != null) {
+      f_executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs one sub-query and puts its rows into the cache.
+   */
+  private final class Prefetch implements Runnable {
+
+    final AdHocQueryFullyBound query;
+    final String sql;
+    final DBConnection db;
+    final int generation;
+    Future<?> future;
+    /**
+     * Protected by a lock on this.
+     */
+    boolean cancelled;
+    /**
+     * The connection the work is running on, set only while the work owns it.
+     * Protected by a lock on this.
+     */
+    Connection connection;
+
+    Prefetch(final AdHocQueryFullyBound query, final String sql, final DBConnection db, final int generation) {
+      this.query = query;
+      this.sql = sql;
+      this.db = db;
+      this.generation = generation;
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      if (future != null) {
+        future.cancel(false);
+      }
+      if (connection instanceof CancellableConnection) {
+        ((CancellableConnection) connection).cancelRunningStatement();
+      }
+    }
+
+    synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Records that the work is running on a connection, unless it has been
+     * cancelled.
+     *
+     * @return {@code true} if the work may go on, {@code false} if it has been
+     *         cancelled.
+     */
+    synchronized boolean own(final Connection c) {
+      if (cancelled) {
+        return false;
+      }
+      connection = c;
+      return true;
+    }
+
+    /**
+     * Records that the work is done with its connection, so that a later
+     * {@link #cancel()} does not touch it once it is returned to the pool.
+     */
+    synchronized void release() {
+      connection = null;
+    }
+
+    @Override
+    public void run() {
+      if (isCancelled()) {
+        return;
+      }
+      try {
+        final Connection c = db.readOnlyConnection();
+        try {
+          if (!own(c)) {
+            return;
+          }
+          final Statement st = query.execute(c);
+          try {
+            final ResultSet rs = st.getResultSet();
+            if (rs != null) {
+              try {
+                final ColumnarResult rows = ColumnarResult.read(rs, f_manager.getDataSource().getMaxRowsPerQuery());
+                if (!isCancelled()) {
+                  f_manager.getResultCache().put(db, generation, sql, rows);
+                }
+              } finally {
+                rs.close();
+              }
+            }
+          } finally {
+            StatementCache.checkIn(c, st);
+          }
+        } finally {
+          release();
+          c.close();
+        }
+      } catch (final SQLException e) {
+        // Cancelled, or the job will report the problem if the user runs it
+        SLLogger.getLogger().log(Level.FINE, e.getMessage(), e);
+      } finally {
+        synchronized (AdHocQueryPrefetcher.this) {
+          f_current.remove(this);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package com.surelogic.common.adhoc;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
+
+/**
+ * A sort and filter of the rows of a query that is done by the database. The
+ * SQL of the query is wrapped in an outer <tt>SELECT</tt> that adds a
+ * <tt>WHERE</tt> and an <tt>ORDER BY</tt> clause and only fetches the first
+ * page of rows, so that Derby can use its indexes and only the rows shown are
+ * read. This is needed for a row limited result, where sorting the rows in
+ * memory would only sort the rows that were read.
+ * <p>
+ * The wrapper keeps the column labels of the query, so the refined rows are
+ * displayed, and define variables, just like the rows of the query.
+ * <p>
+ * Instances are immutable.
+ */
+public final class AdHocQueryRefinement {
+
+  private static final int NONE = -1;
+
+  /**
+   * Constructs a refinement that neither sorts nor filters the rows of a
+   * query.
+   *
+   * @param rows
+   *          rows read for the query, used for their column labels and types.
+   * @param pageSize
+   *          the maximum number of rows to fetch. A value of 0 indicates no
+   *          maximum.
+   * @return a refinement.
+   */
+  @NonNull
+  public static AdHocQueryRefinement of(@NonNull final ColumnarResult rows, final int pageSize) {
+    if (rows == null)
+      throw new IllegalArgumentException(I18N.err(44, "rows"));
+    final boolean[] integral = new boolean[rows.getColumnCount()];
+    final boolean[] character = new boolean[rows.getColumnCount()];
+    for (int i = 0; i < integral.length; i++) {
+      integral[i] = rows.isIntegralColumn(i);
+      character[i] = rows.isCharacterColumn(i);
+    }
+    return new AdHocQueryRefinement(rows.getColumnLabels().clone(), integral, character, pageSize, NONE, true, NONE, null);
+  }
+
+  private final String[] f_columnLabels;
+  private final boolean[] f_integral;
+  private final boolean[] f_character;
+  private final int f_pageSize;
+  private final int f_sortColumn;
+  private final boolean f_ascending;
+  private final int f_filterColumn;
+  private final String f_filterText;
+
+  private AdHocQueryRefinement(final String[] columnLabels, final boolean[] integral, final boolean[] character,
+      final int pageSize, final int sortColumn, final boolean ascending, final int filterColumn, final String filterText) {
+    f_columnLabels = columnLabels;
+    f_integral = integral;
+    f_character = character;
+    f_pageSize = pageSize;
+    f_sortColumn = sortColumn;
+    f_ascending = ascending;
+    f_filterColumn = filterColumn;
+    f_filterText = filterText;
+  }
+
+  /**
+   * Returns a copy of this refinement that sorts on the passed column.
+   *
+   * @param column
+   *          a zero-based column index of the query.
+   * @param ascending
+   *          {@code true} to sort in ascending order, {@code false} to sort in
+   *          descending order.
+   * @return a refinement.
+   */
+  @NonNull
+  public AdHocQueryRefinement sortedBy(final int column, final boolean ascending) {
+    checkColumn(column);
+    return new AdHocQueryRefinement(f_columnLabels, f_integral, f_character, f_pageSize, column, ascending, f_filterColumn,
+        f_filterText);
+  }
+
+  /**
+   * Returns a copy of this refinement that only keeps rows whose value in the
+   * passed column matches the passed text. An integer column matches if it is
+   * equal to the text, any other column matches if its value, converted to
+   * characters if it is not already, contains the text.
+   *
+   * @param column
+   *          a zero-based column index of the query.
+   * @param text
+   *          the text to match, or {@code null} to remove the filter.
+   * @return a refinement.
+   * @throws IllegalArgumentException
+   *           if the column holds integers and the text is not a whole number.
+   */
+  @NonNull
+  public AdHocQueryRefinement filteredBy(final int column, @Nullable final String text) {
+    if (text == null) {
+      return new AdHocQueryRefinement(f_columnLabels, f_integral, f_character, f_pageSize, f_sortColumn, f_ascending, NONE, null);
+    }
+    checkColumn(column);
+    if (f_integral[column] && toWholeNumberOrNull(text) == null) {
+      throw new IllegalArgumentException(I18N.err(378, text, f_columnLabels[column]));
+    }
+    return new AdHocQueryRefinement(f_columnLabels, f_integral, f_character, f_pageSize, f_sortColumn, f_ascending, column, text);
+  }
+
+  /**
+   * Returns a copy of this refinement that fetches a different number of
+   * rows.
+   *
+   * @param pageSize
+   *          the maximum number of rows to fetch. A value of 0 indicates no
+   *          maximum.
+   * @return a refinement.
+   */
+  @NonNull
+  public AdHocQueryRefinement withPageSize(final int pageSize) {
+    return new AdHocQueryRefinement(f_columnLabels, f_integral, f_character, pageSize, f_sortColumn, f_ascending, f_filterColumn,
+        f_filterText);
+  }
+
+  private void checkColumn(final int column) {
+    if (column < 0 || column >= f_columnLabels.length) {
+      throw new IllegalArgumentException(I18N.err(373, column, f_columnLabels.length - 1));
+    }
+  }
+
+  /**
+   * Gets the zero-based column index sorted on.
+   *
+   * @return the zero-based column index sorted on, or -1 if rows are not
+   *         sorted.
+   */
+  public int getSortColumn() {
+    return f_sortColumn;
+  }
+
+  public boolean isAscending() {
+    return f_ascending;
+  }
+
+  /**
+   * Gets the zero-based column index filtered on.
+   *
+   * @return the zero-based column index filtered on, or -1 if rows are not
+   *         filtered.
+   */
+  public int getFilterColumn() {
+    return f_filterColumn;
+  }
+
+  @Nullable
+  public String getFilterText() {
+    return f_filterText;
+  }
+
+  /**
+   * Wraps the SQL of a query so that its rows are sorted and filtered by the
+   * database.
+   *
+   * @param sql
+   *          the SQL of a query with all variables substituted.
+   * @return the wrapped SQL.
+   */
+  @NonNull
+  public String wrap(@NonNull final String sql) {
+    if (sql == null)
+      throw new IllegalArgumentException(I18N.err(44, "sql"));
+    final StringBuilder b = new StringBuilder("SELECT ");
+    for (int i = 0; i < f_columnLabels.length; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(column(i)).append(" AS ").append(quoteIdentifier(f_columnLabels[i]));
+    }
+    b.append(" FROM (\n").append(stripTerminator(sql)).append("\n) AS ADHOC_REFINED (");
+    for (int i = 0; i < f_columnLabels.length; i++) {
+      if (i > 0) {
+        b.append(", ");
+      }
+      b.append(column(i));
+    }
+    b.append(')');
+    if (f_filterColumn != NONE) {
+      b.append(" WHERE ");
+      if (f_integral[f_filterColumn]) {
+        b.append(column(f_filterColumn)).append(" = ").append(toWholeNumberOrNull(f_filterText));
+      } else {
+        if (f_character[f_filterColumn]) {
+          b.append(column(f_filterColumn));
+        } else {
+          // Derby only allows LIKE on character values
+          b.append("TRIM(CHAR(").append(column(f_filterColumn)).append("))");
+        }
+        b.append(" LIKE ").append(quoteLiteral("%" + escapeLike(f_filterText) + "%")).append(" ESCAPE '!'");
+      }
+    }
+    if (f_sortColumn != NONE) {
+      b.append(" ORDER BY ").append(column(f_sortColumn)).append(f_ascending ? " ASC" : " DESC");
+    }
+    if (f_pageSize > 0) {
+      b.append(" FETCH FIRST ").append(f_pageSize).append(" ROWS ONLY");
+    }
+    return b.toString();
+  }
+
+  private static String column(final int index) {
+    return "C" + (index + 1);
+  }
+
+  private static String stripTerminator(final String sql) {
+    String result = sql.trim();
+    while (result.endsWith(";")) {
+      result = result.substring(0, result.length() - 1).trim();
+    }
+    return result;
+  }
+
+  private static String quoteIdentifier(final String identifier) {
+    return "\"" + identifier.replace("\"", "\"\"") + "\"";
+  }
+
+  private static String quoteLiteral(final String value) {
+    return "'" + value.replace("'", "''") + "'";
+  }
+
+  private static String escapeLike(final String value) {
+    return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+  }
+
+  @Nullable
+  private static String toWholeNumberOrNull(final String value) {
+    try {
+      return Long.toString(Long.parseLong(value.trim()));
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "[AdHocQueryRefinement: sortColumn=" + f_sortColumn + " ascending=" + f_ascending + " filterColumn=" + f_filterColumn
+        + " filterText=\"" + f_filterText + "\" pageSize=" + f_pageSize + "]";
+  }
+}
@@ -0,0 +1,360 @@
+package com.surelogic.common.adhoc;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jdbc.WriteTracking;
+
+/**
+ * A cache of the rows read by fully bound queries, so that running a query
+ * again does not go back to the database. Entries are keyed by the database,
+ * its generation, and the normalized SQL of the query. The generation of a
+ * database is its {@link WriteTracking#getWriteGeneration() write generation},
+ * which advances whenever a write to it commits. Entries read at an earlier
+ * generation are dropped, and rows read before a write are not added
+ * afterwards. Nothing is cached for a database that does not implement
+ * {@link WriteTracking}, or that is not tracking its writes.
+ * <p>
+ * Rows are held through soft references, so the garbage collector may reclaim
+ * them under memory pressure. In addition, the least recently used entries are
+ * evicted once the estimated size of all the rows held exceeds a budget. The
+ * budget, in megabytes, may be set with the {@value #BUDGET_PROP} system
+ * property. A value of <tt>0</tt> turns caching off.
+ * <p>
+ * Each instance is owned by one {@link AdHocManager}. Instances are
+ * thread-safe.
+ */
+public final class AdHocQueryResultCache {
+
+  /**
+   * The system property that sets the number of megabytes of rows the cache
+   * may hold.
+   */
+  public static final String BUDGET_PROP = "com.surelogic.common.adhoc.resultCacheMegabytes";
+
+  public static final int DEFAULT_BUDGET = 64;
+
+  static final long BUDGET = Math.max(0, Integer.getInteger(BUDGET_PROP, DEFAULT_BUDGET)) * 1024L * 1024L;
+
+  /**
+   * Normalizes the SQL text of a query so that queries that differ only in
+   * comments or whitespace share an entry. Comments are removed and runs of
+   * whitespace outside of string literals are replaced by a single space.
+   *
+   * @param sql
+   *          SQL text.
+   * @return the normalized SQL text.
+   */
+  @NonNull
+  public static String normalize(@NonNull final String sql) {
+    if (sql == null)
+      throw new IllegalArgumentException(I18N.err(44, "sql"));
+    final StringBuilder b = new StringBuilder(sql.length());
+    boolean withinLiteral = false;
+    boolean pendingSpace = false;
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (withinLiteral) {
+        b.append(c);
+        if (c == '\'') {
+          withinLiteral = false;
+        }
+      } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+        while (i < sql.length() && sql.charAt(i) != '\n') {
+          i++;
+        }
+        pendingSpace = true;
+      } else if (Character.isWhitespace(c)) {
+        pendingSpace = true;
+      } else {
+        if (pendingSpace && b.length() > 0) {
+          b.append(' ');
+        }
+        pendingSpace = false;
+        b.append(c);
+        if (c == '\'') {
+          withinLiteral = true;
+        }
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * Checks if the SQL text of a query only reads from the database, so that it
+   * may be run on a read-only connection. Only text that starts with
+   * <tt>SELECT</tt>, <tt>VALUES</tt>, or <tt>WITH</tt> is considered to be a
+   * query.
+   *
+   * @param sql
+   *          SQL text.
+   * @return {@code true} if the SQL text is a query, {@code false} otherwise.
+   */
+  public static boolean isQuery(@NonNull final String sql) {
+    final String normalized = normalize(sql);
+    for (final String keyword : new String[] { "SELECT", "VALUES", "WITH" }) {
+      if (normalized.regionMatches(true, 0, keyword, 0, keyword.length())
+          && (normalized.length() == keyword.length() || !Character.isLetterOrDigit(normalized.charAt(keyword.length())))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Key {
+    final DBConnection db;
+    final int generation;
+    final String sql;
+
+    Key(DBConnection db, int generation, String sql) {
+      this.db = db;
+      this.generation = generation;
+      this.sql = sql;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + db.hashCode();
+      result = prime * result + generation;
+      result = prime * result + sql.hashCode();
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return generation == other.generation && db.equals(other.db) && sql.equals(other.sql);
+    }
+  }
+
+  private static final class Entry extends SoftReference<ColumnarResult> {
+    final Key key;
+    final long size;
+
+    Entry(Key key, ColumnarResult rows, ReferenceQueue<ColumnarResult> queue) {
+      super(rows, queue);
+      this.key = key;
+      size = rows.getEstimatedSize();
+    }
+  }
+
+  /**
+   * The entries, least recently used first. Protected by a lock on this.
+   */
+  private final LinkedHashMap<Key, Entry> f_entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The last generation of each database seen by this cache. Protected by a
+   * lock on this.
+   */
+  private final Map<DBConnection, Integer> f_generations = new HashMap<>();
+
+  private final ReferenceQueue<ColumnarResult> f_collected = new ReferenceQueue<>();
+
+  private final long f_budget;
+  private long f_size;
+  private long f_hits;
+  private long f_misses;
+  private long f_evictions;
+
+  AdHocQueryResultCache() {
+    this(BUDGET);
+  }
+
+  AdHocQueryResultCache(final long budget) {
+    f_budget = budget;
+  }
+
+  /**
+   * Gets the current generation of a database. Any entries for the database
+   * read at an earlier generation are dropped.
+   *
+   * @param db
+   *          a database.
+   * @return the current generation of <tt>db</tt>, or
+   *         {@link WriteTracking#NOT_TRACKED} if writes to <tt>db</tt> are not
+   *         tracked, in which case nothing is cached for <tt>db</tt>.
+   */
+  public synchronized int getGeneration(@NonNull final DBConnection db) {
+    final int result = db instanceof WriteTracking ? ((WriteTracking) db).getWriteGeneration() : WriteTracking.NOT_TRACKED;
+    final Integer seen = f_generations.put(db, result);
+    if (seen != null && seen != result) {
+      invalidate(db);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the cached rows of a query.
+   *
+   * @param db
+   *          the database the query is to be run on.
+   * @param sql
+   *          the fully bound SQL of the query.
+   * @return the rows of the query, or {@code null} if they are not cached.
+   */
+  @Nullable
+  public synchronized ColumnarResult get(@NonNull final DBConnection db, @NonNull final String sql) {
+    purgeCollected();
+    final int generation = getGeneration(db);
+    if (f_entries.isEmpty() || generation == WriteTracking.NOT_TRACKED) {
+      f_misses++;
+      return null;
+    }
+    final Entry entry = f_entries.get(new Key(db, generation, normalize(sql)));
+    final ColumnarResult result = entry == null ? null : entry.get();
+    if (result == null) {
+      f_misses++;
+    } else {
+      f_hits++;
+    }
+    return result;
+  }
+
+  /**
+   * Checks if the rows of a query are cached.
+   *
+   * @param db
+   *          the database the query is to be run on.
+   * @param sql
+   *          the fully bound SQL of the query.
+   * @return {@code true} if the rows are cached, {@code false} otherwise.
+   */
+  public synchronized boolean contains(@NonNull final DBConnection db, @NonNull final String sql) {
+    purgeCollected();
+    final int generation = getGeneration(db);
+    if (generation == WriteTracking.NOT_TRACKED) {
+      return false;
+    }
+    final Entry entry = f_entries.get(new Key(db, generation, normalize(sql)));
+    return entry != null && entry.get() != null;
+  }
+
+  /**
+   * Adds the rows of a query to the cache. Nothing is added if the generation
+   * of the database has changed since the rows were read, if writes to the
+   * database are not tracked, or if the rows alone exceed the budget of the
+   * cache.
+   *
+   * @param db
+   *          the database the rows were read from.
+   * @param generation
+   *          the generation of <tt>db</tt>, obtained with
+   *          {@link #getGeneration(DBConnection)} before the query was run.
+   * @param sql
+   *          the fully bound SQL of the query.
+   * @param rows
+   *          the rows read.
+   */
+  public synchronized void put(@NonNull final DBConnection db, final int generation, @NonNull final String sql,
+      @NonNull final ColumnarResult rows) {
+    if (generation == WriteTracking.NOT_TRACKED || generation != getGeneration(db)) {
+      return;
+    }
+    purgeCollected();
+    final Key key = new Key(db, generation, normalize(sql));
+    final Entry entry = new Entry(key, rows, f_collected);
+    if (entry.size > f_budget) {
+      return;
+    }
+    final Entry previous = f_entries.put(key, entry);
+    if (previous != null) {
+      f_size -= previous.size;
+    }
+    f_size += entry.size;
+    final Iterator<Entry> lru = f_entries.values().iterator();
+    while (f_size > f_budget && lru.hasNext()) {
+      final Entry eldest = lru.next();
+      lru.remove();
+      f_size -= eldest.size;
+      f_evictions++;
+    }
+  }
+
+  /**
+   * Drops any entries whose rows have been reclaimed by the garbage collector.
+   */
+  private void purgeCollected() {
+    Object ref;
+    while ((ref = f_collected.poll()) != null) {
+      final Entry entry = (Entry) ref;
+      if (f_entries.get(entry.key) == entry) {
+        f_entries.remove(entry.key);
+        f_size -= entry.size;
+        f_evictions++;
+      }
+    }
+  }
+
+  /**
+   * Drops the entries of a database.
+   *
+   * @param db
+   *          a database.
+   */
+  public synchronized void invalidate(@NonNull final DBConnection db) {
+    for (final Iterator<Entry> i = f_entries.values().iterator(); i.hasNext();) {
+      final Entry entry = i.next();
+      if (entry.key.db.equals(db)) {
+        i.remove();
+        f_size -= entry.size;
+      }
+    }
+  }
+
+  /**
+   * Drops all entries.
+   */
+  public synchronized void clear() {
+    f_entries.clear();
+    f_size = 0;
+  }
+
+  /**
+   * Gets the estimated number of bytes of rows held.
+   *
+   * @return the estimated number of bytes of rows held.
+   */
+  public synchronized long getEstimatedSize() {
+    return f_size;
+  }
+
+  public synchronized long getHits() {
+    return f_hits;
+  }
+
+  public synchronized long getMisses() {
+    return f_misses;
+  }
+
+  public synchronized long getEvictions() {
+    return f_evictions;
+  }
+
+  public synchronized int size() {
+    return f_entries.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "AdHocQueryResultCache [size=" + f_entries.size() + ", bytes=" + f_size + ", budget=" + f_budget + ", hits=" + f_hits
+        + ", misses=" + f_misses + ", evictions=" + f_evictions + "]";
+  }
+}
@@ -1,20 +1,28 @@
 package com.surelogic.common.adhoc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.surelogic.NonNull;
+import com.surelogic.Nullable;
 import com.surelogic.common.CommonImages;
 import com.surelogic.common.SLUtility;
 import com.surelogic.common.adhoc.model.AdornedTreeTableModel;
+import com.surelogic.common.adhoc.model.Cell;
 import com.surelogic.common.adhoc.model.NonLeafTreeCell;
+import com.surelogic.common.adhoc.model.TreeCell;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
 import com.surelogic.common.jdbc.DBConnection;
 import com.surelogic.common.jdbc.ResultSetUtility;
 
 public final class AdHocQueryResultSqlData extends AdHocQueryResult {
 
-  private final AdornedTreeTableModel f_model;
+  private volatile AdornedTreeTableModel f_model;
 
   public AdornedTreeTableModel getModel() {
     return f_model;
@@ -29,13 +37,201 @@ public final class AdHocQueryResultSqlData extends AdHocQueryResult {
    */
   private int f_selectedRowIndex = -1;
   private NonLeafTreeCell f_selectedCell = null;
-  private final boolean f_rowLimited;
+  private volatile boolean f_rowLimited;
+  private volatile boolean f_complete;
   private final String[] f_accessKeys;
 
+  /**
+   * The sort and filter of the rows of the query that neither sorts nor
+   * filters, used to build a refinement.
+   */
+  private final AdHocQueryRefinement f_unrefined;
+
+  /**
+   * The sort and filter of the rows done by the database, or {@code null} if
+   * the rows are as the query returned them.
+   */
+  private volatile AdHocQueryRefinement f_refinement;
+
   public boolean isRowLimited() {
     return f_rowLimited;
   }
 
+  /**
+   * Checks if all the rows of this result have been read. A result is shown
+   * while its query is still running, with the rows read so far, and is
+   * updated with {@link #setRows(ColumnarResult)} as more arrive.
+   * 
+   * @return {@code true} if all the rows of this result have been read,
+   *         {@code false} if more may be added.
+   */
+  public boolean isComplete() {
+    return f_complete;
+  }
+
+  /**
+   * Replaces the rows of this result with a longer prefix of the rows of its
+   * query, and notifies the observers of the manager. Rows already in this
+   * result keep their index, so a selected row is kept. A selected partial row
+   * is replaced by the same partial row of the new model, and the observers
+   * are told if the variables it defines change.
+   * 
+   * @param results
+   *          the rows of the query read so far.
+   * @throws Exception
+   *           if the model for the rows can't be built.
+   * @see ColumnarResult#isComplete()
+   */
+  public void setRows(@NonNull final ColumnarResult results) throws Exception {
+    if (results == null) {
+      throw new IllegalArgumentException(I18N.err(44, "results"));
+    }
+    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results);
+    if (model == null) {
+      throw new IllegalArgumentException(I18N.err(44, "model"));
+    }
+    final NonLeafTreeCell oldCell = f_selectedCell;
+    final NonLeafTreeCell newCell = oldCell == null ? null : findCell(model, oldCell);
+    final boolean variablesChanged = oldCell != null
+        && (newCell == null || !f_model.getVariablesFor(oldCell).equals(model.getVariablesFor(newCell)));
+
+    f_model = model;
+    f_rowLimited = results.isLimited();
+    f_complete = results.isComplete();
+    f_selectedCell = newCell;
+    if (variablesChanged) {
+      getManager().notifyResultVariableValueChange(this);
+    }
+    getManager().notifyResultRowsChange(this);
+  }
+
+  /**
+   * Finds the partial row of a model with the same text and images, from the
+   * root of the tree down, as the passed partial row of another model.
+   * 
+   * @return the partial row, or {@code null} if there is no such partial row.
+   */
+  @Nullable
+  private static NonLeafTreeCell findCell(final AdornedTreeTableModel model, final NonLeafTreeCell cell) {
+    final TreeCell[] treePart = model.getTreePart();
+    if (treePart == null) {
+      return null;
+    }
+    final List<TreeCell> path = new ArrayList<>();
+    for (TreeCell step = cell; step != null; step = step.getParent()) {
+      path.add(step);
+    }
+    Collections.reverse(path);
+    List<TreeCell> level = Arrays.asList(treePart);
+    NonLeafTreeCell result = null;
+    for (final TreeCell step : path) {
+      result = null;
+      for (final TreeCell candidate : level) {
+        if (candidate instanceof NonLeafTreeCell && SLUtility.nullSafeEquals(candidate.getText(), step.getText())
+            && SLUtility.nullSafeEquals(candidate.getImageSymbolicName(), step.getImageSymbolicName())) {
+          result = (NonLeafTreeCell) candidate;
+          break;
+        }
+      }
+      if (result == null) {
+        return null;
+      }
+      level = result.getChildren();
+    }
+    return result;
+  }
+
+  /**
+   * Checks if sorting or filtering the rows of this result should be done by
+   * the database rather than in memory. This is the case if rows were left
+   * unread because of the row limit, as sorting the rows read would not give
+   * the first rows of the sorted query, or if the rows have already been
+   * refined by the database.
+   * 
+   * @return {@code true} if the rows of this result should be sorted and
+   *         filtered by the database, {@code false} if they may be sorted in
+   *         memory.
+   */
+  public boolean isDatabaseRefinementNeeded() {
+    return f_rowLimited || f_refinement != null;
+  }
+
+  /**
+   * Gets the sort and filter of the rows of this result done by the database.
+   * 
+   * @return the sort and filter of the rows of this result. If the rows are as
+   *         the query returned them the refinement neither sorts nor filters.
+   */
+  @NonNull
+  public AdHocQueryRefinement getRefinement() {
+    final AdHocQueryRefinement refinement = f_refinement;
+    return refinement == null ? f_unrefined : refinement;
+  }
+
+  /**
+   * Replaces the rows of this result with rows read for its query refined by
+   * the database, and notifies the observers of the manager. A selected row is
+   * kept selected if it is among the refined rows, otherwise the selection is
+   * cleared. A selected partial row is always cleared. The variable values of
+   * the query are not changed.
+   * 
+   * @param refinement
+   *          the sort and filter the rows were read with.
+   * @param results
+   *          the rows read for {@code getQueryFullyBound().refinedBy(refinement)}.
+   * @throws Exception
+   *           if the model for the rows can't be built.
+   */
+  public void setRefinedRows(@NonNull final AdHocQueryRefinement refinement, @NonNull final ColumnarResult results)
+      throws Exception {
+    if (refinement == null) {
+      throw new IllegalArgumentException(I18N.err(44, "refinement"));
+    }
+    if (results == null) {
+      throw new IllegalArgumentException(I18N.err(44, "results"));
+    }
+    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results);
+    if (model == null) {
+      throw new IllegalArgumentException(I18N.err(44, "model"));
+    }
+    final int oldRowIndex = f_selectedRowIndex;
+    final boolean hadSelection = oldRowIndex != -1 || f_selectedCell != null;
+    final int newRowIndex = oldRowIndex == -1 ? -1 : indexOfRow(model, f_model.getRows()[oldRowIndex]);
+
+    f_model = model;
+    f_rowLimited = results.isLimited();
+    f_complete = results.isComplete();
+    f_refinement = refinement;
+    f_selectedRowIndex = newRowIndex;
+    f_selectedCell = null;
+    if (hadSelection && newRowIndex == -1) {
+      getManager().notifyResultVariableValueChange(this);
+    }
+    getManager().notifyResultRowsChange(this);
+  }
+
+  /**
+   * Finds a row with the same text as the passed row.
+   * 
+   * @return the row index, or -1 if there is no such row.
+   */
+  private static int indexOfRow(final AdornedTreeTableModel model, final Cell[] row) {
+    final Cell[][] rows = model.getRows();
+    outer: for (int rowI = 0; rowI < rows.length; rowI++) {
+      final Cell[] candidate = rows[rowI];
+      if (candidate.length != row.length) {
+        return -1;
+      }
+      for (int colI = 0; colI < row.length; colI++) {
+        if (!SLUtility.nullSafeEquals(candidate[colI].getText(), row[colI].getText())) {
+          continue outer;
+        }
+      }
+      return rowI;
+    }
+    return -1;
+  }
+
   /**
    * Clears any selected row or partial row in this result.
    */
@@ -119,6 +315,22 @@ public final class AdHocQueryResultSqlData extends AdHocQueryResult {
    *         of a row.
    */
   public Map<String, String> getVariableValues() {
+    return withQueryVariableValues(getTopVariableValues());
+  }
+
+  /**
+   * Gets the variable values that {@link #getVariableValues()} would return if
+   * the passed row were selected.
+   * 
+   * @param rowIndex
+   *          a zero-based row index within the result model.
+   * @return the variable values for the passed row.
+   */
+  Map<String, String> getVariableValuesForRow(final int rowIndex) {
+    return withQueryVariableValues(getTopVariableValuesForRow(rowIndex));
+  }
+
+  private Map<String, String> withQueryVariableValues(final Map<String, String> topVariableValues) {
     /*
      * Get a copy of the variable values used by the query.
      */
@@ -126,7 +338,7 @@ public final class AdHocQueryResultSqlData extends AdHocQueryResult {
     // remove meta variables from the previous query.
     SLUtility.removeAdHocQueryMetaVariablesFrom(result);
     // add in the selection
-    result.putAll(getTopVariableValues());
+    result.putAll(topVariableValues);
     return result;
   }
 
@@ -155,11 +367,28 @@ public final class AdHocQueryResultSqlData extends AdHocQueryResult {
     return result;
   }
 
+  /**
+   * Gets the variable values that {@link #getTopVariableValues()} would return
+   * if the passed row were selected.
+   * 
+   * @param rowIndex
+   *          a zero-based row index within the result model.
+   * @return variable values defined by the passed row.
+   */
+  Map<String, String> getTopVariableValuesForRow(final int rowIndex) {
+    return new HashMap<>(f_model.getVariablesFor(rowIndex));
+  }
+
   public AdHocQueryResultSqlData(final AdHocManager manager, final AdHocQueryResultSqlData parent,
       final AdHocQueryFullyBound query, final ResultSetUtility.Result results, final DBConnection datasource) throws Exception {
+    this(manager, parent, query, ColumnarResult.of(results.columnLabels, results.rows, results.limited), datasource);
+  }
+
+  public AdHocQueryResultSqlData(final AdHocManager manager, final AdHocQueryResultSqlData parent,
+      final AdHocQueryFullyBound query, final ColumnarResult results, final DBConnection datasource) throws Exception {
     super(manager, parent, query, datasource);
 
-    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results.columnLabels, results.rows);
+    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results);
     if (model == null) {
       throw new IllegalArgumentException(I18N.err(44, "model"));
     }
@@ -167,20 +396,29 @@ public final class AdHocQueryResultSqlData extends AdHocQueryResult {
       throw new IllegalArgumentException(I18N.err(44, "parent"));
     }
     f_model = model;
-    f_rowLimited = results.limited;
+    f_rowLimited = results.isLimited();
+    f_complete = results.isComplete();
+    f_unrefined = AdHocQueryRefinement.of(results, manager.getDataSource().getMaxRowsPerQuery());
     f_accessKeys = parent.getAccessKeys();
   }
 
   public AdHocQueryResultSqlData(final AdHocManager manager, final AdHocQueryFullyBound query,
       final ResultSetUtility.Result results, final DBConnection datasource, final String... accessKeys) throws Exception {
+    this(manager, query, ColumnarResult.of(results.columnLabels, results.rows, results.limited), datasource, accessKeys);
+  }
+
+  public AdHocQueryResultSqlData(final AdHocManager manager, final AdHocQueryFullyBound query, final ColumnarResult results,
+      final DBConnection datasource, final String... accessKeys) throws Exception {
     super(manager, null, query, datasource);
 
-    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results.columnLabels, results.rows);
+    final AdornedTreeTableModel model = AdornedTreeTableModel.getInstance(results);
     if (model == null) {
       throw new IllegalArgumentException(I18N.err(44, "model"));
     }
     f_model = model;
-    f_rowLimited = results.limited;
+    f_rowLimited = results.isLimited();
+    f_complete = results.isComplete();
+    f_unrefined = AdHocQueryRefinement.of(results, manager.getDataSource().getMaxRowsPerQuery());
     f_accessKeys = accessKeys;
   }
 
@@ -0,0 +1,256 @@
+package com.surelogic.common.adhoc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.i18n.I18N;
+
+/**
+ * The SQL text of an {@link AdHocQuery} with its variables replaced by JDBC
+ * parameter markers, so that the query can be prepared once and run with
+ * different variable values. A variable that makes up a whole string literal,
+ * e.g., <tt>'?RUN?'</tt>, is bound as a string; any other variable, e.g.,
+ * <tt>?ID?</tt>, is bound as a <tt>long</tt>.
+ * <p>
+ * Not every query can be run this way: a variable used within a longer string
+ * literal, or bound to a value that is not a whole number where a number is
+ * expected, has to be substituted into the SQL text with
+ * {@link AdHocQuery#getSql(Map)}. {@link #canBind(Map)} tells the two cases
+ * apart.
+ * <p>
+ * Templates are compiled and cached by
+ * {@link AdHocManager#getTemplate(AdHocQuery)}. Setting the {@value #INLINE_PROP}
+ * system property to <tt>true</tt> substitutes variables into the SQL text of
+ * every query instead. Instances are thread-safe.
+ */
+public final class AdHocQueryTemplate {
+
+  /**
+   * The system property that, if set to <tt>true</tt>, turns off binding
+   * variables as parameters.
+   */
+  public static final String INLINE_PROP = "com.surelogic.common.adhoc.inlineVariables";
+
+  static final boolean INLINE = Boolean.getBoolean(INLINE_PROP);
+
+  /**
+   * Compiles the SQL text of a query. Variables within comments, including
+   * those used in a meta, are left alone.
+   *
+   * @param sql
+   *          the SQL text of a query.
+   * @return the compiled template.
+   */
+  @NonNull
+  public static AdHocQueryTemplate compile(@NonNull final String sql) {
+    if (sql == null)
+      throw new IllegalArgumentException(I18N.err(44, "sql"));
+
+    final StringBuilder b = new StringBuilder();
+    final List<String> variables = new ArrayList<>();
+    final List<Boolean> numeric = new ArrayList<>();
+    boolean withinLiteral = false;
+
+    final BufferedReader r = new BufferedReader(new StringReader(sql));
+    String line;
+    try {
+      while ((line = r.readLine()) != null) {
+        final int comment = line.indexOf("--");
+        final int codeEnd = comment == -1 ? line.length() : comment;
+        int at = 0;
+        int q1 = line.indexOf('?');
+        int q2 = line.indexOf('?', q1 + 1);
+        while (q1 != -1 && q2 != -1 && q2 < codeEnd) {
+          withinLiteral ^= countQuotes(line, at, q1) % 2 == 1;
+          final String var = line.substring(q1 + 1, q2);
+          final boolean wholeLiteral = withinLiteral && q1 > 0 && line.charAt(q1 - 1) == '\'' && q2 + 1 < codeEnd
+              && line.charAt(q2 + 1) == '\'';
+          if (var.length() == 0 || withinLiteral && !wholeLiteral) {
+            return new AdHocQueryTemplate(sql, null, null, null);
+          }
+          variables.add(var);
+          numeric.add(!wholeLiteral);
+          if (wholeLiteral) {
+            b.append(line, at, q1 - 1).append('?');
+            at = q2 + 2;
+            withinLiteral = false;
+          } else {
+            b.append(line, at, q1).append('?');
+            at = q2 + 1;
+          }
+          q1 = line.indexOf('?', at);
+          q2 = line.indexOf('?', q1 + 1);
+        }
+        withinLiteral ^= countQuotes(line, at, codeEnd) % 2 == 1;
+        b.append(line, at, line.length());
+        b.append('\n');
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    final boolean[] numericArray = new boolean[numeric.size()];
+    for (int i = 0; i < numericArray.length; i++) {
+      numericArray[i] = numeric.get(i);
+    }
+    return new AdHocQueryTemplate(sql, b.toString(), variables.toArray(new String[variables.size()]), numericArray);
+  }
+
+  private static int countQuotes(final String line, final int from, final int to) {
+    int result = 0;
+    for (int i = from; i < to; i++) {
+      if (line.charAt(i) == '\'') {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  private final String f_sourceSql;
+  private final String f_sql;
+  private final String[] f_variables;
+  private final boolean[] f_numeric;
+
+  /**
+   * Set if the template could not be prepared, after which it is no longer
+   * used.
+   */
+  private volatile boolean f_failed;
+
+  /**
+   * Set once the template has been prepared and bound, after which its
+   * statements are kept in the statement cache of the connection.
+   */
+  private volatile boolean f_verified;
+
+  private AdHocQueryTemplate(final String sourceSql, final String sql, final String[] variables, final boolean[] numeric) {
+    f_sourceSql = sourceSql;
+    f_sql = sql;
+    f_variables = variables;
+    f_numeric = numeric;
+  }
+
+  /**
+   * Gets the SQL text of the query this template was compiled from.
+   *
+   * @return the SQL text of the query this template was compiled from.
+   */
+  @NonNull
+  public String getSourceSql() {
+    return f_sourceSql;
+  }
+
+  /**
+   * Gets the SQL text of this template, with a <tt>?</tt> parameter marker for
+   * each variable.
+   *
+   * @return the SQL text of this template, or {@code null} if the query can't
+   *         be run with its variables bound as parameters.
+   */
+  @Nullable
+  public String getSql() {
+    return f_sql;
+  }
+
+  /**
+   * Gets the number of parameters of this template.
+   *
+   * @return the number of parameters of this template.
+   */
+  public int getParameterCount() {
+    return f_variables == null ? 0 : f_variables.length;
+  }
+
+  /**
+   * Checks if the passed variable values can be bound to this template.
+   *
+   * @param variableValues
+   *          the defined values for variables.
+   * @return {@code true} if {@link #bind(PreparedStatement, Map)} may be used
+   *         with the passed values, {@code false} if the values must be
+   *         substituted into the SQL text instead.
+   */
+  public boolean canBind(@NonNull final Map<String, String> variableValues) {
+    if (f_sql == null || f_failed) {
+      return false;
+    }
+    for (int i = 0; i < f_variables.length; i++) {
+      final String value = variableValues.get(f_variables[i]);
+      if (value == null) {
+        return false;
+      }
+      if (f_numeric[i] && !isWholeNumber(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWholeNumber(final String value) {
+    try {
+      Long.parseLong(value.trim());
+      return true;
+    } catch (final NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Binds the passed variable values to a statement prepared from
+   * {@link #getSql()}.
+   *
+   * @param st
+   *          a statement prepared from {@link #getSql()}.
+   * @param variableValues
+   *          the defined values for variables, which must satisfy
+   *          {@link #canBind(Map)}.
+   * @throws SQLException
+   *           if a value can't be set.
+   */
+  public void bind(@NonNull final PreparedStatement st, @NonNull final Map<String, String> variableValues) throws SQLException {
+    for (int i = 0; i < f_variables.length; i++) {
+      final String value = variableValues.get(f_variables[i]);
+      if (f_numeric[i]) {
+        st.setLong(i + 1, Long.parseLong(value.trim()));
+      } else {
+        st.setString(i + 1, value);
+      }
+    }
+  }
+
+  /**
+   * Notes that this template could not be prepared or bound. It will not be
+   * used again.
+   */
+  public void markFailed() {
+    f_failed = true;
+  }
+
+  /**
+   * Notes that this template has been prepared and bound.
+   */
+  public void markVerified() {
+    f_verified = true;
+  }
+
+  /**
+   * Checks if this template has been prepared and bound.
+   * 
+   * @return {@code true} if this template has been prepared and bound.
+   */
+  public boolean isVerified() {
+    return f_verified;
+  }
+
+  @Override
+  public String toString() {
+    return "[AdHocQueryTemplate: sql=\"" + (f_sql == null ? f_sourceSql : f_sql) + "\" parameters=" + getParameterCount() + "]";
+  }
+}
@@ -73,6 +73,18 @@ public interface IAdHocManagerObserver {
    */
   void notifyResultVariableValueChange(AdHocQueryResultSqlData result);
 
+  /**
+   * Invoked when more rows have been read for a result whose query is still
+   * running, or when all of its rows have been read.
+   * <p>
+   * This is triggered via a client call to
+   * {@link AdHocQueryResultSqlData#setRows(com.surelogic.common.jdbc.ColumnarResult)}.
+   * 
+   * @param result
+   *          the result whose rows changed.
+   */
+  void notifyResultRowsChange(AdHocQueryResultSqlData result);
+
   /**
    * Invoked when the selected query for Querydoc is changed
    * 
@@ -9,13 +9,15 @@ import java.util.logging.Level;
 import com.surelogic.common.adhoc.AdHocManager;
 import com.surelogic.common.adhoc.AdHocQueryFullyBound;
 import com.surelogic.common.adhoc.AdHocQueryResult;
+import com.surelogic.common.adhoc.AdHocQueryResultCache;
 import com.surelogic.common.adhoc.AdHocQueryResultEmpty;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlException;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlUpdateCount;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
 import com.surelogic.common.jdbc.DBConnection;
-import com.surelogic.common.jdbc.ResultSetUtility;
+import com.surelogic.common.jdbc.StatementCache;
 import com.surelogic.common.jobs.AbstractSLJob;
 import com.surelogic.common.jobs.SLProgressMonitor;
 import com.surelogic.common.jobs.SLStatus;
@@ -27,6 +29,26 @@ import com.surelogic.common.logging.SLLogger;
  */
 public final class AdHocQueryJob extends AbstractSLJob {
 
+  /**
+   * The system property that sets the number of rows read before a result is
+   * first shown. The rest of the rows are read in chunks, each twice the size
+   * of the one before, and the result is updated after each chunk. A value of
+   * <tt>0</tt> shows a result only once all of its rows are read.
+   */
+  public static final String FIRST_CHUNK_PROP = "com.surelogic.common.adhoc.firstChunkRows";
+
+  /**
+   * The system property that sets the number of rows fetched from the database
+   * at a time.
+   */
+  public static final String FETCH_SIZE_PROP = "com.surelogic.common.adhoc.fetchSize";
+
+  public static final int DEFAULT_FIRST_CHUNK = 500;
+  public static final int DEFAULT_FETCH_SIZE = 500;
+
+  static final int FIRST_CHUNK = Math.max(0, Integer.getInteger(FIRST_CHUNK_PROP, DEFAULT_FIRST_CHUNK));
+  static final int FETCH_SIZE = Math.max(1, Integer.getInteger(FETCH_SIZE_PROP, DEFAULT_FETCH_SIZE));
+
   /**
    * The fully bound query that this job will run on the database.
    */
@@ -68,67 +90,123 @@ public final class AdHocQueryJob extends AbstractSLJob {
     final DBConnection datasource = f_parentResultOrNull == null ? manager.getDataSource().getDB() : f_parentResultOrNull.getDB();
     try {
       AdHocQueryResult queryResult;
-      final String sql = f_query.getSql();
-      try {
-        final Connection c = datasource.getConnection();
+      /*
+       * The result shown while rows are still being read, if any.
+       */
+      AdHocQueryResultSqlData partial = null;
+      final AdHocQueryResultCache cache = manager.getResultCache();
+      final int generation = cache.getGeneration(datasource);
+      final ColumnarResult cached = cache.get(datasource, f_query.getSql());
+      if (cached != null) {
+        try {
+          queryResult = newResult(manager, datasource, cached);
+        } catch (final Exception e) {
+          final int code = 6;
+          return SLStatus.createErrorStatus(code, I18N.err(code, f_query.getSql()), e);
+        }
+      } else {
         try {
-          final Statement st = c.createStatement();
+          final Connection c = AdHocQueryResultCache.isQuery(f_query.getSql()) ? datasource.readOnlyConnection()
+              : datasource.getConnection();
           try {
             if (monitor.isCanceled()) {
               return SLStatus.CANCEL_STATUS;
             }
+            final Statement st = f_query.execute(c);
+            try {
+              if (SLLogger.getLogger().isLoggable(Level.FINE)) {
+                SLLogger.getLogger().fine(I18N.msg("adhoc.query", f_query.getSql()));
+              }
 
-            final boolean hasResultSet = st.execute(sql);
-            if (SLLogger.getLogger().isLoggable(Level.FINE)) {
-              SLLogger.getLogger().fine(I18N.msg("adhoc.query", sql));
-            }
-
-            if (monitor.isCanceled()) {
-              return SLStatus.CANCEL_STATUS;
-            }
+              if (monitor.isCanceled()) {
+                return SLStatus.CANCEL_STATUS;
+              }
 
-            if (hasResultSet) {
-              // result set
               final ResultSet rs = st.getResultSet();
-              try {
-                final ResultSetUtility.Result results = ResultSetUtility.getResult(rs,
-                    f_query.getQuery().getManager().getDataSource().getMaxRowsPerQuery());
-                if (results.rows.length == 0) {
-                  queryResult = new AdHocQueryResultEmpty(manager, f_parentResultOrNull, f_query, datasource);
-                } else {
-                  queryResult = new AdHocQueryResultSqlData(manager, f_parentResultOrNull, f_query, results, datasource);
+              if (rs != null) {
+                try {
+                  rs.setFetchSize(AdHocQueryJob.FETCH_SIZE);
+                  final ColumnarResult.Reader reader = new ColumnarResult.Reader(rs,
+                      f_query.getQuery().getManager().getDataSource().getMaxRowsPerQuery());
+                  int chunk = AdHocQueryJob.FIRST_CHUNK > 0 ? AdHocQueryJob.FIRST_CHUNK : AdHocQueryJob.FETCH_SIZE;
+                  while (!reader.isDone() && !monitor.isCanceled()) {
+                    reader.read(chunk);
+                    if (!reader.isDone() && AdHocQueryJob.FIRST_CHUNK > 0) {
+                      /*
+                       * Show the rows read so far while the rest are read.
+                       */
+                      if (partial == null) {
+                        partial = (AdHocQueryResultSqlData) newResult(manager, datasource, reader.snapshot());
+                        manager.notifyResultModelChange();
+                        manager.setSelectedResult(partial);
+                      } else {
+                        partial.setRows(reader.snapshot());
+                      }
+                      chunk = (int) Math.min(2L * chunk, Integer.MAX_VALUE);
+                    }
+                  }
+                  if (!reader.isDone() && partial == null) {
+                    return SLStatus.CANCEL_STATUS;
+                  }
+                  /*
+                   * Rows left unread by a cancel are not cached.
+                   */
+                  final boolean complete = reader.isDone();
+                  final ColumnarResult results = reader.finish();
+                  if (complete) {
+                    cache.put(datasource, generation, f_query.getSql(), results);
+                  }
+                  if (partial == null) {
+                    queryResult = newResult(manager, datasource, results);
+                  } else {
+                    partial.setRows(results);
+                    queryResult = partial;
+                  }
+                } catch (final Exception e) {
+                  /*
+                   * Unlike an SQLException, which indicates the query was bad,
+                   * this is actually a bug so we fail out of the job.
+                   */
+                  final int code = 6;
+                  return SLStatus.createErrorStatus(code, I18N.err(code, f_query.getSql()), e);
+                } finally {
+                  rs.close();
                 }
-              } catch (final Exception e) {
-                /*
-                 * Unlike an SQLException, which indicates the query was bad,
-                 * this is actually a bug so we fail out of the job.
-                 */
-                final int code = 6;
-                return SLStatus.createErrorStatus(code, I18N.err(code, sql), e);
-              } finally {
-                rs.close();
+              } else {
+                // update count or no results
+                final int updateCount = st.getUpdateCount();
+                queryResult = new AdHocQueryResultSqlUpdateCount(manager, f_parentResultOrNull, f_query, updateCount, datasource);
               }
-            } else {
-              // update count or no results
-              final int updateCount = st.getUpdateCount();
-              queryResult = new AdHocQueryResultSqlUpdateCount(manager, f_parentResultOrNull, f_query, updateCount, datasource);
+            } finally {
+              StatementCache.checkIn(c, st);
             }
           } finally {
-            st.close();
+            c.close();
           }
-        } finally {
-          c.close();
+        } catch (final SQLException e) {
+          queryResult = new AdHocQueryResultSqlException(f_query.getManager(), f_parentResultOrNull, f_query, e, datasource);
         }
-      } catch (final SQLException e) {
-        queryResult = new AdHocQueryResultSqlException(f_query.getManager(), f_parentResultOrNull, f_query, e, datasource);
       }
-      datasource.shutdown();
+      manager.doneWithDatabase(datasource);
 
-      manager.notifyResultModelChange();
-      manager.setSelectedResult(queryResult);
+      if (queryResult != partial) {
+        manager.notifyResultModelChange();
+        manager.setSelectedResult(queryResult);
+      }
     } finally {
       monitor.done();
     }
     return SLStatus.OK_STATUS;
   }
+
+  /**
+   * Creates the result of this job from the rows read for its query.
+   */
+  private AdHocQueryResult newResult(final AdHocManager manager, final DBConnection datasource, final ColumnarResult results)
+      throws Exception {
+    if (results.getRowCount() == 0) {
+      return new AdHocQueryResultEmpty(manager, f_parentResultOrNull, f_query, datasource);
+    }
+    return new AdHocQueryResultSqlData(manager, f_parentResultOrNull, f_query, results, datasource);
+  }
 }
@@ -6,18 +6,19 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.logging.Level;
 
-import org.apache.derby.impl.jdbc.EmbedConnection;
-
 import com.surelogic.common.adhoc.AdHocManager;
 import com.surelogic.common.adhoc.AdHocQueryFullyBound;
 import com.surelogic.common.adhoc.AdHocQueryResult;
+import com.surelogic.common.adhoc.AdHocQueryResultCache;
 import com.surelogic.common.adhoc.AdHocQueryResultEmpty;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlException;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlUpdateCount;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.CancellableConnection;
+import com.surelogic.common.jdbc.ColumnarResult;
 import com.surelogic.common.jdbc.DBConnection;
-import com.surelogic.common.jdbc.ResultSetUtility;
+import com.surelogic.common.jdbc.StatementCache;
 import com.surelogic.common.jobs.AbstractSLJob;
 import com.surelogic.common.jobs.SLProgressMonitor;
 import com.surelogic.common.jobs.SLStatus;
@@ -98,68 +99,118 @@ public class CancellableAdHocQueryJob extends AbstractSLJob {
 
       try {
         AdHocQueryResult queryResult;
-        final String sql = f_query.getSql();
-        try {
-          f_connection = datasource.getConnection();
+        /*
+         * The result shown while rows are still being read, if any.
+         */
+        AdHocQueryResultSqlData partial = null;
+        final AdHocQueryResultCache cache = manager.getResultCache();
+        final int generation = cache.getGeneration(datasource);
+        final ColumnarResult cached = cache.get(datasource, f_query.getSql());
+        if (cached != null) {
+          try {
+            queryResult = newResult(manager, datasource, cached);
+          } catch (final Exception e) {
+            final int code = 6;
+            return SLStatus.createErrorStatus(code, I18N.err(code, f_query.getSql()), e);
+          }
+        } else {
           try {
-            final Statement st = f_connection.createStatement();
+            f_connection = AdHocQueryResultCache.isQuery(f_query.getSql()) ? datasource.readOnlyConnection()
+                : datasource.getConnection();
             try {
-              if (monitor.isCanceled()) {
+              if (isCanceled(monitor)) {
                 return SLStatus.CANCEL_STATUS;
               }
+              final Statement st = f_query.execute(f_connection);
+              try {
+                if (SLLogger.getLogger().isLoggable(Level.FINE)) {
+                  SLLogger.getLogger().fine(I18N.msg("adhoc.query", f_query.getSql()));
+                }
 
-              final boolean hasResultSet = st.execute(sql);
-              if (SLLogger.getLogger().isLoggable(Level.FINE)) {
-                SLLogger.getLogger().fine(I18N.msg("adhoc.query", sql));
-              }
-
-              if (monitor.isCanceled()) {
-                return SLStatus.CANCEL_STATUS;
-              }
+                if (isCanceled(monitor)) {
+                  return SLStatus.CANCEL_STATUS;
+                }
 
-              if (hasResultSet) {
-                // result set
                 final ResultSet rs = st.getResultSet();
-                try {
-                  final ResultSetUtility.Result results = ResultSetUtility.getResult(rs,
-                      f_query.getQuery().getManager().getDataSource().getMaxRowsPerQuery());
-                  if (results.rows.length == 0) {
-                    queryResult = new AdHocQueryResultEmpty(manager, f_parentResultOrNull, f_query, datasource);
-                  } else {
-                    if (f_parentResultOrNull == null) {
-                      queryResult = new AdHocQueryResultSqlData(manager, f_query, results, datasource, f_accessKeys);
+                if (rs != null) {
+                  try {
+                    rs.setFetchSize(AdHocQueryJob.FETCH_SIZE);
+                    final ColumnarResult.Reader reader = new ColumnarResult.Reader(rs,
+                        f_query.getQuery().getManager().getDataSource().getMaxRowsPerQuery());
+                    int chunk = AdHocQueryJob.FIRST_CHUNK > 0 ? AdHocQueryJob.FIRST_CHUNK : AdHocQueryJob.FETCH_SIZE;
+                    while (!reader.isDone() && !isCanceled(monitor)) {
+                      try {
+                        reader.read(chunk);
+                      } catch (final SQLException e) {
+                        if (!f_cancelled) {
+                          throw e;
+                        }
+                        // The running statement was cancelled, keep the rows read so far
+                        SLLogger.getLogger().log(Level.FINE, e.getMessage(), e);
+                        break;
+                      }
+                      if (!reader.isDone() && AdHocQueryJob.FIRST_CHUNK > 0) {
+                        /*
+                         * Show the rows read so far while the rest are read.
+                         */
+                        if (partial == null) {
+                          partial = (AdHocQueryResultSqlData) newResult(manager, datasource, reader.snapshot());
+                          manager.notifyResultModelChange();
+                          manager.setSelectedResult(partial);
+                        } else {
+                          partial.setRows(reader.snapshot());
+                        }
+                        chunk = (int) Math.min(2L * chunk, Integer.MAX_VALUE);
+                      }
+                    }
+                    if (!reader.isDone() && partial == null) {
+                      return SLStatus.CANCEL_STATUS;
+                    }
+                    /*
+                     * Rows left unread by a cancel are not cached.
+                     */
+                    final boolean complete = reader.isDone();
+                    final ColumnarResult results = reader.finish();
+                    if (complete) {
+                      cache.put(datasource, generation, f_query.getSql(), results);
+                    }
+                    if (partial == null) {
+                      queryResult = newResult(manager, datasource, results);
                     } else {
-                      queryResult = new AdHocQueryResultSqlData(manager, f_parentResultOrNull, f_query, results, datasource);
+                      partial.setRows(results);
+                      queryResult = partial;
                     }
+                  } catch (final Exception e) {
+                    /*
+                     * Unlike an SQLException, which indicates the query was bad,
+                     * this is actually a bug so we fail out of the job.
+                     */
+                    final int code = 6;
+                    return SLStatus.createErrorStatus(code, I18N.err(code, f_query.getSql()), e);
+                  } finally {
+                    rs.close();
                   }
-                } catch (final Exception e) {
-                  /*
-                   * Unlike an SQLException, which indicates the query was bad,
-                   * this is actually a bug so we fail out of the job.
-                   */
-                  final int code = 6;
-                  return SLStatus.createErrorStatus(code, I18N.err(code, sql), e);
-                } finally {
-                  rs.close();
+                } else {
+                  // update count or no results
+                  final int updateCount = st.getUpdateCount();
+                  queryResult = new AdHocQueryResultSqlUpdateCount(manager, f_parentResultOrNull, f_query, updateCount, datasource);
                 }
-              } else {
-                // update count or no results
-                final int updateCount = st.getUpdateCount();
-                queryResult = new AdHocQueryResultSqlUpdateCount(manager, f_parentResultOrNull, f_query, updateCount, datasource);
+              } finally {
+                StatementCache.checkIn(f_connection, st);
               }
             } finally {
-              st.close();
+              f_connection.close();
             }
-          } finally {
-            f_connection.close();
+          } catch (final SQLException e) {
+            queryResult = new AdHocQueryResultSqlException(f_query.getManager(), f_parentResultOrNull, f_query, e, datasource);
           }
-        } catch (final SQLException e) {
-          queryResult = new AdHocQueryResultSqlException(f_query.getManager(), f_parentResultOrNull, f_query, e, datasource);
         }
-        datasource.shutdown();
+        manager.doneWithDatabase(datasource);
 
-        manager.notifyResultModelChange();
-        manager.setSelectedResult(queryResult);
+        if (queryResult != partial) {
+          manager.notifyResultModelChange();
+          manager.setSelectedResult(queryResult);
+        }
       } finally {
         monitor.done();
       }
@@ -169,12 +220,39 @@ public class CancellableAdHocQueryJob extends AbstractSLJob {
     }
   }
 
+  /**
+   * Creates the result of this job from the rows read for its query.
+   */
+  private AdHocQueryResult newResult(final AdHocManager manager, final DBConnection datasource, final ColumnarResult results)
+      throws Exception {
+    if (results.getRowCount() == 0) {
+      return new AdHocQueryResultEmpty(manager, f_parentResultOrNull, f_query, datasource);
+    }
+    if (f_parentResultOrNull == null) {
+      return new AdHocQueryResultSqlData(manager, f_query, results, datasource, f_accessKeys);
+    } else {
+      return new AdHocQueryResultSqlData(manager, f_parentResultOrNull, f_query, results, datasource);
+    }
+  }
+
+  /**
+   * Cancels this job. Rows are no longer read, and the statement running on the
+   * database, if any, is cancelled. The rows already shown, if any, are kept.
+   */
   public void cancel() {
-    if (f_connection instanceof EmbedConnection) {
-      ((EmbedConnection) f_connection).cancelRunningStatement();
+    f_cancelled = true;
+    final Connection c = f_connection;
+    if (c instanceof CancellableConnection) {
+      ((CancellableConnection) c).cancelRunningStatement();
     }
   }
 
+  private volatile boolean f_cancelled;
+
+  private boolean isCanceled(final SLProgressMonitor monitor) {
+    return f_cancelled || monitor.isCanceled();
+  }
+
   private volatile boolean f_done;
 
   public boolean isDone() {
@@ -0,0 +1,76 @@
+package com.surelogic.common.adhoc.jobs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.surelogic.common.adhoc.AdHocQueryFullyBound;
+import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
+import com.surelogic.common.adhoc.model.AdornedTreeTableModel;
+import com.surelogic.common.export.ExportFactory;
+import com.surelogic.common.export.QueryTableDataSource;
+import com.surelogic.common.jobs.AbstractSLJob;
+import com.surelogic.common.jobs.SLProgressMonitor;
+import com.surelogic.common.jobs.SLStatus;
+
+/**
+ * Exports the rows of a query result to a compressed, typed, columnar binary
+ * file. The types of the columns are only known to the database, so the query
+ * is always run again, with any sort or filter done by the database but
+ * without the row limit, and its rows are streamed to the file. Only the
+ * columns visible in the result are exported, under the labels shown for them,
+ * so the columns that only define icons or variables and the annotations on
+ * the labels of the query are left out.
+ *
+ * @see ExportFactory#asColumnar(com.surelogic.common.export.ExportTableDataSource,
+ *      File)
+ */
+public class ExportResultDataInColumnarFormatJob extends AbstractSLJob {
+
+	private final AdHocQueryResultSqlData f_data;
+	private final File f_file;
+
+	public ExportResultDataInColumnarFormatJob(
+			final AdHocQueryResultSqlData data, final File file) {
+		super(String.format("Exporting data from query '%s'", data
+				.getQueryFullyBound().getQuery().getDescription()));
+		if (file == null) {
+			throw new IllegalArgumentException("The file may not be null.");
+		}
+		f_data = data;
+		f_file = file;
+	}
+
+	@Override
+	public SLStatus run(final SLProgressMonitor monitor) {
+		final AdHocQueryFullyBound query = f_data.getQueryFullyBound()
+				.refinedBy(f_data.getRefinement().withPageSize(0));
+		final AdornedTreeTableModel model = f_data.getModel();
+		final List<String> labels = new ArrayList<>();
+		final List<Integer> columns = new ArrayList<>();
+		for (int i = 0; i < model.getColumnCount(); i++) {
+			if (model.isColumnVisible(i)) {
+				labels.add(model.getColumnLabels()[i]);
+				columns.add(model.getSourceColumnIndex(i));
+			}
+		}
+		final int[] columnIndexes = new int[columns.size()];
+		for (int i = 0; i < columnIndexes.length; i++) {
+			columnIndexes[i] = columns.get(i);
+		}
+		try {
+			ExportFactory.asColumnar(
+					new QueryTableDataSource(f_data.getDB(), query.getSql(),
+							labels.toArray(new String[labels.size()]),
+							columnIndexes), f_file).export(monitor);
+		} catch (final Exception e) {
+			return SLStatus.createErrorStatus(e);
+		} finally {
+			f_data.getManager().doneWithDatabase(f_data.getDB());
+		}
+		if (monitor.isCanceled()) {
+			return SLStatus.CANCEL_STATUS;
+		}
+		return SLStatus.OK_STATUS;
+	}
+}
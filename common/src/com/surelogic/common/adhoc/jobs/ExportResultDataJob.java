@@ -1,18 +1,47 @@
 package com.surelogic.common.adhoc.jobs;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
 
+import com.surelogic.common.adhoc.AdHocQueryFullyBound;
 import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
 import com.surelogic.common.adhoc.model.AdornedTreeTableModel;
 import com.surelogic.common.adhoc.model.Cell;
+import com.surelogic.common.export.ExportFactory;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jdbc.StatementCache;
 import com.surelogic.common.jobs.AbstractSLJob;
 import com.surelogic.common.jobs.SLProgressMonitor;
 import com.surelogic.common.jobs.SLStatus;
 
+/**
+ * Exports the rows of a query result to a file. If the result holds all the
+ * rows of its query they are written from memory. If rows were left unread
+ * because of the row limit, the query is run again and its rows are streamed
+ * from the database to the file a chunk at a time, so that a query of any size
+ * is exported in bounded memory.
+ * <p>
+ * If the name of the file ends with {@value ExportFactory#GZIP_SUFFIX} the file
+ * is written gzip compressed.
+ */
 public abstract class ExportResultDataJob extends AbstractSLJob {
 
+	/**
+	 * The number of rows read from the database and formatted at a time.
+	 */
+	private static final int CHUNK_ROWS = 10000;
+
+	/**
+	 * The number of rows written between checks of the progress monitor.
+	 */
+	private static final int ROWS_PER_CHECK = 1000;
+
 	private final AdHocQueryResultSqlData f_data;
 	private final File f_file;
 
@@ -30,23 +59,111 @@ public abstract class ExportResultDataJob extends AbstractSLJob {
 	@Override
   public SLStatus run(final SLProgressMonitor monitor) {
 		monitor.begin();
-		PrintWriter writer;
 		try {
-			writer = new PrintWriter(f_file);
-			final AdornedTreeTableModel model = f_data.getModel();
-			writeHeader(writer, model.getColumnLabels());
-			for (final Cell[] cells : model.getRows()) {
-				writeRow(writer, cells);
+			final PrintWriter writer = ExportFactory.newWriter(f_file);
+			boolean completed = false;
+			try {
+				if (f_data.isRowLimited()) {
+					completed = exportFromDatabase(writer, monitor);
+				} else {
+					completed = exportFromModel(writer, monitor);
+				}
+			} finally {
+				writer.close();
+				if (!completed) {
+					f_file.delete();
+				}
+			}
+			if (!completed) {
+				return SLStatus.CANCEL_STATUS;
+			}
+			if (writer.checkError()) {
+				f_file.delete();
+				return SLStatus.createErrorStatus(new IOException(I18N.err(375,
+						f_file.getAbsolutePath())));
 			}
-			writeFooter(writer);
-		} catch (final FileNotFoundException e) {
+		} catch (final Exception e) {
 			return SLStatus.createErrorStatus(e);
+		} finally {
+			monitor.done();
 		}
-		writer.close();
-		monitor.done();
 		return SLStatus.OK_STATUS;
 	}
 
+	private boolean exportFromModel(final PrintWriter writer,
+			final SLProgressMonitor monitor) {
+		final AdornedTreeTableModel model = f_data.getModel();
+		writeHeader(writer, model.getColumnLabels());
+		if (!writeRows(writer, model, monitor)) {
+			return false;
+		}
+		writeFooter(writer);
+		return true;
+	}
+
+	/**
+	 * Runs the query of the result again, with any sort or filter done by the
+	 * database but without the row limit, and writes its rows a chunk at a
+	 * time.
+	 */
+	private boolean exportFromDatabase(final PrintWriter writer,
+			final SLProgressMonitor monitor) throws Exception {
+		final AdHocQueryFullyBound query = f_data.getQueryFullyBound()
+				.refinedBy(f_data.getRefinement().withPageSize(0));
+		final DBConnection datasource = f_data.getDB();
+		final Connection c = datasource.readOnlyConnection();
+		try {
+			final Statement st = query.execute(c);
+			try {
+				final ResultSet rs = st.getResultSet();
+				try {
+					rs.setFetchSize(AdHocQueryJob.FETCH_SIZE);
+					final ColumnarResult.Reader reader = new ColumnarResult.Reader(
+							rs, 0);
+					boolean first = true;
+					while (first || !reader.isDone()) {
+						if (monitor.isCanceled()) {
+							return false;
+						}
+						reader.read(CHUNK_ROWS);
+						final AdornedTreeTableModel model = AdornedTreeTableModel
+								.getInstance(reader.drain());
+						if (first) {
+							writeHeader(writer, model.getColumnLabels());
+							first = false;
+						}
+						if (!writeRows(writer, model, monitor)) {
+							return false;
+						}
+						monitor.worked(1);
+					}
+					writeFooter(writer);
+					return true;
+				} finally {
+					rs.close();
+				}
+			} finally {
+				StatementCache.checkIn(c, st);
+			}
+		} finally {
+			c.close();
+			f_data.getManager().doneWithDatabase(datasource);
+		}
+	}
+
+	private boolean writeRows(final PrintWriter writer,
+			final AdornedTreeTableModel model, final SLProgressMonitor monitor) {
+		final Cell[][] rows = model.getRows();
+		for (int rowI = 0; rowI < rows.length; rowI++) {
+			if (rowI % ROWS_PER_CHECK == ROWS_PER_CHECK - 1
+					&& monitor.isCanceled()) {
+				return false;
+			}
+			writeRow(writer, rows[rowI]);
+		}
+		return true;
+	}
+
 	protected abstract void writeRow(final PrintWriter writer, final Cell[] row);
 
 	protected abstract void writeHeader(PrintWriter writer, String[] headers);
@@ -0,0 +1,107 @@
+package com.surelogic.common.adhoc.jobs;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+
+import com.surelogic.common.adhoc.AdHocManager;
+import com.surelogic.common.adhoc.AdHocQueryFullyBound;
+import com.surelogic.common.adhoc.AdHocQueryRefinement;
+import com.surelogic.common.adhoc.AdHocQueryResultCache;
+import com.surelogic.common.adhoc.AdHocQueryResultSqlData;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jdbc.StatementCache;
+import com.surelogic.common.jobs.AbstractSLJob;
+import com.surelogic.common.jobs.SLProgressMonitor;
+import com.surelogic.common.jobs.SLStatus;
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * A job to run the query of a result again with its rows sorted and filtered
+ * by the database, and to replace the rows of the result with the rows read.
+ *
+ * @see AdHocQueryRefinement
+ */
+public final class RefineAdHocQueryResultJob extends AbstractSLJob {
+
+  /**
+   * The result whose rows are refined.
+   */
+  private final AdHocQueryResultSqlData f_result;
+
+  /**
+   * The sort and filter to apply.
+   */
+  private final AdHocQueryRefinement f_refinement;
+
+  /**
+   * Constructs a job to sort and filter the rows of a result on the database.
+   *
+   * @param result
+   *          the result whose rows are refined. Cannot be {@code null}.
+   * @param refinement
+   *          the sort and filter to apply. Cannot be {@code null}.
+   */
+  public RefineAdHocQueryResultJob(final AdHocQueryResultSqlData result, final AdHocQueryRefinement refinement) {
+    super(I18N.msg("adhoc.jobs.refine.name", result.getQueryFullyBound().getQuery().getDescription()));
+    if (refinement == null) {
+      throw new IllegalArgumentException(I18N.err(44, "refinement"));
+    }
+    f_result = result;
+    f_refinement = refinement;
+  }
+
+  @Override
+  public SLStatus run(final SLProgressMonitor monitor) {
+    final AdHocManager manager = f_result.getManager();
+    final AdHocQueryFullyBound query = f_result.getQueryFullyBound().refinedBy(f_refinement);
+    final DBConnection datasource = f_result.getDB();
+    monitor.begin();
+    try {
+      final AdHocQueryResultCache cache = manager.getResultCache();
+      final int generation = cache.getGeneration(datasource);
+      ColumnarResult results = cache.get(datasource, query.getSql());
+      if (results == null) {
+        final Connection c = datasource.readOnlyConnection();
+        try {
+          if (monitor.isCanceled()) {
+            return SLStatus.CANCEL_STATUS;
+          }
+          final Statement st = query.execute(c);
+          try {
+            if (SLLogger.getLogger().isLoggable(Level.FINE)) {
+              SLLogger.getLogger().fine(I18N.msg("adhoc.query", query.getSql()));
+            }
+            final ResultSet rs = st.getResultSet();
+            if (rs == null) {
+              return SLStatus.CANCEL_STATUS;
+            }
+            try {
+              rs.setFetchSize(AdHocQueryJob.FETCH_SIZE);
+              results = ColumnarResult.read(rs, manager.getDataSource().getMaxRowsPerQuery());
+            } finally {
+              rs.close();
+            }
+          } finally {
+            StatementCache.checkIn(c, st);
+          }
+        } finally {
+          c.close();
+        }
+        cache.put(datasource, generation, query.getSql(), results);
+      }
+      manager.doneWithDatabase(datasource);
+      f_result.setRefinedRows(f_refinement, results);
+    } catch (final Exception e) {
+      final int code = 374;
+      return SLStatus.createErrorStatus(code, I18N.err(code, query.getSql()), e);
+    } finally {
+      monitor.done();
+    }
+    return SLStatus.OK_STATUS;
+  }
+}
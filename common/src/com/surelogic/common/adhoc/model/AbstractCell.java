@@ -23,15 +23,49 @@ public abstract class AbstractCell {
       f_text = "";
     else
       f_text = text;
+    f_textCode = CellDictionary.NO_CODE;
     f_blankText = blankText;
   }
 
+  /**
+   * Constructs a cell whose text is shared through the passed dictionary.
+   * 
+   * @param dictionary
+   *          the dictionary of the model this cell belongs to.
+   * @param text
+   *          the text to be displayed in this cell. If this parameter is
+   *          {@code null} then the empty string is used.
+   * @param blankText
+   *          {@code true} if the text should be blanked in the user interface,
+   *          {@code false} if it should not.
+   */
+  AbstractCell(CellDictionary dictionary, String text, boolean blankText) {
+    f_textCode = dictionary.code(text == null ? "" : text);
+    f_text = dictionary.value(f_textCode);
+    f_blankText = blankText;
+  }
+
+  /**
+   * Constructs a copy of the passed cell.
+   */
+  AbstractCell(AbstractCell cell) {
+    f_text = cell.f_text;
+    f_textCode = cell.f_textCode;
+    f_blankText = cell.f_blankText;
+  }
+
   /**
    * The text to be displayed in this cell.
    */
   @NonNull
   private String f_text;
 
+  /**
+   * The code of {@link #f_text} in the dictionary of the model, or
+   * {@link CellDictionary#NO_CODE} if the cell was not built from one.
+   */
+  private int f_textCode;
+
   /**
    * Gets the text to be displayed in this cell.
    * 
@@ -42,11 +76,24 @@ public abstract class AbstractCell {
     return f_text;
   }
 
+  /**
+   * Gets the dictionary code of the text of this cell. Two cells of the same
+   * model built from a dictionary have the same text if and only if they have
+   * the same code.
+   * 
+   * @return the code, or {@link CellDictionary#NO_CODE} if this cell was not
+   *         built from a dictionary.
+   */
+  final int getTextCode() {
+    return f_textCode;
+  }
+
   /**
    * Should only be called from {@link AdornedTreeTableModel}.
    */
-  final void setText(String value) {
-    f_text = value;
+  final void setText(CellDictionary dictionary, String value) {
+    f_textCode = dictionary.code(value);
+    f_text = dictionary.value(f_textCode);
   }
 
   /**
@@ -4,18 +4,22 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 
-import com.surelogic.Nullable;
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntSet;
 import com.surelogic.common.Justification;
 import com.surelogic.common.Pair;
 import com.surelogic.common.SLUtility;
 import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.ColumnarResult;
 import com.surelogic.common.logging.SLLogger;
 
 /**
@@ -23,7 +27,7 @@ import com.surelogic.common.logging.SLLogger;
  * represent a table, a tree, or a tree-table.
  * <p>
  * For a description of how the query is constructed to work with this class see
- * {@link #getInstance(String[], String[][])}.
+ * {@link #getInstance(ColumnarResult)}.
  */
 public final class AdornedTreeTableModel {
 
@@ -44,6 +48,7 @@ public final class AdornedTreeTableModel {
    * @return the constructed adorned tree-table model.
    * @throws IllegalArgumentException
    *           if any of the parameters is {@code null}.
+   * @see #getInstance(ColumnarResult)
    */
   public static AdornedTreeTableModel getInstance(final String[] columnLabels, final String[][] rows) throws Exception {
     if (columnLabels == null) {
@@ -52,6 +57,27 @@ public final class AdornedTreeTableModel {
     if (rows == null) {
       throw new IllegalArgumentException(I18N.err(44, "rows"));
     }
+    return getInstance(ColumnarResult.of(columnLabels, rows, false));
+  }
+
+  /**
+   * Constructs an adorned tree-table model that can be used to display the
+   * passed query result. The cells of the model are built directly from the
+   * columns of the result.
+   * 
+   * @param data
+   *          the query result, with column labels that carry optional
+   *          adornment information.
+   * @return the constructed adorned tree-table model.
+   * @throws IllegalArgumentException
+   *           if the parameter is {@code null}.
+   */
+  public static AdornedTreeTableModel getInstance(final ColumnarResult data) throws Exception {
+    if (data == null) {
+      throw new IllegalArgumentException(I18N.err(44, "data"));
+    }
+    final String[] columnLabels = data.getColumnLabels();
+    final int rowCount = data.getRowCount();
 
     boolean asTreeTable = false;
     int lastTreeIndex = NOT_FOUND;
@@ -185,10 +211,12 @@ public final class AdornedTreeTableModel {
     final boolean[] adornedIsColumnVisible = new boolean[adornedColumnCount];
     final Justification[] adornedColumnJustification = new Justification[adornedColumnCount];
     final ColumnAnnotation[] adornedColumnAnnotationInfo = new ColumnAnnotation[adornedColumnCount];
+    final int[] adornedSourceColumnIndex = new int[adornedColumnCount];
     int adornedColI = 0;
     for (int colI = 0; colI < isColumnVisible.length; colI++) {
       final boolean notAnImageDefinitionColumn = definesImageFor[colI] == NOT_FOUND;
       if (notAnImageDefinitionColumn) {
+        adornedSourceColumnIndex[adornedColI] = colI;
         adornedColumnJustification[adornedColI] = columnJustification[colI];
         adornedIsColumnVisible[adornedColI] = isColumnVisible[colI];
         adornedColumnAnnotationInfo[adornedColI] = columnAnnotationInfo[colI];
@@ -217,11 +245,12 @@ public final class AdornedTreeTableModel {
     }
 
     /*
-     * Create the adorned rows filled with cells.
+     * Create the adorned rows filled with cells. The text and image names of
+     * the cells are shared through a dictionary.
      */
-    final Cell[][] adornedRows = new Cell[rows.length][];
-    for (int rowI = 0; rowI < rows.length; rowI++) {
-      final String[] row = rows[rowI];
+    final CellDictionary dictionary = new CellDictionary();
+    final Cell[][] adornedRows = new Cell[rowCount][];
+    for (int rowI = 0; rowI < rowCount; rowI++) {
       // allocate this row in the adorned result
       adornedRows[rowI] = new Cell[adornedColumnCount];
       adornedColI = 0;
@@ -230,7 +259,7 @@ public final class AdornedTreeTableModel {
         String cellText;
         String cellImageSymbolicName;
         if (notAnImageDefinitionColumn) {
-          cellText = row[colI];
+          cellText = data.getString(rowI, colI);
           cellImageSymbolicName = fixedColumnImages[colI];
           if (cellImageSymbolicName == null) {
             int imageDefColI = NOT_FOUND;
@@ -242,7 +271,7 @@ public final class AdornedTreeTableModel {
               }
             }
             if (imageDefColI != NOT_FOUND) {
-              cellImageSymbolicName = row[imageDefColI];
+              cellImageSymbolicName = data.getString(rowI, imageDefColI);
             }
           } else {
             // Do we need to null out the image
@@ -311,7 +340,7 @@ public final class AdornedTreeTableModel {
             }
           }
 
-          adornedRows[rowI][adornedColI] = new Cell(cellText, longValue, blankText, cellImageSymbolicName);
+          adornedRows[rowI][adornedColI] = new Cell(dictionary, cellText, longValue, blankText, cellImageSymbolicName);
           adornedColI++;
         }
       }
@@ -323,10 +352,9 @@ public final class AdornedTreeTableModel {
     final TreeCell[] modelTreePart;
     final String modelTreePartColumnLabel;
     if (asTreeTable) {
-      final LinkedList<IndexedRowOfCells> rowsLeft = IndexedRowOfCells.toList(adornedRows);
-      final List<TreeCell> root = new LinkedList<>();
-      recursiveTreeTableBuilder(root, null, 0, lastTreeIndex, rowsLeft);
-      addNonLeafColumnSummaries(getAllNonLeaf(root), adornedColumnAnnotationInfo, lastTreeIndex, adornedRows);
+      final List<TreeCell> root = new ArrayList<>();
+      buildTree(root, lastTreeIndex, IndexedRowOfCells.toList(adornedRows));
+      addNonLeafColumnSummaries(getAllNonLeaf(root), adornedColumnAnnotationInfo, lastTreeIndex, adornedRows, dictionary);
       modelTreePart = root.toArray(new TreeCell[root.size()]);
       final boolean isPureTree = lastTreeIndex == adornedColumnCount - 1;
       if (isPureTree) {
@@ -340,58 +368,106 @@ public final class AdornedTreeTableModel {
       modelTreePart = null;
       modelTreePartColumnLabel = null;
     }
-    final AdornedTreeTableModel model = new AdornedTreeTableModel(adornedRows, adornedColumnLabels, adornedColumnJustification,
-        adornedIsColumnVisible, lastTreeIndex, lastTreeIndexInitiallyVisible, modelTreePart, modelTreePartColumnLabel);
+    final AdornedTreeTableModel model = new AdornedTreeTableModel(data, adornedRows, dictionary, adornedColumnLabels,
+        adornedColumnJustification, adornedIsColumnVisible, adornedSourceColumnIndex, lastTreeIndex, lastTreeIndexInitiallyVisible,
+        modelTreePart, modelTreePartColumnLabel);
     return model;
   }
 
+  /**
+   * Results with at least this many rows have their tree part built in
+   * parallel.
+   */
+  private static final int PARALLEL_TREE_ROW_THRESHOLD = 50000;
+
+  /**
+   * Within a parallel build, subtrees with at least this many rows are built
+   * as separate tasks.
+   */
+  private static final int PARALLEL_SUBTREE_ROW_THRESHOLD = 5000;
+
+  /**
+   * Builds the tree part of a tree-table, adding the top-level cells to the
+   * passed root list.
+   */
+  private static void buildTree(final List<TreeCell> root, final int lastTreeIndex, final List<IndexedRowOfCells> rows) {
+    if (rows.size() < PARALLEL_TREE_ROW_THRESHOLD) {
+      recursiveTreeTableBuilder(root, null, 0, lastTreeIndex, rows, false);
+    } else {
+      final ForkJoinPool pool = new ForkJoinPool();
+      try {
+        pool.invoke(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected void compute() {
+            recursiveTreeTableBuilder(root, null, 0, lastTreeIndex, rows, true);
+          }
+        });
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Adds the cells for the passed rows at the passed tree column below the
+   * parent, or to the root list if the parent is {@code null}, and then builds
+   * the subtree below each added cell.
+   * <p>
+   * Rows are grouped by the text and image of their cell in this column. Groups
+   * are kept in the order their first row appears, and rows within a group
+   * keep their relative order. A {@code null} value has the empty string as
+   * its text, so it is grouped with the other empty cells of its column.
+   * <p>
+   * When <tt>parallel</tt> is set this must be called within a
+   * {@link ForkJoinPool}. Only the cells of the root list and of the parent are
+   * mutated here, and each subtree mutates only its own cells, so sibling
+   * subtrees may be built concurrently.
+   */
   private static void recursiveTreeTableBuilder(final List<TreeCell> root, final NonLeafTreeCell parent, final int columnIndex,
-      final int lastTreeIndex, final LinkedList<IndexedRowOfCells> rowsLeft) {
+      final int lastTreeIndex, final List<IndexedRowOfCells> rows, final boolean parallel) {
     if (columnIndex == lastTreeIndex) {
-      for (final IndexedRowOfCells row : rowsLeft) {
+      for (final IndexedRowOfCells row : rows) {
         addLeaf(root, parent, row.getRow()[columnIndex], row.getRowIndex());
       }
-    } else {
-      while (!rowsLeft.isEmpty()) {
-        final IndexedRowOfCells row = rowsLeft.remove();
-        final LinkedList<IndexedRowOfCells> childrenOfRow = new LinkedList<>();
-        childrenOfRow.add(row);
-        final NonLeafTreeCell rowTreeCell = addNonLeaf(root, parent, row.getRow()[columnIndex]);
-        for (final Iterator<IndexedRowOfCells> i = rowsLeft.iterator(); i.hasNext();) {
-          final IndexedRowOfCells possibleChild = i.next();
-          final String rowText = rowTreeCell.getText();
-          final String possibleChildText = possibleChild.getRow()[columnIndex].getText();
-          final boolean rowTextMatches = rowText != null && rowText.equals(possibleChildText);
-          @Nullable
-          final String rowImageSymbolicName = rowTreeCell.getImageSymbolicName();
-          @Nullable
-          final String possibleChildImageSymbolicName = possibleChild.getRow()[columnIndex].getImageSymbolicName();
-          final boolean rowHasImage = rowImageSymbolicName != null;
-          final boolean bothNull = rowImageSymbolicName == null && possibleChildImageSymbolicName == null;
-          final boolean rowImageSymbolicNameMatches = rowHasImage && rowImageSymbolicName.equals(possibleChildImageSymbolicName);
-          if (rowTextMatches) {
-            if (bothNull || (rowHasImage && rowImageSymbolicNameMatches)) {
-              /*
-               * Match by text and image name -- needed to deal with intrinsic
-               * and util.concurrent locks which are shown in Flashlight by only
-               * changing the icon.
-               */
-              i.remove();
-              childrenOfRow.add(possibleChild);
-            }
-          } else if (possibleChildText == null) {
-            /*
-             * It is not good that this is null, so we stick all of them at this
-             * level so that the query author will fix the query to not have
-             * nulls in the tree portion of this result.
-             */
-            i.remove();
-            childrenOfRow.add(possibleChild);
+      return;
+    }
+    final Map<Long, List<IndexedRowOfCells>> groups = new LinkedHashMap<>();
+    for (final IndexedRowOfCells row : rows) {
+      final Cell cell = row.getRow()[columnIndex];
+      /*
+       * Match by text and image name -- needed to deal with intrinsic and
+       * util.concurrent locks which are shown in Flashlight by only changing
+       * the icon.
+       */
+      final Long key = Long.valueOf((long) cell.getTextCode() << 32 | cell.getImageCode() & 0xFFFFFFFFL);
+      List<IndexedRowOfCells> group = groups.get(key);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(key, group);
+      }
+      group.add(row);
+    }
+    final List<RecursiveAction> subtrees = parallel ? new ArrayList<RecursiveAction>() : null;
+    for (final List<IndexedRowOfCells> group : groups.values()) {
+      final NonLeafTreeCell groupTreeCell = addNonLeaf(root, parent, group.get(0).getRow()[columnIndex]);
+      if (parallel && group.size() >= PARALLEL_SUBTREE_ROW_THRESHOLD) {
+        subtrees.add(new RecursiveAction() {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected void compute() {
+            recursiveTreeTableBuilder(root, groupTreeCell, columnIndex + 1, lastTreeIndex, group, true);
           }
-        }
-        recursiveTreeTableBuilder(root, rowTreeCell, columnIndex + 1, lastTreeIndex, childrenOfRow);
+        });
+      } else {
+        recursiveTreeTableBuilder(root, groupTreeCell, columnIndex + 1, lastTreeIndex, group, parallel);
       }
     }
+    if (parallel && !subtrees.isEmpty()) {
+      ForkJoinTask.invokeAll(subtrees);
+    }
   }
 
   private static NonLeafTreeCell addNonLeaf(final List<TreeCell> root, final NonLeafTreeCell parent, final Cell cell) {
@@ -431,7 +507,8 @@ public final class AdornedTreeTableModel {
   }
 
   private static void addNonLeafColumnSummaries(final List<NonLeafTreeCell> nonLeafCells,
-      final ColumnAnnotation[] adornedColumnAnnotationInfo, final int lastTreeIndex, final Cell[][] adornedRows) {
+      final ColumnAnnotation[] adornedColumnAnnotationInfo, final int lastTreeIndex, final Cell[][] adornedRows,
+      final CellDictionary dictionary) {
     final Set<Pair<Cell, String>> cellsToReplaceText = new HashSet<>();
     for (final NonLeafTreeCell nonLeafCell : nonLeafCells) {
       for (int colI = lastTreeIndex; colI < adornedColumnAnnotationInfo.length; colI++) {
@@ -492,15 +569,14 @@ public final class AdornedTreeTableModel {
               final boolean distinct = info.countDistinct();
               final boolean allowEmptyValues = !info.countNonempty();
               final String replaceValueWith = info.getCountReplaceValueWith();
-              final Set<String> distinctFound = new HashSet<>();
+              final IntSet distinctFound = new IntHashSet();
               int countTotal = 0;
               for (final LeafTreeCell leaf : nonLeafCell.getLeaves()) {
                 final Cell adornedCell = adornedRows[leaf.getRowIndex()][colI];
-                final String contents = adornedCell.getText();
-                final boolean considerInCount = allowEmptyValues || !contents.trim().isEmpty();
+                final boolean considerInCount = allowEmptyValues || !adornedCell.getText().trim().isEmpty();
                 if (distinct) {
                   if (considerInCount)
-                    if (distinctFound.add(contents))
+                    if (distinctFound.add(adornedCell.getTextCode()))
                       countTotal++;
                 } else {
                   if (considerInCount)
@@ -523,12 +599,14 @@ public final class AdornedTreeTableModel {
              */
             if (info.onSetContains(nonLeafCell.filledColumnCount())) {
               boolean show = false;
-              final String containsValue = info.getContainsValue();
-              for (final LeafTreeCell leaf : nonLeafCell.getLeaves()) {
-                final Cell adornedCell = adornedRows[leaf.getRowIndex()][colI];
-                final String contents = adornedCell.getText();
-                if (contents.equals(containsValue))
-                  show = true;
+              final int containsCode = dictionary.find(info.getContainsValue());
+              if (containsCode != CellDictionary.NO_CODE) {
+                for (final LeafTreeCell leaf : nonLeafCell.getLeaves()) {
+                  if (adornedRows[leaf.getRowIndex()][colI].getTextCode() == containsCode) {
+                    show = true;
+                    break;
+                  }
+                }
               }
               if (show) {
                 final String showText = info.getShowValue();
@@ -543,7 +621,7 @@ public final class AdornedTreeTableModel {
       }
     }
     for (final Pair<Cell, String> pair : cellsToReplaceText)
-      pair.first().setText(pair.second());
+      pair.first().setText(dictionary, pair.second());
   }
 
   /**
@@ -605,13 +683,19 @@ public final class AdornedTreeTableModel {
   private static final String BREAK = "__";
   private static final String IMG_VARIABLE_SUFFIX = " (Image)";
 
-  private AdornedTreeTableModel(final Cell[][] rows, final String[] columnLabels, final Justification[] columnJustification,
-      final boolean[] isColumnVisible, final int lastTreeIndex, final int lastTreeIndexInitiallyVisible, final TreeCell[] treePart,
+  private AdornedTreeTableModel(final ColumnarResult data, final Cell[][] rows, final CellDictionary dictionary,
+      final String[] columnLabels, final Justification[] columnJustification, final boolean[] isColumnVisible,
+      final int[] sourceColumnIndex, final int lastTreeIndex, final int lastTreeIndexInitiallyVisible, final TreeCell[] treePart,
       final String treePartColumnLabel) {
+    f_data = data;
     if (rows == null) {
       throw new IllegalArgumentException(I18N.err(44, "rows"));
     }
     f_rows = rows;
+    if (dictionary == null) {
+      throw new IllegalArgumentException(I18N.err(44, "dictionary"));
+    }
+    f_dictionary = dictionary;
     if (columnLabels == null) {
       throw new IllegalArgumentException(I18N.err(44, "columnLabels"));
     }
@@ -624,6 +708,10 @@ public final class AdornedTreeTableModel {
       throw new IllegalArgumentException(I18N.err(44, "isColumnVisible"));
     }
     f_isColumnVisible = isColumnVisible;
+    if (sourceColumnIndex == null) {
+      throw new IllegalArgumentException(I18N.err(44, "sourceColumnIndex"));
+    }
+    f_sourceColumnIndex = sourceColumnIndex;
     f_lastTreeIndex = lastTreeIndex;
     f_lastTreeIndexInitiallyVisible = lastTreeIndexInitiallyVisible;
     f_treePart = treePart;
@@ -671,10 +759,16 @@ public final class AdornedTreeTableModel {
     }
   }
 
+  /**
+   * The query result this model was built from.
+   */
+  private final ColumnarResult f_data;
   private final Cell[][] f_rows;
+  private final CellDictionary f_dictionary;
   private final String[] f_columnLabels;
   private final Justification[] f_columnJustification;
   private final boolean[] f_isColumnVisible;
+  private final int[] f_sourceColumnIndex;
   private final int f_lastTreeIndex;
   private final int f_lastTreeIndexInitiallyVisible;
   private final TreeCell[] f_treePart;
@@ -772,6 +866,35 @@ public final class AdornedTreeTableModel {
     return f_columnLabels;
   }
 
+  /**
+   * Gets the index of the column of the query result that the column at the
+   * passed index into the table representation of this model was built from.
+   * Columns that only define icons for another column are not part of the
+   * table representation, so the two indices may differ.
+   * 
+   * @param columnIndex
+   *          a column index within the table representation of this model.
+   * @return the zero-based index of the column in the query result.
+   */
+  public int getSourceColumnIndex(final int columnIndex) {
+    return f_sourceColumnIndex[columnIndex];
+  }
+
+  /**
+   * Gets the value of a cell as the query returned it, rather than the
+   * adorned text of the cell, which may, e.g., have commas added.
+   * 
+   * @param rowIndex
+   *          a row in this model.
+   * @param columnIndex
+   *          a column index within the table representation of this model.
+   * @return the text of the value, or {@code null} if SQL <tt>NULL</tt> was
+   *         what was in the database.
+   */
+  public String getSourceValue(final int rowIndex, final int columnIndex) {
+    return f_data.getString(rowIndex, f_sourceColumnIndex[columnIndex]);
+  }
+
   /**
    * Checks if the column at the passed index into the table representation of
    * this model should be visible in the user interface. Columns that are not
@@ -935,35 +1058,28 @@ public final class AdornedTreeTableModel {
 
     final int columnCount = getColumnCount();
 
-    final String[] values = new String[columnCount];
-    final String[] imgValues = new String[columnCount];
-    Arrays.fill(values, null);
+    final int[] textCodes = new int[columnCount];
+    final int[] imageCodes = new int[columnCount];
     boolean first = true;
 
     /*
-     * Keep values that are invariant; null out those that change.
+     * Keep values that are invariant; forget those that change.
      */
     for (final LeafTreeCell leaf : leaves) {
+      final Cell[] row = f_rows[leaf.getRowIndex()];
       if (first) {
         first = false;
         for (int colI = 0; colI < columnCount; colI++) {
-          final Cell c = f_rows[leaf.getRowIndex()][colI];
-          values[colI] = c.getText();
-          imgValues[colI] = c.getImageSymbolicName();
+          textCodes[colI] = row[colI].getTextCode();
+          imageCodes[colI] = row[colI].getImageCode();
         }
       } else {
         for (int colI = 0; colI < columnCount; colI++) {
-          if (values[colI] != null) {
-            final String rowValue = f_rows[leaf.getRowIndex()][colI].getText();
-            if (!values[colI].equals(rowValue)) {
-              values[colI] = null;
-            }
+          if (textCodes[colI] != row[colI].getTextCode()) {
+            textCodes[colI] = CellDictionary.NO_CODE;
           }
-          if (imgValues[colI] != null) {
-            final String imgValue = f_rows[leaf.getRowIndex()][colI].getImageSymbolicName();
-            if (!imgValues[colI].equals(imgValue)) {
-              imgValues[colI] = null;
-            }
+          if (imageCodes[colI] != row[colI].getImageCode()) {
+            imageCodes[colI] = CellDictionary.NO_CODE;
           }
         }
       }
@@ -971,8 +1087,8 @@ public final class AdornedTreeTableModel {
 
     for (int colI = 0; colI < columnCount; colI++) {
       final String key = f_columnLabels[colI];
-      final String value = values[colI];
-      final String imgValue = imgValues[colI];
+      final String value = textCodes[colI] == CellDictionary.NO_CODE ? null : f_dictionary.value(textCodes[colI]);
+      final String imgValue = imageCodes[colI] == CellDictionary.NO_CODE ? null : f_dictionary.value(imageCodes[colI]);
       if (key != null && value != null) {
         result.put(key, value);
       }
@@ -12,6 +12,8 @@ public class Cell extends AbstractCell {
   /**
    * Constructs a cell.
    * 
+   * @param dictionary
+   *          the dictionary of the model this cell belongs to.
    * @param text
    *          the text to be displayed in this cell. If this parameter is
    *          {@code null} then the empty string is used.
@@ -26,10 +28,21 @@ public class Cell extends AbstractCell {
    *          a symbolic name from {@link CommonImages} or {@code null} if no
    *          image should be displayed for this cell.
    */
-  Cell(String text, Long longValue, boolean blankText, String imageSymbolicName) {
-    super(text, blankText);
+  Cell(CellDictionary dictionary, String text, Long longValue, boolean blankText, String imageSymbolicName) {
+    super(dictionary, text, blankText);
     f_longValue = longValue;
-    f_imageSymbolicName = imageSymbolicName;
+    f_imageCode = dictionary.code(imageSymbolicName);
+    f_imageSymbolicName = dictionary.value(f_imageCode);
+  }
+
+  /**
+   * Constructs a copy of the passed cell.
+   */
+  Cell(Cell cell) {
+    super(cell);
+    f_longValue = cell.f_longValue;
+    f_imageCode = cell.f_imageCode;
+    f_imageSymbolicName = cell.f_imageSymbolicName;
   }
 
   /**
@@ -51,6 +64,21 @@ public class Cell extends AbstractCell {
     return f_imageSymbolicName;
   }
 
+  /**
+   * The code of {@link #f_imageSymbolicName} in the dictionary of the model.
+   */
+  private final int f_imageCode;
+
+  /**
+   * Gets the dictionary code of the image symbolic name of this cell.
+   * {@link CellDictionary#NULL_CODE} stands for no image.
+   * 
+   * @return the code of the image symbolic name of this cell.
+   */
+  final int getImageCode() {
+    return f_imageCode;
+  }
+
   /**
    * A numeric value which started the text before any transformations. A value
    * of -1 indicates the text did not start with a numeric value.
@@ -0,0 +1,88 @@
+package com.surelogic.common.adhoc.model;
+
+import java.util.ArrayList;
+
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.ObjectIntMap;
+
+/**
+ * The distinct strings used by the cells of one {@link AdornedTreeTableModel}.
+ * Each string is given an integer code when it is first seen, and every cell
+ * holding that string shares a single instance of it. Cells keep the codes of
+ * their text and image name, so the model can group and compare cells without
+ * comparing strings.
+ * <p>
+ * Code <tt>0</tt> always stands for {@code null}. This class is a helper for
+ * building {@link AdornedTreeTableModel} and is not thread-safe.
+ */
+final class CellDictionary {
+
+  /**
+   * The code of {@code null}.
+   */
+  static final int NULL_CODE = 0;
+
+  /**
+   * Returned by {@link #find(String)} for strings not in the dictionary, and
+   * held by cells that were not built from a dictionary.
+   */
+  static final int NO_CODE = -1;
+
+  private final ObjectIntMap<String> f_codes = new ObjectIntHashMap<>();
+  private final ArrayList<String> f_values = new ArrayList<>();
+
+  CellDictionary() {
+    f_values.add(null);
+  }
+
+  /**
+   * Gets the code for a string, adding the string if it has not been seen.
+   *
+   * @param value
+   *          a string, may be {@code null}.
+   * @return the code for <tt>value</tt>.
+   */
+  int code(final String value) {
+    if (value == null) {
+      return NULL_CODE;
+    }
+    final int index = f_codes.indexOf(value);
+    if (f_codes.indexExists(index)) {
+      return f_codes.indexGet(index);
+    }
+    final int code = f_values.size();
+    f_values.add(value);
+    f_codes.indexInsert(index, value, code);
+    return code;
+  }
+
+  /**
+   * Gets the code for a string without adding it.
+   *
+   * @param value
+   *          a string, may be {@code null}.
+   * @return the code for <tt>value</tt>, or {@link #NO_CODE} if it has not been
+   *         seen.
+   */
+  int find(final String value) {
+    if (value == null) {
+      return NULL_CODE;
+    }
+    return f_codes.getOrDefault(value, NO_CODE);
+  }
+
+  /**
+   * Gets the string for a code.
+   *
+   * @param code
+   *          a code returned by {@link #code(String)}.
+   * @return the shared instance of the string, may be {@code null}.
+   */
+  String value(final int code) {
+    return f_values.get(code);
+  }
+
+  int size() {
+    return f_values.size();
+  }
+}
@@ -1,6 +1,7 @@
 package com.surelogic.common.adhoc.model;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.surelogic.common.i18n.I18N;
 
@@ -12,16 +13,15 @@ import com.surelogic.common.i18n.I18N;
 class IndexedRowOfCells {
 
 	/**
-	 * Constructs a linked list of indexed rows of cells. The index is the array
-	 * index from the passed rows.
+	 * Constructs a list of indexed rows of cells. The index is the array index
+	 * from the passed rows.
 	 * 
 	 * @param rows
 	 *            a list of rows of cells.
-	 * @return a linked list of rows of cells indexed by the passed array
-	 *         indices.
+	 * @return a list of rows of cells indexed by the passed array indices.
 	 */
-	static LinkedList<IndexedRowOfCells> toList(Cell[][] rows) {
-		final LinkedList<IndexedRowOfCells> result = new LinkedList<>();
+	static List<IndexedRowOfCells> toList(Cell[][] rows) {
+		final List<IndexedRowOfCells> result = new ArrayList<>(rows.length);
 		for (int rowIndex = 0; rowIndex < rows.length; rowIndex++) {
 			final Cell[] row = rows[rowIndex];
 			result.add(new IndexedRowOfCells(rowIndex, row));
@@ -12,9 +12,10 @@ import com.surelogic.common.FileUtility;
 import com.surelogic.common.jdbc.AbstractDBConnection;
 import com.surelogic.common.jdbc.SchemaData;
 import com.surelogic.common.jdbc.SchemaUtility;
+import com.surelogic.common.jdbc.WriteTracking;
 import com.surelogic.common.logging.SLLogger;
 
-public abstract class DerbyConnection extends AbstractDBConnection {
+public abstract class DerbyConnection extends AbstractDBConnection implements WriteTracking {
 
   /**
    * Gets if the embedded database should be deleted upon startup of the IDE.
@@ -176,14 +177,74 @@ public abstract class DerbyConnection extends AbstractDBConnection {
     return f_booted;
   }
 
+  /**
+   * The pool of connections to the embedded database, or {@code null} if
+   * pooling is disabled or no connection has been requested yet.
+   */
+  private DerbyConnectionPool f_pool;
+
+  /**
+   * Gets the pool of connections to the embedded database, creating it if
+   * necessary.
+   *
+   * @return the pool, or {@code null} if pooling is disabled.
+   * @see DerbyConnectionPool#SIZE_PROP
+   */
+  protected synchronized DerbyConnectionPool getPool() {
+    if (f_pool == null && DerbyConnectionPool.SIZE > 0) {
+      f_pool = new DerbyConnectionPool(getConnectionURL());
+    }
+    return f_pool;
+  }
+
   @Override
   public Connection getConnection() throws SQLException {
+    final DerbyConnectionPool pool = getPool();
+    if (pool != null) {
+      return pool.getConnection(DerbyConnectionPool.Partition.DEFAULT);
+    }
     final Connection conn = LazyPreparedStatementConnection.wrap(DriverManager.getConnection(getConnectionURL()));
     return conn;
   }
 
+  @Override
+  public Connection readOnlyConnection() throws SQLException {
+    final DerbyConnectionPool pool = getPool();
+    if (pool != null) {
+      return pool.getConnection(DerbyConnectionPool.Partition.READ_ONLY);
+    }
+    return super.readOnlyConnection();
+  }
+
+  @Override
+  public Connection transactionConnection() throws SQLException {
+    final DerbyConnectionPool pool = getPool();
+    if (pool != null) {
+      return pool.getConnection(DerbyConnectionPool.Partition.TRANSACTION);
+    }
+    return super.transactionConnection();
+  }
+
+  /**
+   * Gets the write generation of the embedded database. Writes are tracked by
+   * the pool of connections, so they are not tracked if pooling is disabled.
+   *
+   * @return the write generation of the pool, or {@link #NOT_TRACKED} if
+   *         pooling is disabled.
+   */
+  @Override
+  public int getWriteGeneration() {
+    final DerbyConnectionPool pool = getPool();
+    return pool == null ? NOT_TRACKED : pool.getWriteGeneration();
+  }
+
   @Override
   public synchronized void shutdown() {
+    if (f_pool != null) {
+      f_pool.closeIdle();
+      // the database may be replaced before it is booted again
+      f_pool.noteWrite();
+    }
     if (f_booted) {
       try {
         synchronized (this) {
@@ -0,0 +1,410 @@
+package com.surelogic.common.derby;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import com.surelogic.common.jdbc.CancellableConnection;
+import com.surelogic.common.jdbc.StatementCache;
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * A pool of embedded Derby connections to one database. Connections are kept
+ * in three partitions: read-only, transactional (auto-commit off), and default,
+ * so a connection taken from a partition already has the settings that
+ * partition is used for. Each pooled connection keeps its
+ * {@link StatementCache} while it is idle.
+ * <p>
+ * Closing a connection obtained from the pool returns it to its partition. Any
+ * uncommitted work is rolled back, statements that are not cached are closed,
+ * and connections that fail to reset, or that do not fit in the partition, are
+ * closed. There is no limit on the number of connections in use at once.
+ * <p>
+ * The pool keeps a {@linkplain #getWriteGeneration() write generation} for its
+ * database. It advances when a connection handed out by the pool commits, turns
+ * auto-commit back on, or is returned after being writable with auto-commit on,
+ * because any statement run on such a connection may have committed a write.
+ * <p>
+ * The number of idle connections kept per partition may be set with the
+ * {@value #SIZE_PROP} system property. A value of <tt>0</tt> disables pooling.
+ * Instances are thread-safe.
+ */
+public final class DerbyConnectionPool {
+
+  /**
+   * The system property that sets the maximum number of idle connections kept
+   * in each partition of a pool.
+   */
+  public static final String SIZE_PROP = "com.surelogic.common.derby.poolSize";
+
+  public static final int DEFAULT_SIZE = 4;
+
+  static final int SIZE = Math.max(0, Integer.getInteger(SIZE_PROP, DEFAULT_SIZE));
+
+  /**
+   * The partitions of the pool.
+   */
+  public enum Partition {
+    READ_ONLY(true, true), TRANSACTION(false, false), DEFAULT(false, true);
+
+    final boolean readOnly;
+    final boolean autoCommit;
+
+    private Partition(boolean readOnly, boolean autoCommit) {
+      this.readOnly = readOnly;
+      this.autoCommit = autoCommit;
+    }
+  }
+
+  private final String f_url;
+  private final int f_maxIdle;
+  private final List<Deque<PooledConnection>> f_idle = new ArrayList<>();
+  private int f_active;
+  private long f_created;
+  private long f_reused;
+  private long f_discarded;
+  private final AtomicInteger f_writeGeneration = new AtomicInteger();
+
+  /**
+   * Constructs a pool.
+   *
+   * @param url
+   *          the JDBC URL of the database.
+   * @param maxIdle
+   *          the maximum number of idle connections kept in each partition.
+   */
+  public DerbyConnectionPool(final String url, final int maxIdle) {
+    if (url == null) {
+      throw new IllegalArgumentException("url must be non-null");
+    }
+    f_url = url;
+    f_maxIdle = Math.max(0, maxIdle);
+    for (int i = 0; i < Partition.values().length; i++) {
+      f_idle.add(new ArrayDeque<PooledConnection>());
+    }
+  }
+
+  /**
+   * Constructs a pool sized by the {@value #SIZE_PROP} system property.
+   *
+   * @param url
+   *          the JDBC URL of the database.
+   */
+  public DerbyConnectionPool(final String url) {
+    this(url, SIZE);
+  }
+
+  /**
+   * Gets a connection from the given partition, opening a new one if no idle
+   * connection is available.
+   *
+   * @param partition
+   *          the partition.
+   * @return a connection with the read-only and auto-commit settings of the
+   *         partition. Closing it returns it to the pool.
+   * @throws SQLException
+   *           if a new connection can't be opened.
+   */
+  public Connection getConnection(final Partition partition) throws SQLException {
+    PooledConnection pooled = null;
+    synchronized (this) {
+      final Deque<PooledConnection> idle = f_idle.get(partition.ordinal());
+      while (pooled == null && !idle.isEmpty()) {
+        final PooledConnection candidate = idle.pop();
+        if (candidate.isValid()) {
+          pooled = candidate;
+          f_reused++;
+        } else {
+          discard(candidate);
+        }
+      }
+      f_active++;
+    }
+    if (pooled == null) {
+      try {
+        pooled = open(partition);
+      } catch (final SQLException e) {
+        synchronized (this) {
+          f_active--;
+        }
+        throw e;
+      }
+    }
+    pooled.mayHaveCommitted = !partition.readOnly && partition.autoCommit;
+    pooled.checkedOut = true;
+    return pooled.handle;
+  }
+
+  private PooledConnection open(final Partition partition) throws SQLException {
+    final CancellableConnection physical = LazyPreparedStatementConnection.wrap(DriverManager.getConnection(f_url));
+    try {
+      if (partition.readOnly) {
+        physical.setReadOnly(true);
+      }
+      if (!partition.autoCommit) {
+        physical.setAutoCommit(false);
+      }
+    } catch (final SQLException e) {
+      physical.close();
+      throw e;
+    }
+    synchronized (this) {
+      f_created++;
+    }
+    return new PooledConnection(partition, physical);
+  }
+
+  /**
+   * Gets the write generation of the database. It advances each time a write
+   * made through a connection handed out by this pool may have been committed.
+   *
+   * @return the write generation of the database.
+   */
+  public int getWriteGeneration() {
+    return f_writeGeneration.get();
+  }
+
+  /**
+   * Advances the write generation of the database. Called when the database
+   * may have been changed other than through a connection handed out by this
+   * pool.
+   */
+  public void noteWrite() {
+    f_writeGeneration.incrementAndGet();
+  }
+
+  /**
+   * Called when a connection handed out by this pool is closed.
+   */
+  void release(final PooledConnection pooled) {
+    pooled.checkedOut = false;
+    final boolean reset = pooled.reset();
+    if (pooled.mayHaveCommitted) {
+      noteWrite();
+    }
+    synchronized (this) {
+      f_active--;
+      final Deque<PooledConnection> idle = f_idle.get(pooled.partition.ordinal());
+      if (reset && idle.size() < f_maxIdle) {
+        idle.push(pooled);
+        return;
+      }
+    }
+    discard(pooled);
+  }
+
+  private void discard(final PooledConnection pooled) {
+    synchronized (this) {
+      f_discarded++;
+    }
+    StatementCache.release(pooled.handle);
+    try {
+      pooled.physical.close();
+    } catch (final SQLException e) {
+      SLLogger.getLogger().log(Level.FINE, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Closes every idle connection. Connections in use are closed when they are
+   * returned.
+   */
+  public void closeIdle() {
+    final List<PooledConnection> toClose = new ArrayList<>();
+    synchronized (this) {
+      for (final Deque<PooledConnection> idle : f_idle) {
+        toClose.addAll(idle);
+        idle.clear();
+      }
+    }
+    for (final PooledConnection pooled : toClose) {
+      discard(pooled);
+    }
+  }
+
+  /**
+   * The number of connections currently handed out.
+   */
+  public synchronized int getActiveCount() {
+    return f_active;
+  }
+
+  /**
+   * The number of idle connections across all partitions.
+   */
+  public synchronized int getIdleCount() {
+    int result = 0;
+    for (final Deque<PooledConnection> idle : f_idle) {
+      result += idle.size();
+    }
+    return result;
+  }
+
+  public synchronized long getCreatedCount() {
+    return f_created;
+  }
+
+  public synchronized long getReusedCount() {
+    return f_reused;
+  }
+
+  public synchronized long getDiscardedCount() {
+    return f_discarded;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DerbyConnectionPool [url=" + f_url + ", active=" + f_active + ", idle=" + getIdleCount() + ", created=" + f_created
+        + ", reused=" + f_reused + ", discarded=" + f_discarded + "]";
+  }
+
+  /**
+   * A physical connection owned by the pool, and the handle given to clients.
+   * The handle stays the same across uses so that the statement cache of the
+   * connection survives.
+   */
+  final class PooledConnection {
+
+    final Partition partition;
+    final CancellableConnection physical;
+    final Handle handle = new Handle();
+    final List<Statement> statements = new ArrayList<>();
+    volatile boolean checkedOut;
+    /**
+     * Set while checked out if the connection has been writable with
+     * auto-commit on, so that a statement run on it may have committed a write.
+     */
+    volatile boolean mayHaveCommitted;
+
+    PooledConnection(final Partition partition, final CancellableConnection physical) {
+      this.partition = partition;
+      this.physical = physical;
+      StatementCache.register(handle);
+    }
+
+    boolean isValid() {
+      try {
+        return !physical.isClosed();
+      } catch (final SQLException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Returns the connection to the state of its partition.
+     *
+     * @return {@code true} if the connection may be reused.
+     */
+    boolean reset() {
+      try {
+        final StatementCache cache = StatementCache.register(handle);
+        // no client can still be using the statements it checked out
+        cache.checkInAll();
+        for (final Statement st : statements) {
+          if (!cache.isCached(st)) {
+            st.close();
+          }
+        }
+        statements.clear();
+        if (physical.isClosed()) {
+          return false;
+        }
+        if (!physical.getAutoCommit()) {
+          physical.rollback();
+        }
+        if (physical.getAutoCommit() != partition.autoCommit) {
+          physical.setAutoCommit(partition.autoCommit);
+        }
+        if (physical.isReadOnly() != partition.readOnly) {
+          physical.setReadOnly(partition.readOnly);
+        }
+        physical.clearWarnings();
+        return true;
+      } catch (final SQLException e) {
+        SLLogger.getLogger().log(Level.FINE, e.getMessage(), e);
+        return false;
+      }
+    }
+
+    /**
+     * The connection given to clients. It may only be used while it is checked
+     * out.
+     */
+    final class Handle extends DelegatingConnection {
+
+      @Override
+      protected Connection delegate() throws SQLException {
+        if (!checkedOut) {
+          throw new SQLException("Connection is closed.");
+        }
+        return physical;
+      }
+
+      @Override
+      protected <T extends Statement> T opened(final T st) {
+        statements.add(st);
+        return st;
+      }
+
+      @Override
+      public void commit() throws SQLException {
+        delegate().commit();
+        noteWrite();
+      }
+
+      @Override
+      public void setAutoCommit(final boolean autoCommit) throws SQLException {
+        final Connection conn = delegate();
+        final boolean wasAutoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(autoCommit);
+        if (autoCommit && !wasAutoCommit) {
+          // turning auto-commit on commits the current transaction
+          noteWrite();
+        }
+        if (autoCommit && !conn.isReadOnly()) {
+          mayHaveCommitted = true;
+        }
+      }
+
+      @Override
+      public void setReadOnly(final boolean readOnly) throws SQLException {
+        final Connection conn = delegate();
+        conn.setReadOnly(readOnly);
+        if (!readOnly && conn.getAutoCommit()) {
+          mayHaveCommitted = true;
+        }
+      }
+
+      @Override
+      public void close() {
+        if (checkedOut) {
+          release(PooledConnection.this);
+        }
+      }
+
+      @Override
+      public boolean isClosed() throws SQLException {
+        return !checkedOut || physical.isClosed();
+      }
+
+      @Override
+      public void cancelRunningStatement() {
+        if (checkedOut) {
+          physical.cancelRunningStatement();
+        }
+      }
+
+      @Override
+      public String toString() {
+        return "Pooled " + partition + " connection to " + f_url;
+      }
+    }
+  }
+}
@@ -0,0 +1,565 @@
+package com.surelogic.common.derby;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * A prepared statement that is not actually prepared until a method is invoked
+ * on it. Closing a statement that was never used does not prepare it. The
+ * underlying statement is tracked by the {@link LazyPreparedStatementConnection}
+ * that created this one, so that it is closed along with the connection.
+ */
+abstract class LazyPreparedStatement implements PreparedStatement {
+
+  private final LazyPreparedStatementConnection f_conn;
+  private PreparedStatement f_st;
+  private boolean f_closed;
+
+  LazyPreparedStatement(final LazyPreparedStatementConnection conn) {
+    f_conn = conn;
+  }
+
+  /**
+   * Prepares the underlying statement.
+   *
+   * @param conn
+   *          the underlying connection.
+   */
+  abstract PreparedStatement prepare(Connection conn) throws SQLException;
+
+  private PreparedStatement st() throws SQLException {
+    if (f_st == null) {
+      if (f_closed) {
+        throw new SQLException("Statement is closed.");
+      }
+      f_st = prepare(f_conn.conn);
+      f_conn.prepared(f_st);
+    }
+    return f_st;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    f_closed = true;
+    if (f_st != null) {
+      f_st.close();
+      f_conn.closed(f_st);
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return f_st == null ? f_closed : f_st.isClosed();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    st();
+    return f_conn;
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    return st().executeQuery();
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    return st().executeUpdate();
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    return st().execute();
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    st().addBatch();
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    st().clearParameters();
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return st().getMetaData();
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    return st().getParameterMetaData();
+  }
+
+  @Override
+  public void setNull(final int parameterIndex, final int sqlType) throws SQLException {
+    st().setNull(parameterIndex, sqlType);
+  }
+
+  @Override
+  public void setNull(final int parameterIndex, final int sqlType, final String typeName) throws SQLException {
+    st().setNull(parameterIndex, sqlType, typeName);
+  }
+
+  @Override
+  public void setBoolean(final int parameterIndex, final boolean x) throws SQLException {
+    st().setBoolean(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(final int parameterIndex, final byte x) throws SQLException {
+    st().setByte(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(final int parameterIndex, final short x) throws SQLException {
+    st().setShort(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(final int parameterIndex, final int x) throws SQLException {
+    st().setInt(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(final int parameterIndex, final long x) throws SQLException {
+    st().setLong(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(final int parameterIndex, final float x) throws SQLException {
+    st().setFloat(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(final int parameterIndex, final double x) throws SQLException {
+    st().setDouble(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(final int parameterIndex, final BigDecimal x) throws SQLException {
+    st().setBigDecimal(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(final int parameterIndex, final String x) throws SQLException {
+    st().setString(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(final int parameterIndex, final String value) throws SQLException {
+    st().setNString(parameterIndex, value);
+  }
+
+  @Override
+  public void setBytes(final int parameterIndex, final byte[] x) throws SQLException {
+    st().setBytes(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(final int parameterIndex, final Date x) throws SQLException {
+    st().setDate(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(final int parameterIndex, final Date x, final Calendar cal) throws SQLException {
+    st().setDate(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTime(final int parameterIndex, final Time x) throws SQLException {
+    st().setTime(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(final int parameterIndex, final Time x, final Calendar cal) throws SQLException {
+    st().setTime(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTimestamp(final int parameterIndex, final Timestamp x) throws SQLException {
+    st().setTimestamp(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(final int parameterIndex, final Timestamp x, final Calendar cal) throws SQLException {
+    st().setTimestamp(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x) throws SQLException {
+    st().setObject(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final int targetSqlType) throws SQLException {
+    st().setObject(parameterIndex, x, targetSqlType);
+  }
+
+  @Override
+  public void setObject(final int parameterIndex, final Object x, final int targetSqlType, final int scaleOrLength)
+      throws SQLException {
+    st().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x) throws SQLException {
+    st().setAsciiStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    st().setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setAsciiStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
+    st().setAsciiStream(parameterIndex, x, length);
+  }
+
+  @Override
+  @Deprecated
+  public void setUnicodeStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    st().setUnicodeStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x) throws SQLException {
+    st().setBinaryStream(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x, final int length) throws SQLException {
+    st().setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(final int parameterIndex, final InputStream x, final long length) throws SQLException {
+    st().setBinaryStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader) throws SQLException {
+    st().setCharacterStream(parameterIndex, reader);
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader, final int length) throws SQLException {
+    st().setCharacterStream(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setCharacterStream(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    st().setCharacterStream(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setNCharacterStream(final int parameterIndex, final Reader value) throws SQLException {
+    st().setNCharacterStream(parameterIndex, value);
+  }
+
+  @Override
+  public void setNCharacterStream(final int parameterIndex, final Reader value, final long length) throws SQLException {
+    st().setNCharacterStream(parameterIndex, value, length);
+  }
+
+  @Override
+  public void setRef(final int parameterIndex, final Ref x) throws SQLException {
+    st().setRef(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final Blob x) throws SQLException {
+    st().setBlob(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final InputStream inputStream) throws SQLException {
+    st().setBlob(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setBlob(final int parameterIndex, final InputStream inputStream, final long length) throws SQLException {
+    st().setBlob(parameterIndex, inputStream, length);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Clob x) throws SQLException {
+    st().setClob(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Reader reader) throws SQLException {
+    st().setClob(parameterIndex, reader);
+  }
+
+  @Override
+  public void setClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    st().setClob(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final NClob value) throws SQLException {
+    st().setNClob(parameterIndex, value);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final Reader reader) throws SQLException {
+    st().setNClob(parameterIndex, reader);
+  }
+
+  @Override
+  public void setNClob(final int parameterIndex, final Reader reader, final long length) throws SQLException {
+    st().setNClob(parameterIndex, reader, length);
+  }
+
+  @Override
+  public void setArray(final int parameterIndex, final Array x) throws SQLException {
+    st().setArray(parameterIndex, x);
+  }
+
+  @Override
+  public void setURL(final int parameterIndex, final URL x) throws SQLException {
+    st().setURL(parameterIndex, x);
+  }
+
+  @Override
+  public void setRowId(final int parameterIndex, final RowId x) throws SQLException {
+    st().setRowId(parameterIndex, x);
+  }
+
+  @Override
+  public void setSQLXML(final int parameterIndex, final SQLXML xmlObject) throws SQLException {
+    st().setSQLXML(parameterIndex, xmlObject);
+  }
+
+  @Override
+  public ResultSet executeQuery(final String sql) throws SQLException {
+    return st().executeQuery(sql);
+  }
+
+  @Override
+  public int executeUpdate(final String sql) throws SQLException {
+    return st().executeUpdate(sql);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return st().executeUpdate(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final int[] columnIndexes) throws SQLException {
+    return st().executeUpdate(sql, columnIndexes);
+  }
+
+  @Override
+  public int executeUpdate(final String sql, final String[] columnNames) throws SQLException {
+    return st().executeUpdate(sql, columnNames);
+  }
+
+  @Override
+  public boolean execute(final String sql) throws SQLException {
+    return st().execute(sql);
+  }
+
+  @Override
+  public boolean execute(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return st().execute(sql, autoGeneratedKeys);
+  }
+
+  @Override
+  public boolean execute(final String sql, final int[] columnIndexes) throws SQLException {
+    return st().execute(sql, columnIndexes);
+  }
+
+  @Override
+  public boolean execute(final String sql, final String[] columnNames) throws SQLException {
+    return st().execute(sql, columnNames);
+  }
+
+  @Override
+  public void addBatch(final String sql) throws SQLException {
+    st().addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    st().clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    return st().executeBatch();
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return st().getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(final int max) throws SQLException {
+    st().setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return st().getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(final int max) throws SQLException {
+    st().setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(final boolean enable) throws SQLException {
+    st().setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return st().getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(final int seconds) throws SQLException {
+    st().setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    st().cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return st().getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    st().clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(final String name) throws SQLException {
+    st().setCursorName(name);
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return st().getResultSet();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return st().getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return st().getMoreResults();
+  }
+
+  @Override
+  public boolean getMoreResults(final int current) throws SQLException {
+    return st().getMoreResults(current);
+  }
+
+  @Override
+  public void setFetchDirection(final int direction) throws SQLException {
+    st().setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return st().getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(final int rows) throws SQLException {
+    st().setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return st().getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return st().getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return st().getResultSetType();
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return st().getResultSetHoldability();
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return st().getGeneratedKeys();
+  }
+
+  @Override
+  public void setPoolable(final boolean poolable) throws SQLException {
+    st().setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return st().isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    st().closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return st().isCloseOnCompletion();
+  }
+
+  @Override
+  public <T> T unwrap(final Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    return st().unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || st().isWrapperFor(iface);
+  }
+}
@@ -1,27 +1,27 @@
 package com.surelogic.common.derby;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.Callable;
 
 import org.apache.derby.impl.jdbc.EmbedConnection;
 
 import com.surelogic.common.jdbc.CancellableConnection;
 
 /**
- * LazyPreparedStatementConnection proxies Connection and supplies slightly
+ * LazyPreparedStatementConnection wraps a Connection and supplies slightly
  * different (but still valid) behavior than a normal Connection. Essentially, a
  * PreparedStatement is not actually created until someone attempts to invoke a
  * method on it. In addition, all PreparedStatement objects that have not
  * already been closed are closed when a Connection is closed.
+ * <p>
+ * Calls on the connection and on its statements are forwarded directly, not
+ * through reflection, as they are made in the inner loops of many queries.
  */
-public final class LazyPreparedStatementConnection implements InvocationHandler {
+public final class LazyPreparedStatementConnection extends DelegatingConnection {
 
   final Connection conn;
   final Set<PreparedStatement> statements;
@@ -32,86 +32,100 @@ public final class LazyPreparedStatementConnection implements InvocationHandler
   }
 
   public static CancellableConnection wrap(final Connection conn) {
-    return (CancellableConnection) Proxy.newProxyInstance(CancellableConnection.class.getClassLoader(),
-        new Class[] { CancellableConnection.class }, new LazyPreparedStatementConnection(conn));
+    return new LazyPreparedStatementConnection(conn);
   }
 
   @Override
-  public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
-    if ("prepareStatement".equals(method.getName())) {
-      return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class[] { PreparedStatement.class },
-          new LazyPreparedStatement(method, args));
-    } else if ("close".equals(method.getName())) {
-      for (final PreparedStatement st : statements) {
-        st.close();
+  protected Connection delegate() {
+    return conn;
+  }
+
+  /**
+   * Called when a lazy statement is actually prepared.
+   */
+  void prepared(final PreparedStatement st) {
+    statements.add(st);
+  }
+
+  /**
+   * Called when a prepared lazy statement is closed.
+   */
+  void closed(final PreparedStatement st) {
+    statements.remove(st);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql);
       }
-    } else if ("cancelRunningStatement".equals(method.getName())) {
-      ((EmbedConnection) conn).cancelRunningStatement();
-      return null;
-    }
-    try {
-      return method.invoke(conn, args);
-    } catch (final InvocationTargetException e) {
-      final Throwable target = e.getTargetException();
-      if (target instanceof Exception) {
-        throw (Exception) target;
-      } else {
-        throw e;
+    };
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, resultSetType, resultSetConcurrency);
       }
-    }
+    };
   }
 
-  private class LazyPreparedStatement implements InvocationHandler {
-
-    private final Callable<PreparedStatement> init;
-    private PreparedStatement st;
-
-    public LazyPreparedStatement(final Method method, final Object... args) {
-      init = new Callable<PreparedStatement>() {
-
-        @Override
-        public PreparedStatement call() throws Exception {
-          try {
-            final PreparedStatement st = (PreparedStatement) method.invoke(conn, args);
-            statements.add(st);
-            return st;
-          } catch (final InvocationTargetException e) {
-            final Throwable target = e.getTargetException();
-            if (target instanceof Exception) {
-              throw (Exception) target;
-            } else {
-              throw e;
-            }
-          }
-        }
-
-      };
-    }
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency,
+      final int resultSetHoldability) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+      }
+    };
+  }
 
-    void check() throws Exception {
-      if (st == null) {
-        st = init.call();
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, autoGeneratedKeys);
       }
-    }
+    };
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, columnIndexes);
+      }
+    };
+  }
 
-    @Override
-    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
-      check();
-      try {
-        final Object val = method.invoke(st, args);
-        if ("close".equals(method.getName())) {
-          statements.remove(st);
-        }
-        return val;
-      } catch (final InvocationTargetException e) {
-        final Throwable target = e.getTargetException();
-        if (target instanceof Exception) {
-          throw (Exception) target;
-        } else {
-          throw e;
-        }
+  @Override
+  public PreparedStatement prepareStatement(final String sql, final String[] columnNames) {
+    return new LazyPreparedStatement(this) {
+      @Override
+      PreparedStatement prepare(Connection conn) throws SQLException {
+        return conn.prepareStatement(sql, columnNames);
       }
+    };
+  }
+
+  @Override
+  public void close() throws SQLException {
+    for (final PreparedStatement st : new ArrayList<>(statements)) {
+      st.close();
     }
+    statements.clear();
+    conn.close();
+  }
 
+  @Override
+  public void cancelRunningStatement() {
+    ((EmbedConnection) conn).cancelRunningStatement();
   }
 }
@@ -1,8 +1,5 @@
 package com.surelogic.common.derby.sqlfunctions;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -26,6 +23,7 @@ import com.surelogic.common.jdbc.Row;
 import com.surelogic.common.jdbc.RowHandler;
 import com.surelogic.common.jdbc.SingleRowHandler;
 import com.surelogic.common.jdbc.StringResultHandler;
+import com.surelogic.flashlight.common.AccessSummaryTable;
 import com.surelogic.flashlight.common.HappensBeforeAnalysis;
 import com.surelogic.flashlight.common.HappensBeforeAnalysis.HBEdge;
 import com.surelogic.flashlight.common.InstanceAccessesResultSet;
@@ -46,7 +44,7 @@ public final class Functions {
         // No instance
     }
 
-    private static class MergedTraceResultSet implements InvocationHandler {
+    private static class MergedTraceResultSet extends StreamingResultSet {
         private final Iterator<MergedTrace> traces;
         private MergedTrace trace;
 
@@ -55,41 +53,36 @@ public final class Functions {
         }
 
         static ResultSet create(final List<MergedTrace> traces) {
-            return (ResultSet) Proxy.newProxyInstance(ResultSet.class
-                    .getClassLoader(), new Class[] { ResultSet.class },
-                    new MergedTraceResultSet(traces));
+            return new MergedTraceResultSet(traces);
         }
 
         @Override
-        public Object invoke(final Object proxy, final Method method,
-                final Object[] args) throws Throwable {
-            final String methodName = method.getName();
-            if ("next".equals(methodName)) {
-                if (traces.hasNext()) {
-                    trace = traces.next();
-                    return true;
-                } else {
-                    return false;
-                }
-            } else if ("close".equals(methodName)) {
-                while (traces.hasNext()) {
-                    traces.next();
-                }
-                trace = null;
-                return null;
-            } else if (methodName.startsWith("get") && args != null) {
-                return trace.get((Integer) args[0]);
-            } else if (methodName.equals("getWarnings")) {
-                return null;
-            } else if (methodName.equals("wasNull")) {
-                return trace.wasNull();
+        public boolean next() {
+            if (traces.hasNext()) {
+                trace = traces.next();
+                return true;
+            } else {
+                return false;
             }
-            throw new UnsupportedOperationException(method.getName());
         }
 
+        @Override
+        protected void closeStream() {
+            trace = null;
+        }
+
+        @Override
+        protected Object getColumn(final int col) {
+            return trace.get(col);
+        }
+
+        @Override
+        public boolean wasNull() {
+            return trace.wasNull();
+        }
     }
 
-    private static class TraceResultSet implements InvocationHandler {
+    private static class TraceResultSet extends StreamingResultSet {
         private final Iterator<Trace> traces;
         private Trace trace;
 
@@ -98,41 +91,36 @@ public final class Functions {
         }
 
         static ResultSet create(final List<Trace> traces) {
-            return (ResultSet) Proxy
-                    .newProxyInstance(ResultSet.class.getClassLoader(),
-                            new Class[] { ResultSet.class },
-                            new TraceResultSet(traces));
+            return new TraceResultSet(traces);
         }
 
         @Override
-        public Object invoke(final Object proxy, final Method method,
-                final Object[] args) throws Throwable {
-            final String methodName = method.getName();
-            if ("next".equals(methodName)) {
-                if (traces.hasNext()) {
-                    trace = traces.next();
-                    return true;
-                } else {
-                    return false;
-                }
-            } else if ("close".equals(methodName)) {
-                while (traces.hasNext()) {
-                    traces.next();
-                }
-                trace = null;
-                return null;
-            } else if (methodName.startsWith("get") && args != null) {
-                return trace.get((Integer) args[0]);
-            } else if (methodName.equals("getWarnings")) {
-                return null;
-            } else if (methodName.equals("wasNull")) {
-                return trace.wasNull();
+        public boolean next() {
+            if (traces.hasNext()) {
+                trace = traces.next();
+                return true;
+            } else {
+                return false;
             }
-            throw new UnsupportedOperationException(method.getName());
+        }
+
+        @Override
+        protected void closeStream() {
+            trace = null;
+        }
+
+        @Override
+        protected Object getColumn(final int col) {
+            return trace.get(col);
+        }
+
+        @Override
+        public boolean wasNull() {
+            return trace.wasNull();
         }
     }
 
-    private static class LockTraceResultSet implements InvocationHandler {
+    private static class LockTraceResultSet extends StreamingResultSet {
         private final Iterator<LockTrace> traces;
         private LockTrace trace;
 
@@ -141,36 +129,27 @@ public final class Functions {
         }
 
         static ResultSet create(final List<LockTrace> traces) {
-            return (ResultSet) Proxy.newProxyInstance(ResultSet.class
-                    .getClassLoader(), new Class[] { ResultSet.class },
-                    new LockTraceResultSet(traces));
+            return new LockTraceResultSet(traces);
         }
 
         @Override
-        public Object invoke(final Object proxy, final Method method,
-                final Object[] args) throws Throwable {
-            final String methodName = method.getName();
-            if ("next".equals(methodName)) {
-                if (traces.hasNext()) {
-                    trace = traces.next();
-                    return true;
-                } else {
-                    return false;
-                }
-            } else if ("close".equals(methodName)) {
-                while (traces.hasNext()) {
-                    traces.next();
-                }
-                trace = null;
-                return null;
-            } else if (methodName.startsWith("get") && args != null) {
-                return trace.get((Integer) args[0]);
-            } else if (methodName.equals("getWarnings")) {
-                return null;
-            } else if (methodName.startsWith("wasNull")) {
+        public boolean next() {
+            if (traces.hasNext()) {
+                trace = traces.next();
+                return true;
+            } else {
                 return false;
             }
-            throw new UnsupportedOperationException(method.getName());
+        }
+
+        @Override
+        protected void closeStream() {
+            trace = null;
+        }
+
+        @Override
+        protected Object getColumn(final int col) {
+            return trace.get(col);
         }
     }
 
@@ -457,6 +436,10 @@ public final class Functions {
             // the result sets open when we return from this block.
             Connection conn = DefaultConnection.getInstance()
                     .readOnlyConnection();
+            if (AccessSummaryTable.isAvailable(conn)
+                    && AccessSummaryTable.isSummarized(conn, fieldId)) {
+                return AccessSummaryTable.selectForStaticField(conn, fieldId);
+            }
             return RollupAccessesResultSet.createForStaticField(conn, fieldId);
         } catch (SQLException e) {
             throw new IllegalStateException(e);
@@ -470,6 +453,12 @@ public final class Functions {
             // the result sets open when we return from this block.
             Connection conn = DefaultConnection.getInstance()
                     .readOnlyConnection();
+            if (AccessSummaryTable.isAvailable(conn)
+                    && AccessSummaryTable.isSummarized(conn, fieldId,
+                            receiverId)) {
+                return AccessSummaryTable.selectForField(conn, fieldId,
+                        receiverId);
+            }
             return RollupAccessesResultSet.createForField(conn, fieldId,
                     receiverId);
         } catch (SQLException e) {
@@ -517,7 +506,7 @@ public final class Functions {
                 });
     }
 
-    static class HBEdgeResultSet implements InvocationHandler {
+    static class HBEdgeResultSet extends StreamingResultSet {
         private Iterator<HBEdge> edges;
         HBEdge edge;
 
@@ -526,35 +515,33 @@ public final class Functions {
         }
 
         static ResultSet create(List<HBEdge> edges) {
-            return (ResultSet) Proxy
-                    .newProxyInstance(ResultSet.class.getClassLoader(),
-                            new Class[] { ResultSet.class },
-                            new HBEdgeResultSet(edges));
+            return new HBEdgeResultSet(edges);
         }
 
         @Override
-        public Object invoke(Object proxy, Method method, Object[] args)
-                throws Throwable {
-            final String methodName = method.getName();
-            if ("next".equals(methodName)) {
-                if (edges.hasNext()) {
-                    edge = edges.next();
-                    return true;
-                } else {
-                    return false;
-                }
-            } else if ("close".equals(methodName)) {
-                edges = null;
-                edge = null;
-                return null;
-            } else if (methodName.startsWith("get") && args != null) {
-                return edge.get((Integer) args[0]);
-            } else if (methodName.equals("getWarnings")) {
-                return null;
-            } else if (methodName.equals("wasNull")) {
-                return edge.wasNull();
+        public boolean next() {
+            if (edges.hasNext()) {
+                edge = edges.next();
+                return true;
+            } else {
+                return false;
             }
-            throw new UnsupportedOperationException(method.getName());
+        }
+
+        @Override
+        protected void closeStream() {
+            edges = null;
+            edge = null;
+        }
+
+        @Override
+        protected Object getColumn(int col) {
+            return edge.get(col);
+        }
+
+        @Override
+        public boolean wasNull() {
+            return edge.wasNull();
         }
     }
 
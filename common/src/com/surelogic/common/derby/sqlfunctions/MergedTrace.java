@@ -53,7 +53,7 @@ public class MergedTrace {
                 && loc.equals(t.loc) && line == t.line;
     }
 
-    public Object wasNull() {
+    public boolean wasNull() {
         return wasNull;
     }
 
@@ -0,0 +1,123 @@
+package com.surelogic.common.derby.sqlfunctions;
+
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Timestamp;
+
+import org.apache.derby.vti.VTITemplate;
+
+/**
+ * A base class for the forward-only result sets returned by our Derby table
+ * functions. Derby calls {@link #next()} once per row and then the typed
+ * getter that matches each declared column type, so those calls are
+ * dispatched directly rather than through a {@link java.lang.reflect.Proxy}.
+ * <p>
+ * Subclasses implement {@link #next()} and {@link #getColumn(int)}, and may
+ * override the typed getters for the columns Derby reads most often to avoid
+ * boxing. The typed getters defined here convert the value returned by
+ * {@link #getColumn(int)}, and all record whether the value was
+ * <code>null</code> for {@link #wasNull()}.
+ */
+public abstract class StreamingResultSet extends VTITemplate {
+
+  private boolean wasNull;
+  private boolean closed;
+
+  /**
+   * Returns the value of a column of the current row.
+   *
+   * @param col
+   *          the column, starting at 1
+   * @return the value, or <code>null</code>
+   * @throws SQLException
+   *           if the column is not valid
+   */
+  protected abstract Object getColumn(int col) throws SQLException;
+
+  /**
+   * Releases any resources held by this result set. Called once, by the first
+   * call to {@link #close()}.
+   */
+  protected void closeStream() throws SQLException {
+    // Nothing to do by default
+  }
+
+  protected final SQLException invalidColumn(int col) {
+    return new SQLException(col + " is not a valid column.");
+  }
+
+  /*
+   * Used by subclasses to return a value from a typed getter.
+   */
+
+  protected final long longValue(long value) {
+    wasNull = false;
+    return value;
+  }
+
+  protected final int intValue(int value) {
+    wasNull = false;
+    return value;
+  }
+
+  protected final <T> T value(T value) {
+    wasNull = value == null;
+    return value;
+  }
+
+  @Override
+  public final void close() throws SQLException {
+    if (!closed) {
+      closed = true;
+      closeStream();
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return closed;
+  }
+
+  @Override
+  public boolean wasNull() throws SQLException {
+    return wasNull;
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return null;
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    // We never have any
+  }
+
+  @Override
+  public Object getObject(int col) throws SQLException {
+    return value(getColumn(col));
+  }
+
+  @Override
+  public String getString(int col) throws SQLException {
+    final Object o = value(getColumn(col));
+    return o == null ? null : o.toString();
+  }
+
+  @Override
+  public long getLong(int col) throws SQLException {
+    final Object o = value(getColumn(col));
+    return o == null ? 0 : ((Number) o).longValue();
+  }
+
+  @Override
+  public int getInt(int col) throws SQLException {
+    final Object o = value(getColumn(col));
+    return o == null ? 0 : ((Number) o).intValue();
+  }
+
+  @Override
+  public Timestamp getTimestamp(int col) throws SQLException {
+    return (Timestamp) value(getColumn(col));
+  }
+}
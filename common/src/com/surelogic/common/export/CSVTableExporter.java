@@ -5,30 +5,39 @@ import java.io.PrintWriter;
 
 final class CSVTableExporter extends TextFileTableExporer {
 
+	private final StringBuilder b = new StringBuilder();
+
 	CSVTableExporter(ExportTableDataSource from, File to) {
 		super(from, to);
 	}
 
 	@Override
-	protected void export(PrintWriter to) throws Exception {
-    final StringBuilder b = new StringBuilder();
-		for (String[] row : getSource()) {
-			boolean first = true;
-			for (String item : row) {
-				if (first) {
-					first = false;
-				} else {
-					b.append(',');
-				}
-				/*
-				 * We just quote everything to be safe. Also in CSV you put ""
-				 * to represent a double quote within a quoted item.
-				 */
-				b.append('"').append(doubleQuote(item)).append('"');
+	protected void writeHeader(PrintWriter to, String[] columnNames) {
+		writeRow(to, columnNames);
+	}
+
+	@Override
+	protected void writeRow(PrintWriter to, String[] row) {
+		boolean first = true;
+		for (String item : row) {
+			if (first) {
+				first = false;
+			} else {
+				b.append(',');
 			}
-			to.println(b.toString());
-			b.setLength(0);
+			/*
+			 * We just quote everything to be safe. Also in CSV you put ""
+			 * to represent a double quote within a quoted item.
+			 */
+			b.append('"').append(doubleQuote(item)).append('"');
 		}
+		to.println(b);
+		b.setLength(0);
+	}
+
+	@Override
+	protected void writeFooter(PrintWriter to) {
+		// Do nothing
 	}
 
 	private static String doubleQuote(final String s) {
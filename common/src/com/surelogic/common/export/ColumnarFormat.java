@@ -0,0 +1,130 @@
+package com.surelogic.common.export;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.Types;
+
+/**
+ * Constants and helpers shared by {@link ColumnarTableExporter}, which writes
+ * the columnar export format, and {@link ColumnarTableDataSource}, which reads
+ * it. The layout of a file is:
+ *
+ * <pre>
+ * magic        4 bytes, "SLC1"
+ * columnCount  int
+ * per column   label (modified UTF-8), type byte
+ * row groups   rowCount int (&gt; 0), then per column a chunk:
+ *                encoding byte, raw length int, compressed length int,
+ *                deflate compressed bytes
+ * end          rowCount int of 0
+ * </pre>
+ *
+ * The type of a column, taken from the JDBC metadata of the data source, is
+ * {@link #TYPE_STRING}, {@link #TYPE_LONG}, or {@link #TYPE_DOUBLE}. Each
+ * chunk is encoded on its own, so a chunk of a numeric column with a value
+ * that does not read back exactly as a number is written as strings. Numeric
+ * chunks start with a bitmap, one bit per row, of the rows whose value is the
+ * empty string, i.e., an SQL <tt>NULL</tt>. Integers are written as zigzag
+ * variable length deltas from the previous value in the chunk.
+ */
+final class ColumnarFormat {
+
+	static final byte[] MAGIC = { 'S', 'L', 'C', '1' };
+
+	static final byte TYPE_STRING = 0;
+	static final byte TYPE_LONG = 1;
+	static final byte TYPE_DOUBLE = 2;
+
+	/**
+	 * Each value as a variable length byte count followed by its UTF-8 bytes.
+	 */
+	static final byte ENCODING_PLAIN = 0;
+
+	/**
+	 * A variable length count of distinct values, each written as by
+	 * {@link #ENCODING_PLAIN}, followed by a variable length index into them
+	 * for each row.
+	 */
+	static final byte ENCODING_DICTIONARY = 1;
+
+	/**
+	 * A null bitmap followed by zigzag variable length deltas.
+	 */
+	static final byte ENCODING_LONG_DELTA = 2;
+
+	/**
+	 * A null bitmap followed by eight bytes for each value.
+	 */
+	static final byte ENCODING_DOUBLE = 3;
+
+	/**
+	 * The number of rows held in memory and written together as a row group.
+	 */
+	static final int ROW_GROUP_SIZE = 10000;
+
+	/**
+	 * Maps a type from {@link Types} to the type of a column.
+	 */
+	static byte toColumnType(int sqlType) {
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return TYPE_LONG;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return TYPE_DOUBLE;
+		default:
+			return TYPE_STRING;
+		}
+	}
+
+	/**
+	 * Maps the type of a column to a type from {@link Types}.
+	 */
+	static int toSqlType(byte columnType) {
+		switch (columnType) {
+		case TYPE_LONG:
+			return Types.BIGINT;
+		case TYPE_DOUBLE:
+			return Types.DOUBLE;
+		default:
+			return Types.VARCHAR;
+		}
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final byte b = in.readByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed variable length integer");
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private ColumnarFormat() {
+		// no instances
+	}
+}
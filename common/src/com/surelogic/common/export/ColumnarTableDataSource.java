@@ -0,0 +1,216 @@
+package com.surelogic.common.export;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.surelogic.common.i18n.I18N;
+
+/**
+ * A table data source that reads a file written by
+ * {@link ExportFactory#asColumnar(ExportTableDataSource, File)}, so that it
+ * can be exported again in another format. One row group is held in memory at
+ * a time. SQL <tt>NULL</tt> values are read as the empty string.
+ *
+ * @see ColumnarFormat
+ */
+public class ColumnarTableDataSource extends ExportTableDataSource {
+
+	private final File f_file;
+
+	private DataInputStream f_in;
+	private Inflater f_inflater;
+	private int[] f_columnTypes;
+	private String[][] f_group;
+	private int f_groupRows;
+	private int f_nextRow;
+
+	/**
+	 * Constructs a table data source for a columnar export file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 */
+	public ColumnarTableDataSource(File file) {
+		if (file == null)
+			throw new IllegalArgumentException(I18N.err(44, "file"));
+		f_file = file;
+	}
+
+	@Override
+	protected String[] init() {
+		try {
+			f_in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(f_file), ExportFactory.BUFFER_SIZE));
+			f_inflater = new Inflater();
+			final byte[] magic = new byte[ColumnarFormat.MAGIC.length];
+			f_in.readFully(magic);
+			if (!Arrays.equals(magic, ColumnarFormat.MAGIC)) {
+				throw new IOException(I18N.err(376, f_file.getAbsolutePath()));
+			}
+			final int columnCount = f_in.readInt();
+			final String[] result = new String[columnCount];
+			f_columnTypes = new int[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				result[i] = f_in.readUTF();
+				f_columnTypes[i] = ColumnarFormat.toSqlType(f_in.readByte());
+			}
+			f_group = new String[columnCount][];
+			readRowGroup();
+			return result;
+		} catch (IOException | DataFormatException e) {
+			destroy();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	protected int[] getColumnTypes() {
+		return f_columnTypes;
+	}
+
+	@Override
+	protected boolean hasNextRow() {
+		return f_nextRow < f_groupRows;
+	}
+
+	@Override
+	protected String[] nextRow() throws NoSuchElementException {
+		if (f_nextRow >= f_groupRows) {
+			throw new NoSuchElementException();
+		}
+		final String[] result = new String[f_group.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = f_group[i][f_nextRow];
+		}
+		if (++f_nextRow == f_groupRows) {
+			try {
+				readRowGroup();
+			} catch (IOException | DataFormatException e) {
+				destroy();
+				throw new IllegalStateException(e);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	protected void destroy() {
+		try {
+			if (f_in != null) {
+				f_in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			if (f_inflater != null) {
+				f_inflater.end();
+			}
+			f_in = null;
+			f_inflater = null;
+			f_group = null;
+			f_groupRows = 0;
+			f_nextRow = 0;
+		}
+	}
+
+	/**
+	 * Reads the next row group, leaving no rows if the end of the file has
+	 * been reached.
+	 */
+	private void readRowGroup() throws IOException, DataFormatException {
+		f_nextRow = 0;
+		f_groupRows = f_in.readInt();
+		for (int i = 0; i < f_group.length && f_groupRows > 0; i++) {
+			final byte encoding = f_in.readByte();
+			final byte[] raw = new byte[f_in.readInt()];
+			final byte[] compressed = new byte[f_in.readInt()];
+			f_in.readFully(compressed);
+			f_inflater.reset();
+			f_inflater.setInput(compressed);
+			int length = 0;
+			while (length < raw.length) {
+				final int inflated = f_inflater.inflate(raw, length, raw.length
+						- length);
+				if (inflated == 0
+						&& (f_inflater.finished() || f_inflater.needsInput())) {
+					throw new IOException(I18N.err(376,
+							f_file.getAbsolutePath()));
+				}
+				length += inflated;
+			}
+			f_group[i] = decode(encoding, new DataInputStream(
+					new ByteArrayInputStream(raw)));
+		}
+	}
+
+	private String[] decode(byte encoding, DataInputStream in)
+			throws IOException {
+		final String[] result = new String[f_groupRows];
+		switch (encoding) {
+		case ColumnarFormat.ENCODING_PLAIN:
+			for (int i = 0; i < f_groupRows; i++) {
+				result[i] = readString(in);
+			}
+			break;
+		case ColumnarFormat.ENCODING_DICTIONARY:
+			final String[] distinct = new String[(int) ColumnarFormat
+					.readVarLong(in)];
+			for (int i = 0; i < distinct.length; i++) {
+				distinct[i] = readString(in);
+			}
+			for (int i = 0; i < f_groupRows; i++) {
+				result[i] = distinct[(int) ColumnarFormat.readVarLong(in)];
+			}
+			break;
+		case ColumnarFormat.ENCODING_LONG_DELTA:
+			final boolean[] longNulls = readNullBitmap(in);
+			long previous = 0;
+			for (int i = 0; i < f_groupRows; i++) {
+				if (longNulls[i]) {
+					result[i] = "";
+				} else {
+					previous += ColumnarFormat.unzigzag(ColumnarFormat
+							.readVarLong(in));
+					result[i] = Long.toString(previous);
+				}
+			}
+			break;
+		case ColumnarFormat.ENCODING_DOUBLE:
+			final boolean[] doubleNulls = readNullBitmap(in);
+			for (int i = 0; i < f_groupRows; i++) {
+				result[i] = doubleNulls[i] ? "" : Double.toString(in
+						.readDouble());
+			}
+			break;
+		default:
+			throw new IOException(I18N.err(376, f_file.getAbsolutePath()));
+		}
+		return result;
+	}
+
+	private boolean[] readNullBitmap(DataInputStream in) throws IOException {
+		final boolean[] result = new boolean[f_groupRows];
+		for (int i = 0; i < f_groupRows; i += 8) {
+			final int b = in.readUnsignedByte();
+			for (int bit = 0; bit < 8 && i + bit < f_groupRows; bit++) {
+				result[i + bit] = (b & 1 << bit) != 0;
+			}
+		}
+		return result;
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		final byte[] bytes = new byte[(int) ColumnarFormat.readVarLong(in)];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,292 @@
+package com.surelogic.common.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+import com.surelogic.common.jobs.SLProgressMonitor;
+
+/**
+ * Exports a table to a compressed, typed, columnar binary file. Rows are
+ * gathered into row groups of {@link ColumnarFormat#ROW_GROUP_SIZE} rows and
+ * each column of a row group is encoded and compressed on its own, so the
+ * table is written in bounded memory. The file can be read back with a
+ * {@link ColumnarTableDataSource}.
+ *
+ * @see ColumnarFormat
+ */
+final class ColumnarTableExporter extends FileTableExporter {
+
+	/**
+	 * The number of rows written between checks of the progress monitor.
+	 */
+	private static final int ROWS_PER_CHECK = 1000;
+
+	private final ByteArrayOutputStream f_raw = new ByteArrayOutputStream();
+	private final DataOutputStream f_rawOut = new DataOutputStream(f_raw);
+	private byte[] f_compressed = new byte[64 * 1024];
+
+	ColumnarTableExporter(ExportTableDataSource from, File to) {
+		super(from, to);
+	}
+
+	@Override
+	public void export() throws Exception {
+		export(new NullSLProgressMonitor());
+	}
+
+	@Override
+	public void export(SLProgressMonitor monitor) throws Exception {
+		final File file = getExportFile();
+		final DataOutputStream to = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file),
+						ExportFactory.BUFFER_SIZE));
+		final Iterator<String[]> rows = getSource().iterator();
+		final Deflater deflater = new Deflater();
+		boolean sourceOpen = false;
+		boolean completed = false;
+		try {
+			monitor.begin();
+			final String[] columnNames = rows.next();
+			sourceOpen = true;
+			final byte[] types = getColumnTypes(columnNames.length);
+			to.write(ColumnarFormat.MAGIC);
+			to.writeInt(columnNames.length);
+			for (int i = 0; i < columnNames.length; i++) {
+				to.writeUTF(columnNames[i]);
+				to.writeByte(types[i]);
+			}
+			final String[][] group = new String[columnNames.length][ColumnarFormat.ROW_GROUP_SIZE];
+			int groupRows = 0;
+			int count = 0;
+			while (true) {
+				if (!rows.hasNext()) {
+					sourceOpen = false;
+					break;
+				}
+				if (++count % ROWS_PER_CHECK == 0) {
+					if (monitor.isCanceled()) {
+						break;
+					}
+					monitor.worked(1);
+				}
+				final String[] row = rows.next();
+				for (int i = 0; i < group.length; i++) {
+					group[i][groupRows] = row[i];
+				}
+				if (++groupRows == ColumnarFormat.ROW_GROUP_SIZE) {
+					writeRowGroup(to, deflater, types, group, groupRows);
+					groupRows = 0;
+				}
+			}
+			if (!sourceOpen) {
+				if (groupRows > 0) {
+					writeRowGroup(to, deflater, types, group, groupRows);
+				}
+				to.writeInt(0);
+				completed = true;
+			}
+		} finally {
+			if (sourceOpen) {
+				// the source only cleans up when it is iterated to its end
+				getSource().destroy();
+			}
+			deflater.end();
+			to.close();
+			if (!completed) {
+				file.delete();
+			}
+			monitor.done();
+		}
+	}
+
+	private byte[] getColumnTypes(int columnCount) {
+		final byte[] result = new byte[columnCount];
+		final int[] sqlTypes = getSource().getColumnTypes();
+		if (sqlTypes != null) {
+			for (int i = 0; i < columnCount && i < sqlTypes.length; i++) {
+				result[i] = ColumnarFormat.toColumnType(sqlTypes[i]);
+			}
+		}
+		return result;
+	}
+
+	private void writeRowGroup(DataOutputStream to, Deflater deflater,
+			byte[] types, String[][] group, int rowCount) throws IOException {
+		to.writeInt(rowCount);
+		for (int i = 0; i < group.length; i++) {
+			f_raw.reset();
+			final byte encoding = encode(types[i], group[i], rowCount);
+			f_rawOut.flush();
+			final byte[] raw = f_raw.toByteArray();
+			deflater.reset();
+			deflater.setInput(raw);
+			deflater.finish();
+			int compressedLength = 0;
+			while (!deflater.finished()) {
+				if (compressedLength == f_compressed.length) {
+					final byte[] larger = new byte[f_compressed.length * 2];
+					System.arraycopy(f_compressed, 0, larger, 0,
+							compressedLength);
+					f_compressed = larger;
+				}
+				compressedLength += deflater.deflate(f_compressed,
+						compressedLength, f_compressed.length
+								- compressedLength);
+			}
+			to.writeByte(encoding);
+			to.writeInt(raw.length);
+			to.writeInt(compressedLength);
+			to.write(f_compressed, 0, compressedLength);
+		}
+	}
+
+	/**
+	 * Encodes one column of a row group into {@link #f_rawOut}.
+	 *
+	 * @return the encoding used.
+	 */
+	private byte encode(byte type, String[] values, int rowCount)
+			throws IOException {
+		if (type == ColumnarFormat.TYPE_LONG && encodeLongs(values, rowCount)) {
+			return ColumnarFormat.ENCODING_LONG_DELTA;
+		}
+		if (type == ColumnarFormat.TYPE_DOUBLE
+				&& encodeDoubles(values, rowCount)) {
+			return ColumnarFormat.ENCODING_DOUBLE;
+		}
+		return encodeStrings(values, rowCount);
+	}
+
+	/**
+	 * Encodes the values as integers, unless one of them would not read back
+	 * as the same text.
+	 *
+	 * @return {@code true} if the values were encoded, {@code false} otherwise.
+	 */
+	private boolean encodeLongs(String[] values, int rowCount)
+			throws IOException {
+		final long[] longs = new long[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			final String value = values[i];
+			if (value.length() > 0) {
+				try {
+					longs[i] = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+				if (!Long.toString(longs[i]).equals(value)) {
+					return false;
+				}
+			}
+		}
+		writeNullBitmap(values, rowCount);
+		long previous = 0;
+		for (int i = 0; i < rowCount; i++) {
+			if (values[i].length() > 0) {
+				ColumnarFormat.writeVarLong(f_rawOut,
+						ColumnarFormat.zigzag(longs[i] - previous));
+				previous = longs[i];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes the values as doubles, unless one of them would not read back
+	 * as the same text.
+	 *
+	 * @return {@code true} if the values were encoded, {@code false} otherwise.
+	 */
+	private boolean encodeDoubles(String[] values, int rowCount)
+			throws IOException {
+		final double[] doubles = new double[rowCount];
+		for (int i = 0; i < rowCount; i++) {
+			final String value = values[i];
+			if (value.length() > 0) {
+				try {
+					doubles[i] = Double.parseDouble(value);
+				} catch (NumberFormatException e) {
+					return false;
+				}
+				if (!Double.toString(doubles[i]).equals(value)) {
+					return false;
+				}
+			}
+		}
+		writeNullBitmap(values, rowCount);
+		for (int i = 0; i < rowCount; i++) {
+			if (values[i].length() > 0) {
+				f_rawOut.writeDouble(doubles[i]);
+			}
+		}
+		return true;
+	}
+
+	private void writeNullBitmap(String[] values, int rowCount)
+			throws IOException {
+		for (int i = 0; i < rowCount; i += 8) {
+			int b = 0;
+			for (int bit = 0; bit < 8 && i + bit < rowCount; bit++) {
+				if (values[i + bit].length() == 0) {
+					b |= 1 << bit;
+				}
+			}
+			f_rawOut.writeByte(b);
+		}
+	}
+
+	/**
+	 * Encodes the values as strings, using a dictionary if there are few
+	 * distinct values.
+	 *
+	 * @return the encoding used.
+	 */
+	private byte encodeStrings(String[] values, int rowCount)
+			throws IOException {
+		final int maxDistinct = rowCount / 2;
+		final Map<String, Integer> dictionary = new HashMap<>();
+		final int[] indexes = new int[rowCount];
+		for (int i = 0; i < rowCount && dictionary.size() <= maxDistinct; i++) {
+			Integer index = dictionary.get(values[i]);
+			if (index == null) {
+				index = dictionary.size();
+				dictionary.put(values[i], index);
+			}
+			indexes[i] = index;
+		}
+		if (dictionary.size() > maxDistinct) {
+			for (int i = 0; i < rowCount; i++) {
+				writeString(values[i]);
+			}
+			return ColumnarFormat.ENCODING_PLAIN;
+		}
+		final String[] distinct = new String[dictionary.size()];
+		for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+			distinct[entry.getValue()] = entry.getKey();
+		}
+		ColumnarFormat.writeVarLong(f_rawOut, distinct.length);
+		for (String value : distinct) {
+			writeString(value);
+		}
+		for (int i = 0; i < rowCount; i++) {
+			ColumnarFormat.writeVarLong(f_rawOut, indexes[i]);
+		}
+		return ColumnarFormat.ENCODING_DICTIONARY;
+	}
+
+	private void writeString(String value) throws IOException {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ColumnarFormat.writeVarLong(f_rawOut, bytes.length);
+		f_rawOut.write(bytes);
+	}
+}
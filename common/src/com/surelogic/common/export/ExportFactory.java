@@ -1,9 +1,33 @@
 package com.surelogic.common.export;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
 
 public final class ExportFactory {
 
+	/**
+	 * Files whose name ends with this suffix are written gzip compressed.
+	 */
+	public static final String GZIP_SUFFIX = ".gz";
+
+	/**
+	 * The suffix used for the name of a file written by
+	 * {@link #asColumnar(ExportTableDataSource, File)}.
+	 */
+	public static final String COLUMNAR_SUFFIX = ".slc";
+
+	/**
+	 * The size, in bytes, of the buffers used to write an export file.
+	 */
+	static final int BUFFER_SIZE = 64 * 1024;
+
 	public static ITableExporter asCSV(ExportTableDataSource from, File to) {
 		return new CSVTableExporter(from, to);
 	}
@@ -12,6 +36,45 @@ public final class ExportFactory {
 		return new HTMLTableExporter(from, to);
 	}
 
+	/**
+	 * Exports a table to a compressed, typed, columnar binary file. The types
+	 * of the columns are taken from {@link ExportTableDataSource#getColumnTypes()}.
+	 * The file can be read back with a {@link ColumnarTableDataSource}.
+	 */
+	public static ITableExporter asColumnar(ExportTableDataSource from, File to) {
+		return new ColumnarTableExporter(from, to);
+	}
+
+	/**
+	 * Opens a buffered writer on an export file. If the name of the file ends
+	 * with {@value #GZIP_SUFFIX} the file is written gzip compressed.
+	 * <p>
+	 * A {@link PrintWriter} does not throw {@link IOException}s, so callers
+	 * should check {@link PrintWriter#checkError()} once they are done
+	 * writing.
+	 * 
+	 * @param to
+	 *            the file to write.
+	 * @return a writer on the file.
+	 * @throws IOException
+	 *             if the file can't be opened.
+	 */
+	public static PrintWriter newWriter(File to) throws IOException {
+		OutputStream out = new FileOutputStream(to);
+		try {
+			if (to.getName().endsWith(GZIP_SUFFIX)) {
+				out = new GZIPOutputStream(out, BUFFER_SIZE);
+			} else {
+				out = new BufferedOutputStream(out, BUFFER_SIZE);
+			}
+		} catch (IOException e) {
+			out.close();
+			throw e;
+		}
+		return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out),
+				BUFFER_SIZE));
+	}
+
 	private ExportFactory() {
 		// no instances
 	}
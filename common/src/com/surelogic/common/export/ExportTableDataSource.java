@@ -61,6 +61,21 @@ public abstract class ExportTableDataSource implements Iterable<String[]> {
 	 */
 	protected abstract void destroy();
 
+	/**
+	 * Returns the type of each column, as defined by {@link java.sql.Types},
+	 * for exporters that write typed data. Columns of an unknown type, and all
+	 * columns if {@code null} is returned, are exported as text.
+	 * <p>
+	 * {@link #init()} will always be called before this method. By default
+	 * {@code null} is returned.
+	 * 
+	 * @return the type of each column, or {@code null} if the types are not
+	 *         known.
+	 */
+	protected int[] getColumnTypes() {
+		return null;
+	}
+
 	/**
 	 * Support for the <tt>foreach</tt> statement.
 	 */
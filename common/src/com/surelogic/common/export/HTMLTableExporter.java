@@ -10,29 +10,32 @@ final class HTMLTableExporter extends TextFileTableExporer {
 	}
 
 	@Override
-	protected void export(PrintWriter to) throws Exception {
+	protected void writeHeader(PrintWriter to, String[] columnNames) {
 		to.println("<table>");
-		boolean header = true;
-		for (String[] row : getSource()) {
-			final String col;
-			if (header) {
-				header = false;
-				col = "th";
-			} else {
-				col = "td";
-			}
-			to.print("<tr>");
-			for (String item : row) {
-				to.print("<");
-				to.print(col);
-				to.print(">");
-				textOrNBSP(item);
-				to.print("</");
-				to.print(col);
-				to.print(">");
-			}
-			to.print("</tr>");
+		writeRow(to, columnNames, "th");
+	}
+
+	@Override
+	protected void writeRow(PrintWriter to, String[] row) {
+		writeRow(to, row, "td");
+	}
+
+	private static void writeRow(PrintWriter to, String[] row, String col) {
+		to.print("<tr>");
+		for (String item : row) {
+			to.print("<");
+			to.print(col);
+			to.print(">");
+			textOrNBSP(item);
+			to.print("</");
+			to.print(col);
+			to.print(">");
 		}
+		to.print("</tr>");
+	}
+
+	@Override
+	protected void writeFooter(PrintWriter to) {
 		to.println("</table>");
 	}
 
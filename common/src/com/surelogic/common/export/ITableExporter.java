@@ -1,5 +1,7 @@
 package com.surelogic.common.export;
 
+import com.surelogic.common.jobs.SLProgressMonitor;
+
 /**
  * 
  */
@@ -9,4 +11,15 @@ public interface ITableExporter {
 	 * Exports the table data.
 	 */
 	void export() throws Exception;
+
+	/**
+	 * Exports the table data, reporting progress to the passed monitor. Rows
+	 * are written as they are read from the data source, so a table of any
+	 * size is exported in bounded memory. If the monitor is canceled the
+	 * export stops and the partially written file is deleted.
+	 * 
+	 * @param monitor
+	 *            a progress monitor.
+	 */
+	void export(SLProgressMonitor monitor) throws Exception;
 }
@@ -0,0 +1,167 @@
+package com.surelogic.common.export;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.NoSuchElementException;
+
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.DBConnection;
+
+/**
+ * A table data source that reads the rows of a query straight from a JDBC
+ * cursor, so that the rows of the table never have to be held in memory. The
+ * query is run again each time the table is iterated through.
+ * <p>
+ * SQL <tt>NULL</tt> values are exported as the empty string. By default every
+ * column of the query is exported under its label. The columns exported, and
+ * their labels, may instead be given, e.g., to leave out the hidden columns of
+ * an ad hoc query and the annotations on its labels.
+ */
+public class QueryTableDataSource extends ExportTableDataSource {
+
+	/**
+	 * The number of rows fetched from the database at a time.
+	 */
+	private static final int FETCH_SIZE = 500;
+
+	private final DBConnection f_db;
+	private final String f_sql;
+	private final String[] f_labels;
+	private final int[] f_columns;
+
+	private Connection f_connection;
+	private Statement f_statement;
+	private ResultSet f_rs;
+	private int[] f_columnIndexes;
+	private int[] f_columnTypes;
+	private boolean f_hasNext;
+
+	/**
+	 * Constructs a table data source for a query.
+	 * 
+	 * @param db
+	 *            the database to run the query on.
+	 * @param sql
+	 *            the SQL of the query.
+	 */
+	public QueryTableDataSource(DBConnection db, String sql) {
+		this(db, sql, null, null);
+	}
+
+	/**
+	 * Constructs a table data source for some of the columns of a query.
+	 * 
+	 * @param db
+	 *            the database to run the query on.
+	 * @param sql
+	 *            the SQL of the query.
+	 * @param labels
+	 *            the labels of the exported columns, or {@code null} to export
+	 *            all the columns of the query under their labels.
+	 * @param columns
+	 *            the zero-based index in the query of each exported column,
+	 *            the same length as <tt>labels</tt>, or {@code null} if
+	 *            <tt>labels</tt> is.
+	 */
+	public QueryTableDataSource(DBConnection db, String sql, String[] labels,
+			int[] columns) {
+		if (db == null)
+			throw new IllegalArgumentException(I18N.err(44, "db"));
+		if (sql == null)
+			throw new IllegalArgumentException(I18N.err(44, "sql"));
+		if ((labels == null) != (columns == null)
+				|| (labels != null && labels.length != columns.length))
+			throw new IllegalArgumentException(I18N.err(44, "columns"));
+		f_db = db;
+		f_sql = sql;
+		f_labels = labels;
+		f_columns = columns;
+	}
+
+	@Override
+	protected String[] init() {
+		try {
+			f_connection = f_db.readOnlyConnection();
+			f_statement = f_connection.createStatement();
+			f_statement.setFetchSize(FETCH_SIZE);
+			f_rs = f_statement.executeQuery(f_sql);
+			final ResultSetMetaData meta = f_rs.getMetaData();
+			final int columnCount = f_columns == null ? meta.getColumnCount()
+					: f_columns.length;
+			final String[] result = new String[columnCount];
+			f_columnIndexes = new int[columnCount];
+			f_columnTypes = new int[columnCount];
+			for (int i = 0; i < columnCount; i++) {
+				f_columnIndexes[i] = f_columns == null ? i + 1 : f_columns[i] + 1;
+				result[i] = f_labels == null ? meta
+						.getColumnLabel(f_columnIndexes[i]) : f_labels[i];
+				f_columnTypes[i] = meta.getColumnType(f_columnIndexes[i]);
+			}
+			f_hasNext = f_rs.next();
+			return result;
+		} catch (SQLException e) {
+			destroy();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	protected boolean hasNextRow() {
+		return f_hasNext;
+	}
+
+	@Override
+	protected String[] nextRow() throws NoSuchElementException {
+		if (!f_hasNext) {
+			throw new NoSuchElementException();
+		}
+		try {
+			final String[] result = new String[f_columnIndexes.length];
+			for (int i = 0; i < f_columnIndexes.length; i++) {
+				final String value = f_rs.getString(f_columnIndexes[i]);
+				result[i] = value == null ? "" : value;
+			}
+			f_hasNext = f_rs.next();
+			return result;
+		} catch (SQLException e) {
+			destroy();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	protected int[] getColumnTypes() {
+		return f_columnTypes;
+	}
+
+	@Override
+	protected void destroy() {
+		try {
+			try {
+				if (f_rs != null) {
+					f_rs.close();
+				}
+			} finally {
+				try {
+					if (f_statement != null) {
+						f_statement.close();
+					}
+				} finally {
+					if (f_connection != null) {
+						f_connection.close();
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			f_connection = null;
+			f_statement = null;
+			f_rs = null;
+			f_hasNext = false;
+		}
+	}
+}
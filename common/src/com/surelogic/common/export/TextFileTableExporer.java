@@ -1,23 +1,86 @@
 package com.surelogic.common.export;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Iterator;
+
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+import com.surelogic.common.jobs.SLProgressMonitor;
 
 abstract class TextFileTableExporer extends FileTableExporter {
 
+	/**
+	 * The number of rows written between checks of the progress monitor.
+	 */
+	private static final int ROWS_PER_CHECK = 1000;
+
 	protected TextFileTableExporer(ExportTableDataSource from, File to) {
 		super(from, to);
 	}
 
 	@Override
-  public final void export() throws Exception {
-		final PrintWriter to = new PrintWriter(getExportFile());
+	public final void export() throws Exception {
+		export(new NullSLProgressMonitor());
+	}
+
+	@Override
+	public final void export(SLProgressMonitor monitor) throws Exception {
+		final File file = getExportFile();
+		final PrintWriter to = ExportFactory.newWriter(file);
+		final Iterator<String[]> rows = getSource().iterator();
+		boolean sourceOpen = false;
+		boolean completed = false;
 		try {
-			export(to);
+			monitor.begin();
+			final String[] columnNames = rows.next();
+			sourceOpen = true;
+			writeHeader(to, columnNames);
+			int count = 0;
+			while (true) {
+				if (!rows.hasNext()) {
+					sourceOpen = false;
+					break;
+				}
+				if (++count % ROWS_PER_CHECK == 0) {
+					if (monitor.isCanceled()) {
+						break;
+					}
+					monitor.worked(1);
+				}
+				writeRow(to, rows.next());
+			}
+			writeFooter(to);
+			completed = !sourceOpen;
 		} finally {
+			if (sourceOpen) {
+				// the source only cleans up when it is iterated to its end
+				getSource().destroy();
+			}
 			to.close();
+			if (!completed) {
+				file.delete();
+			}
+			monitor.done();
+		}
+		if (to.checkError()) {
+			throw new IOException(I18N.err(375, file.getAbsolutePath()));
 		}
 	}
 
-	abstract protected void export(PrintWriter to) throws Exception;
+	/**
+	 * Writes the column names of the table.
+	 */
+	abstract protected void writeHeader(PrintWriter to, String[] columnNames);
+
+	/**
+	 * Writes one row of the table.
+	 */
+	abstract protected void writeRow(PrintWriter to, String[] row);
+
+	/**
+	 * Writes anything that follows the last row of the table.
+	 */
+	abstract protected void writeFooter(PrintWriter to);
 }
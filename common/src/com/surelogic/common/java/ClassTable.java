@@ -0,0 +1,189 @@
+package com.surelogic.common.java;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.Pair;
+
+/**
+ * Maps the qualified names of types to their files, for each of a set of
+ * projects. Types are grouped by package within each project, and the files of
+ * each package are kept in an open-addressed array that is searched by the
+ * qualified name each file already holds, so no key object is created for a
+ * type. The name of each package is interned when first seen and shared by
+ * all the projects of a table.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class ClassTable {
+
+  /**
+   * The files of one package of one project.
+   */
+  private static final class PackageFiles {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private IJavaFile[] f_files = new IJavaFile[INITIAL_CAPACITY];
+    private int f_size;
+
+    private int indexOf(final String qname) {
+      final int mask = f_files.length - 1;
+      int i = mix(qname.hashCode()) & mask;
+      while (true) {
+        final IJavaFile file = f_files[i];
+        if (file == null || file.getQualifiedName().equals(qname)) {
+          return i;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    IJavaFile get(final String qname) {
+      return f_files[indexOf(qname)];
+    }
+
+    /**
+     * @return the file previously mapped for the same name, or {@code null}.
+     */
+    IJavaFile put(final IJavaFile file, final boolean replace) {
+      final int i = indexOf(file.getQualifiedName());
+      final IJavaFile old = f_files[i];
+      if (old == null) {
+        f_files[i] = file;
+        if (++f_size * 4 > f_files.length * 3) {
+          grow();
+        }
+      } else if (replace) {
+        f_files[i] = file;
+      }
+      return old;
+    }
+
+    private void grow() {
+      final IJavaFile[] old = f_files;
+      f_files = new IJavaFile[old.length * 2];
+      for (final IJavaFile file : old) {
+        if (file != null) {
+          f_files[indexOf(file.getQualifiedName())] = file;
+        }
+      }
+    }
+  }
+
+  private static int mix(final int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Interned package names, shared by all projects.
+   */
+  private final Map<String, String> f_packageNames = new HashMap<>();
+
+  /**
+   * Project name &rarr; package name &rarr; files.
+   */
+  private final Map<String, Map<String, PackageFiles>> f_projects = new HashMap<>();
+
+  private int f_size;
+
+  private static String packageOf(final String qname) {
+    final int lastDot = qname.lastIndexOf('.');
+    return lastDot < 0 ? "" : qname.substring(0, lastDot);
+  }
+
+  /**
+   * Gets the file mapped for a type.
+   *
+   * @param project
+   *          the name of a project.
+   * @param qname
+   *          the qualified name of a type.
+   * @return the file mapped for the type in the project, or {@code null} if
+   *         none is.
+   */
+  @Nullable
+  IJavaFile get(final String project, final String qname) {
+    final Map<String, PackageFiles> packages = f_projects.get(project);
+    if (packages == null) {
+      return null;
+    }
+    final PackageFiles files = packages.get(packageOf(qname));
+    return files == null ? null : files.get(qname);
+  }
+
+  boolean contains(final String project, final String qname) {
+    return get(project, qname) != null;
+  }
+
+  /**
+   * Maps a file for its type.
+   *
+   * @param project
+   *          the name of a project.
+   * @param file
+   *          a file.
+   * @param replace
+   *          {@code true} if the file replaces any file already mapped for its
+   *          type, {@code false} if any file already mapped is kept.
+   * @return the file previously mapped for the type, or {@code null} if none
+   *         was.
+   */
+  @Nullable
+  IJavaFile put(final String project, @NonNull final IJavaFile file, final boolean replace) {
+    Map<String, PackageFiles> packages = f_projects.get(project);
+    if (packages == null) {
+      packages = new HashMap<>();
+      f_projects.put(project, packages);
+    }
+    final String pkg = packageOf(file.getQualifiedName());
+    PackageFiles files = packages.get(pkg);
+    if (files == null) {
+      String interned = f_packageNames.get(pkg);
+      if (interned == null) {
+        interned = pkg;
+        f_packageNames.put(pkg, pkg);
+      }
+      files = new PackageFiles();
+      packages.put(interned, files);
+    }
+    final IJavaFile old = files.put(file, replace);
+    if (old == null) {
+      f_size++;
+    }
+    return old;
+  }
+
+  /**
+   * Gets the number of types mapped, counting a type once for each project it
+   * is mapped in.
+   *
+   * @return the number of types mapped.
+   */
+  int size() {
+    return f_size;
+  }
+
+  /**
+   * Gets the project and qualified name of each type mapped.
+   *
+   * @return a new list of the project and qualified name of each type mapped.
+   */
+  @NonNull
+  List<Pair<String, String>> getKeys() {
+    final List<Pair<String, String>> result = new ArrayList<>(f_size);
+    for (final Map.Entry<String, Map<String, PackageFiles>> project : f_projects.entrySet()) {
+      for (final PackageFiles files : project.getValue().values()) {
+        for (final IJavaFile file : files.f_files) {
+          if (file != null) {
+            result.add(Pair.getInstance(project.getKey(), file.getQualifiedName()));
+          }
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -1,6 +1,7 @@
 package com.surelogic.common.java;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * TODO How to split this code?
@@ -14,5 +15,10 @@ public interface IJavacClassParser {
 	 */
 	boolean ensureInitialized(ISLJavaProject jp, Config config);
 	void map(String destProj, IJavaFile file);
+	/**
+	 * Gets the classes of a jar or directory on the classpath, scanning it
+	 * unless that was already done
+	 */
+	JarIndex getIndex(File jarOrDir) throws IOException;
 	File getRunDir();
 }
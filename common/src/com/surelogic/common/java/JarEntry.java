@@ -2,10 +2,11 @@ package com.surelogic.common.java;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.*;
+import java.util.logging.Level;
 import java.util.zip.*;
 
 import com.surelogic.common.*;
+import com.surelogic.common.logging.SLLogger;
 import com.surelogic.common.xml.XmlCreator;
 
 /**
@@ -80,7 +81,7 @@ public class JarEntry extends AbstractClassPathEntry {
 		}
     	if (path.exists()) {
     		if (path.isDirectory()) {
-    			initForJarDir(jp, loader, path, null);
+    			initForJarDir(jp, loader, path);
     		} 
     		else {
     			initForJar(jp, loader, path);
@@ -89,71 +90,47 @@ public class JarEntry extends AbstractClassPathEntry {
     	jp.mapJar(path, origPath);
 	}
 	
-	private void initForJarDir(ISLJavaProject jp, IJavacClassParser loader, File dir, String pkgPrefix) 
+	private void initForJarDir(ISLJavaProject jp, IJavacClassParser loader, File dir) 
 	throws IOException {
-		System.out.println("Scanning "+dir.getAbsolutePath());
-		int i=0;
-		for(File f : dir.listFiles()) {
-			boolean createdPkg = false;
-			if (f.isDirectory()) {
-				initForJarDir(jp, loader, f, pkgPrefix == null ? f.getName() : pkgPrefix+'.'+f.getName());
-			}
-			else if (f.getName().endsWith(".class")) {
-				final String name  = f.getName().substring(0, f.getName().length()-6).replace('$', '.');				
-				final String qname = pkgPrefix == null ? name : pkgPrefix+'.'+name;
-				loader.map(jp.getName(), new AbstractJavaBinaryFile(qname, f, project.getProject()) {
+		final JarIndex index = loader.getIndex(dir);
+		for (int i = 0; i < index.getPackageCount(); i++) {
+			final String pkg = index.getPackage(i);
+			final String prefix = pkg.length() == 0 ? "" : pkg + '.';
+			final File pkgDir = pkg.length() == 0 ? dir : new File(dir, pkg.replace('.', File.separatorChar));
+			for (String name : index.getClassNames(i)) {
+				final String qname = prefix + name.replace('$', '.');
+				loader.map(jp.getName(), new AbstractJavaBinaryFile(qname, new File(pkgDir, name + ".class"), project.getProject()) {
 					public Type getType() {
 						return Type.CLASS;
 					}					
 				});
-				if (!createdPkg) {
-					jp.addPackage(pkgPrefix == null ? "" : pkgPrefix, Config.Type.BINARY);
-				}
-				System.out.println("\tMapping "+qname);
-				i++;
-			}
-			else if (f.getName().endsWith(".jar")) {
-				initForJar(jp, loader, f);
 			}
+			jp.addPackage(pkg, Config.Type.BINARY);
+		}
+		for (File jar : index.getJars()) {
+			initForJar(jp, loader, jar);
 		}
-		if (i > 0) {
-			System.out.println("Mapped "+i+" classes in "+dir.getAbsolutePath());
+		if (index.getClassCount() > 0 && SLLogger.getLogger().isLoggable(Level.FINE)) {
+			SLLogger.getLogger().fine("Mapped "+index.getClassCount()+" classes in "+dir.getAbsolutePath());
 		}
 	}
 
 	private void initForJar(ISLJavaProject jp, IJavacClassParser loader, final File jar) 
 			throws IOException {
 		try {
-			//final String jarPath = jar.getAbsolutePath();
-			final ZipFile zf = new ZipFile(jar);    	
-			Enumeration<? extends ZipEntry> e = zf.entries();
-			while (e.hasMoreElements()) {
-				ZipEntry ze = e.nextElement();
-				String name = ze.getName();
-				if (name.endsWith(".class")) {    			
-					if (name.lastIndexOf('$') >= 0) {
-						// Skipping nested/local classes
-						continue;
-					}
-					String qname = convertClassToQname(name);
-					if (!SLUtility.isValidDotSeparatedJavaIdentifier(qname)) {
-						continue;
-					}
-					int lastDot  = qname.lastIndexOf('.');
-					String pkg   = lastDot < 0 ? "" : qname.substring(0, lastDot);
-					jp.addPackage(pkg, Config.Type.BINARY);
-					/*
-    			if (SLUtility.JAVA_LANG_OBJECT.equals(qname) || "java.lang.Enum".equals(qname)) {
-    				System.out.println(jp.getName()+": mapping "+qname+" to "+jar.getAbsolutePath());    			
-    			}
-					 */
+			final JarIndex index = loader.getIndex(jar);
+			for (int i = 0; i < index.getPackageCount(); i++) {
+				final String pkg = index.getPackage(i);
+				jp.addPackage(pkg, Config.Type.BINARY);
+				final String prefix = pkg.length() == 0 ? "" : pkg + '.';
+				for (String simpleName : index.getClassNames(i)) {
+					final String qname = prefix + simpleName;
+					final String name = qname.replace('.', '/') + ".class";
 					loader.map(jp.getName(), new JarredClassFile(qname, jar, project.getProject(), name));
 				}
 			}
-			System.out.println(jp.getName()+": Done initializing with "+jar+" : "+jar.length());
-			zf.close();
 		} catch(ZipException e) {
-			System.out.println("Zip exception with "+jar);
+			SLLogger.getLogger().log(Level.INFO, "Zip exception with "+jar, e);
 		}
 	}
 
@@ -0,0 +1,349 @@
+package com.surelogic.common.java;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.surelogic.NonNull;
+import com.surelogic.Nullable;
+import com.surelogic.common.SLUtility;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * The top-level classes of a jar, or the class files of a directory, grouped
+ * by package. Scanning a large jar, e.g., one from the JRE, means reading and
+ * checking hundreds of thousands of entry names, so the result of each scan of
+ * a jar is saved in an index file and read back by later scans. An index file
+ * records the path, size, and modification time of its jar and is rebuilt when
+ * any of them change.
+ * <p>
+ * Index files are kept in the directory named by the {@value #DIR_PROP} system
+ * property, by default a <tt>sl-jar-index</tt> directory within
+ * <tt>java.io.tmpdir</tt>. Setting the {@value #DISABLE_PROP} system property
+ * to <tt>true</tt> scans every jar instead.
+ * <p>
+ * Instances are immutable.
+ */
+public final class JarIndex {
+
+  public static final String DIR_PROP = "com.surelogic.common.java.jarIndexDir";
+  public static final String DISABLE_PROP = "com.surelogic.common.java.disableJarIndex";
+
+  static final boolean DISABLE = Boolean.getBoolean(DISABLE_PROP);
+
+  private static final int MAGIC = 0x534C4A49; // "SLJI"
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".idx";
+
+  /**
+   * Gets the index of a jar, reading it from its index file if that is up to
+   * date and scanning the jar, and saving the result, otherwise.
+   *
+   * @param jar
+   *          a jar file.
+   * @return the index of the jar.
+   * @throws IOException
+   *           if the jar can't be read.
+   */
+  @NonNull
+  public static JarIndex forJar(@NonNull final File jar) throws IOException {
+    if (jar == null)
+      throw new IllegalArgumentException(I18N.err(44, "jar"));
+    if (DISABLE) {
+      return scan(jar);
+    }
+    final File indexFile = getIndexFile(jar);
+    JarIndex result = readOrNull(indexFile, jar);
+    if (result == null) {
+      result = scan(jar);
+      write(indexFile, jar, result);
+    }
+    return result;
+  }
+
+  private static File getIndexFile(final File jar) {
+    final String dir = System.getProperty(DIR_PROP);
+    final File indexDir = dir != null ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "sl-jar-index");
+    final String path = jar.getAbsolutePath();
+    return new File(indexDir, jar.getName() + '_' + Integer.toHexString(path.hashCode()) + SUFFIX);
+  }
+
+  /**
+   * Scans the entries of a jar. Nested and local classes and entries whose
+   * name is not a valid Java identifier are skipped.
+   */
+  static JarIndex scan(final File jar) throws IOException {
+    final Map<String, List<String>> byPackage = new LinkedHashMap<>();
+    try (ZipFile zf = new ZipFile(jar)) {
+      final Enumeration<? extends ZipEntry> e = zf.entries();
+      while (e.hasMoreElements()) {
+        final String name = e.nextElement().getName();
+        if (!name.endsWith(".class") || name.lastIndexOf('$') >= 0) {
+          continue;
+        }
+        final String qname = JarEntry.convertClassToQname(name);
+        if (!SLUtility.isValidDotSeparatedJavaIdentifier(qname)) {
+          continue;
+        }
+        final int lastDot = qname.lastIndexOf('.');
+        add(byPackage, lastDot < 0 ? "" : qname.substring(0, lastDot), qname.substring(lastDot + 1));
+      }
+    }
+    return new JarIndex(byPackage, NO_JARS);
+  }
+
+  /**
+   * Scans the class files of a directory and its subdirectories, whose names
+   * give the package of each class file. Directories change too often for
+   * their index to be saved, so they are always scanned.
+   *
+   * @param dir
+   *          a directory.
+   * @return the index of the directory. The class names it holds are the
+   *         names of the class files without their <tt>.class</tt> suffix, so
+   *         they include nested classes.
+   */
+  @NonNull
+  public static JarIndex forDirectory(@NonNull final File dir) {
+    if (dir == null)
+      throw new IllegalArgumentException(I18N.err(44, "dir"));
+    final Map<String, List<String>> byPackage = new LinkedHashMap<>();
+    final List<File> jars = new ArrayList<>();
+    scanDirectory(dir, "", byPackage, jars);
+    return new JarIndex(byPackage, jars.toArray(new File[jars.size()]));
+  }
+
+  private static void scanDirectory(final File dir, final String pkg, final Map<String, List<String>> byPackage,
+      final List<File> jars) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File f : files) {
+      final String name = f.getName();
+      if (f.isDirectory()) {
+        if (name.indexOf('.') < 0) {
+          // Otherwise, not the directory of a package
+          scanDirectory(f, pkg.length() == 0 ? name : pkg + '.' + name, byPackage, jars);
+        }
+      } else if (name.endsWith(".class")) {
+        add(byPackage, pkg, name.substring(0, name.length() - 6));
+      } else if (name.endsWith(".jar")) {
+        jars.add(f);
+      }
+    }
+  }
+
+  private static void add(final Map<String, List<String>> byPackage, final String pkg, final String name) {
+    List<String> names = byPackage.get(pkg);
+    if (names == null) {
+      names = new ArrayList<>();
+      byPackage.put(pkg, names);
+    }
+    names.add(name);
+  }
+
+  /**
+   * Reads an index file. The file is read into the heap with a single read,
+   * rather than memory-mapped, because a mapping holds the file open until it
+   * is garbage collected, and on Windows an open file can't be replaced by a
+   * later {@link #write(File, File, JarIndex)}.
+   *
+   * @return the index, or {@code null} if there is no index file, or it is
+   *         out of date or can't be read.
+   */
+  @Nullable
+  private static JarIndex readOrNull(final File indexFile, final File jar) {
+    if (!indexFile.isFile()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        return null;
+      }
+      final ByteBuffer buf = ByteBuffer.allocate((int) size);
+      while (buf.hasRemaining()) {
+        if (channel.read(buf) < 0) {
+          return null;
+        }
+      }
+      buf.flip();
+      if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+        return null;
+      }
+      if (buf.getLong() != jar.length() || buf.getLong() != jar.lastModified()
+          || !jar.getAbsolutePath().equals(getString(buf))) {
+        return null;
+      }
+      final String[] packages = new String[buf.getInt()];
+      final String[][] simpleNames = new String[packages.length][];
+      for (int i = 0; i < packages.length; i++) {
+        packages[i] = getString(buf);
+        simpleNames[i] = new String[buf.getInt()];
+        for (int j = 0; j < simpleNames[i].length; j++) {
+          simpleNames[i][j] = getString(buf);
+        }
+      }
+      return new JarIndex(packages, simpleNames, NO_JARS);
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      SLLogger.getLogger().log(Level.FINE, "Unable to read jar index " + indexFile, e);
+      return null;
+    }
+  }
+
+  private static String getString(final ByteBuffer buf) {
+    final byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Saves an index file. The file is written under a temporary name and then
+   * renamed, so concurrent scans never read a partly written file. Failing to
+   * save the index only costs a scan next time, so it is not reported as an
+   * error.
+   */
+  private static void write(final File indexFile, final File jar, final JarIndex index) {
+    File temp = null;
+    try {
+      final File dir = indexFile.getParentFile();
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        return;
+      }
+      temp = File.createTempFile(indexFile.getName(), ".tmp", dir);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(jar.length());
+        out.writeLong(jar.lastModified());
+        putString(out, jar.getAbsolutePath());
+        out.writeInt(index.f_packages.length);
+        for (int i = 0; i < index.f_packages.length; i++) {
+          putString(out, index.f_packages[i]);
+          out.writeInt(index.f_simpleNames[i].length);
+          for (final String simpleName : index.f_simpleNames[i]) {
+            putString(out, simpleName);
+          }
+        }
+      }
+      try {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      temp = null;
+    } catch (IOException | RuntimeException e) {
+      SLLogger.getLogger().log(Level.FINE, "Unable to save jar index " + indexFile, e);
+    } finally {
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  private static void putString(final DataOutputStream out, final String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length > 0xFFFF) {
+      throw new IOException("String too long for jar index: " + value);
+    }
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static final File[] NO_JARS = new File[0];
+
+  private final String[] f_packages;
+  private final String[][] f_simpleNames;
+  private final File[] f_jars;
+
+  private JarIndex(final String[] packages, final String[][] simpleNames, final File[] jars) {
+    f_packages = packages;
+    f_simpleNames = simpleNames;
+    f_jars = jars;
+  }
+
+  private JarIndex(final Map<String, List<String>> byPackage, final File[] jars) {
+    f_packages = new String[byPackage.size()];
+    f_simpleNames = new String[f_packages.length][];
+    int i = 0;
+    for (final Map.Entry<String, List<String>> entry : byPackage.entrySet()) {
+      f_packages[i] = entry.getKey();
+      f_simpleNames[i] = entry.getValue().toArray(new String[entry.getValue().size()]);
+      i++;
+    }
+    f_jars = jars;
+  }
+
+  public int getPackageCount() {
+    return f_packages.length;
+  }
+
+  /**
+   * Gets the name of a package.
+   *
+   * @param index
+   *          a zero-based package index.
+   * @return the dot-separated name of the package, or <tt>""</tt> for the
+   *         default package.
+   */
+  @NonNull
+  public String getPackage(final int index) {
+    return f_packages[index];
+  }
+
+  /**
+   * Gets the simple names of the top-level classes of a package.
+   *
+   * @param index
+   *          a zero-based package index.
+   * @return the simple names of the classes of the package. The array must not
+   *         be modified.
+   */
+  @NonNull
+  public String[] getClassNames(final int index) {
+    return f_simpleNames[index];
+  }
+
+  /**
+   * Gets the jars found within a directory.
+   *
+   * @return the jars found within a directory, empty for a jar. The array must
+   *         not be modified.
+   */
+  @NonNull
+  public File[] getJars() {
+    return f_jars;
+  }
+
+  /**
+   * Gets the total number of classes in the jar or directory.
+   *
+   * @return the total number of classes in the jar or directory.
+   */
+  public int getClassCount() {
+    int result = 0;
+    for (final String[] simpleNames : f_simpleNames) {
+      result += simpleNames.length;
+    }
+    return result;
+  }
+}
@@ -2,22 +2,47 @@ package com.surelogic.common.java;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
 import com.surelogic.Nullable;
 import com.surelogic.common.Pair;
+import com.surelogic.common.concurrent.RecursiveIOAction;
 import com.surelogic.common.logging.SLLogger;
 
+/**
+ * Maps the qualified names of the types visible to each project to their files.
+ * The jars and directories on the classpaths of the projects are scanned in
+ * parallel, on up to {@value #SCAN_THREADS_PROP} threads, before any mapping is
+ * done. The mapping itself is done on the thread constructing this, in
+ * classpath order, so that the first mapping of a type wins no matter how the
+ * scans were scheduled.
+ */
 public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassParser {
+  /**
+   * The system property that sets the number of threads used to scan the
+   * jars and directories on the classpath.
+   */
+  public static final String SCAN_THREADS_PROP = "com.surelogic.common.java.scanThreads";
+
+  static final int SCAN_THREADS = Math.max(1,
+      Integer.getInteger(SCAN_THREADS_PROP, Runtime.getRuntime().availableProcessors()));
+
   private final Multimap<ISLJavaProject, Config> initialized = ArrayListMultimap.create();
 
   // Key: project, qualified name
-  // TODO not thread-safe?
-  private final Map<Pair<String, String>, IJavaFile> classToFile = new HashMap<>();
+  // Only changed by the thread constructing this
+  private final ClassTable classToFile = new ClassTable();
   private final Set<String> warningsForPackages = new HashSet<>();
   
-  private final Map<String, IJavaFile> globalClassToFile = new HashMap<>();
+  // Key: qualified name, with a single project
+  private static final String GLOBAL = "";
+  private final ClassTable globalClassToFile = new ClassTable();
   private final Set<String> potentiallyDuplicatedClassesAcrossProjects = new HashSet<>();
   
   protected final PS projects;
@@ -26,13 +51,166 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
    */
   private final boolean useBinaries;
 
+  /**
+   * The jars and directories scanned while this is being constructed, so that
+   * each is only scanned once; {@code null} afterwards.
+   */
+  private ConcurrentMap<File, JarIndex> scanned = new ConcurrentHashMap<>();
+
+  /**
+   * The number of jars and directories scanned, and the time taken to scan
+   * them and map their types, in milliseconds.
+   */
+  private final int scannedCount;
+  private final long mappingMillis;
+
   public JavaClassPath(PS set, boolean useBin) throws IOException {
     projects = set;
     useBinaries = useBin;
 
+    final long start = System.currentTimeMillis();
+    scanInParallel(set);
     for (ISLJavaProject jp : set) {
       jp.getConfig().init(jp, this);
     }
+    scannedCount = scanned.size();
+    mappingMillis = System.currentTimeMillis() - start;
+    scanned = null;
+    if (SLLogger.getLogger().isLoggable(Level.FINE)) {
+      SLLogger.getLogger().fine("Mapped " + getMappedTypeCount() + " types from " + scannedCount + " jars and directories in "
+          + mappingMillis + " ms");
+    }
+  }
+
+  /**
+   * @return the number of distinct types mapped for all the projects.
+   */
+  public final int getMappedTypeCount() {
+    return globalClassToFile.size();
+  }
+
+  /**
+   * @return the number of jars and directories scanned while this was
+   *         constructed.
+   */
+  public final int getScannedCount() {
+    return scannedCount;
+  }
+
+  /**
+   * @return the time, in milliseconds, taken to scan the jars and directories
+   *         and map their types while this was constructed.
+   */
+  public final long getMappingMillis() {
+    return mappingMillis;
+  }
+
+  /**
+   * Scans the jars and directories on the classpaths of the projects, so that
+   * initializing each project only has to map the types found.
+   */
+  private void scanInParallel(final Iterable<? extends ISLJavaProject> set) {
+    final Set<File> files = new LinkedHashSet<>();
+    final Set<Config> visited = Collections.newSetFromMap(new IdentityHashMap<Config, Boolean>());
+    for (ISLJavaProject jp : set) {
+      collectJars(jp.getConfig(), visited, files);
+    }
+    if (SCAN_THREADS == 1 || files.size() < 2) {
+      return; // scanned as needed
+    }
+    final ForkJoinPool pool = new ForkJoinPool(SCAN_THREADS);
+    try {
+      pool.invoke(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          final List<Scan> scans = new ArrayList<>();
+          for (File f : files) {
+            scans.add(new Scan(f));
+          }
+          forkAndJoin(scans);
+        }
+      });
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void collectJars(final Config config, final Set<Config> visited, final Set<File> mutable) {
+    if (!visited.add(config)) {
+      return;
+    }
+    for (IClassPathEntry e : config.getClassPath()) {
+      if (e instanceof Config) {
+        collectJars((Config) e, visited, mutable);
+      } else if (e instanceof JarEntry) {
+        final File path = ((JarEntry) e).getPath();
+        if (path.exists()) {
+          mutable.add(path);
+        }
+      }
+    }
+  }
+
+  /**
+   * Scans one jar or directory, and then any jars found in a directory.
+   */
+  private final class Scan extends RecursiveIOAction {
+    private static final long serialVersionUID = 1L;
+
+    private final File f_file;
+
+    Scan(File file) {
+      f_file = file;
+    }
+
+    @Override
+    protected void compute_private() throws IOException {
+      final JarIndex index = scan(f_file);
+      scanned.putIfAbsent(f_file, index);
+      final List<Scan> nested = new ArrayList<>();
+      for (File jar : index.getJars()) {
+        if (!scanned.containsKey(jar)) {
+          nested.add(new Scan(jar));
+        }
+      }
+      forkAndJoin(nested);
+    }
+  }
+
+  /**
+   * A failed scan is not reported here: the jar or directory is scanned again,
+   * and the failure reported, when its project is initialized.
+   */
+  private void forkAndJoin(final List<Scan> scans) {
+    for (Scan s : scans) {
+      s.fork();
+    }
+    for (Scan s : scans) {
+      s.quietlyJoin();
+      if (s.isCompletedAbnormally()) {
+        SLLogger.getLogger().log(Level.FINE, "Unable to scan " + s.f_file, s.getException());
+      }
+    }
+  }
+
+  private static JarIndex scan(File jarOrDir) throws IOException {
+    return jarOrDir.isDirectory() ? JarIndex.forDirectory(jarOrDir) : JarIndex.forJar(jarOrDir);
+  }
+
+  @Override
+  public final JarIndex getIndex(File jarOrDir) throws IOException {
+    final ConcurrentMap<File, JarIndex> scanned = this.scanned;
+    if (scanned == null) {
+      return scan(jarOrDir);
+    }
+    JarIndex result = scanned.get(jarOrDir);
+    if (result == null) {
+      result = scan(jarOrDir);
+      scanned.put(jarOrDir, result);
+    }
+    return result;
   }
 
   /**
@@ -55,8 +233,8 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
       // "+file.getQualifiedName());
       return; // ignore
     }
-    final Pair<String, String> key = Pair.getInstance(destProj, file.getQualifiedName());
-    if (!classToFile.containsKey(key)) {
+    final IJavaFile existing = classToFile.put(destProj, file, false);
+    if (existing == null) {
       /*
        * if (!key.first().startsWith(Config.JRE_NAME) && file.getFile() != null)
        * { System.out.println("Mapping "+key.second()+" to " +file.getFile()); }
@@ -66,15 +244,12 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
        * if ("com.surelogic.common.ref.Decl".equals(file.getQualifiedName())) {
        * System.out.println(); }
        */
-      classToFile.put(key, file);
     } else {
-      final IJavaFile old = classToFile.get(key);
-      if (!old.equals(file) && canGenerateWarning(file)) {    	
-        SLLogger.getLogger().info(file+" overrides "+old+" for type '"+file.getQualifiedName()+"' in "+destProj);
+      if (!existing.equals(file) && canGenerateWarning(file)) {    	
+        SLLogger.getLogger().info(file+" overrides "+existing+" for type '"+file.getQualifiedName()+"' in "+destProj);
       }
     }
-    // TODO use packages instead to reduce table size?
-    final IJavaFile old = globalClassToFile.put(file.getQualifiedName(), file);
+    final IJavaFile old = globalClassToFile.put(GLOBAL, file, true);
     if (old != null && !old.equals(file)) {
     	potentiallyDuplicatedClassesAcrossProjects.add(file.getQualifiedName());
     }
@@ -102,21 +277,22 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
      * if ("com.surelogic.common.ref.Decl".equals(qname)) { System.out.println(
      * "Checking if mapped for "+destProj+": "+qname); }
      */
-    final Pair<String, String> key = Pair.getInstance(destProj, qname);
-    return classToFile.containsKey(key);
+    return classToFile.contains(destProj, qname);
   }
 
   public final IJavaFile getMapping(String destProj, String qname) {
-    final Pair<String, String> key = Pair.getInstance(destProj, qname);
-    return getMapping(key);
+    return classToFile.get(destProj, qname);
   }
 
   public final IJavaFile getMapping(Pair<String, String> key) {
-    return classToFile.get(key);
+    return classToFile.get(key.first(), key.second());
   }
 
+  /**
+   * @return a snapshot of the project and qualified name of each mapped type
+   */
   public final Collection<Pair<String, String>> getMapKeys() {
-    return classToFile.keySet();
+    return classToFile.getKeys();
   }
 
   public File getRunDir() {
@@ -136,7 +312,7 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
     for (final String qname : classes) {
       final Pair<String, String> key = new Pair<>(project, qname);
       if (!markAsLoaded(key)) {
-        final IJavaFile file = classToFile.get(key);
+        final IJavaFile file = getMapping(key);
         byProject.put(file.getProject(), file);
       }
     }
@@ -178,7 +354,7 @@ public class JavaClassPath<PS extends JavaProjectSet<?>> implements IJavacClassP
     // Check if it's from the JRE
     //
     // TODO should I change this to return IJavaFile?
-    final IJavaFile file = classToFile.get(key);
+    final IJavaFile file = getMapping(key);
     if (file == null) {
       return true; // ignore
     }
@@ -6,48 +6,32 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-
+/**
+ * A {@link RecordMapper} backed by prepared statements obtained from the
+ * {@link StatementCache} of a connection, so that mapping the same record type
+ * again on the same connection does not prepare its statements again. Each
+ * operation checks its statement out of the cache and back in when it is
+ * done, so no statement is held between operations.
+ */
 public class BaseMapper implements RecordMapper {
 
 	private static final String[] KEYS = new String[] { "ID" };
 
-	private final PreparedStatement insert;
-	private final PreparedStatement select;
-	private final PreparedStatement delete;
+	private final StatementCache cache;
+	private final boolean oracle;
+	private final String insertSql;
+	private final String selectSql;
+	private final String deleteSql;
 	private final boolean hasKeys;
 
 	public BaseMapper(Connection conn, String insertSql, String selectSql,
 			String deleteSql, boolean generateKey) throws SQLException {
 		hasKeys = generateKey;
-		if (generateKey) {
-			if (insertSql != null) {
-				if (DBType.ORACLE == JDBCUtils.getDb(conn)) {
-					insert = conn.prepareStatement(insertSql, KEYS);
-				} else {
-					insert = conn.prepareStatement(insertSql,
-							Statement.RETURN_GENERATED_KEYS);
-				}
-			} else {
-				insert = null;
-			}
-		} else {
-			if (insertSql != null) {
-				insert = conn.prepareStatement(insertSql);
-			} else {
-				insert = null;
-			}
-		}
-		if (selectSql != null) {
-			select = conn.prepareStatement(selectSql);
-		} else {
-			select = null;
-		}
-		if (deleteSql != null) {
-			delete = conn.prepareStatement(deleteSql);
-		} else {
-			delete = null;
-		}
-
+		cache = StatementCache.forConnection(conn);
+		oracle = generateKey && DBType.ORACLE == JDBCUtils.getDb(conn);
+		this.insertSql = insertSql;
+		this.selectSql = selectSql;
+		this.deleteSql = deleteSql;
 	}
 
 	public BaseMapper(Connection conn, String insertSql, String selectSql,
@@ -55,6 +39,18 @@ public class BaseMapper implements RecordMapper {
 		this(conn, insertSql, selectSql, deleteSql, true);
 	}
 
+	/**
+	 * Checks out a statement for the passed SQL from the statement cache of
+	 * the connection. It must be given back with {@link #checkIn(Statement)}.
+	 */
+	PreparedStatement checkOut(String sql) throws SQLException {
+		return cache.prepare(sql);
+	}
+
+	void checkIn(Statement st) throws SQLException {
+		cache.checkIn(st);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -63,20 +59,33 @@ public class BaseMapper implements RecordMapper {
 	@Override
   public void insert(AbstractRecord<?> record) {
 		try {
-			if (insert == null) {
+			if (insertSql == null) {
 				throw new UnsupportedOperationException();
 			}
-			record.fill(insert, 1);
-			insert.executeUpdate();
-			if (hasKeys) {
-				final ResultSet keys = insert.getGeneratedKeys();
-				try {
-					if (keys.next()) {
-						record.readPk(keys, 1);
+			final PreparedStatement insert;
+			if (!hasKeys) {
+				insert = cache.prepare(insertSql);
+			} else if (oracle) {
+				insert = cache.prepare(insertSql, KEYS);
+			} else {
+				insert = cache.prepare(insertSql,
+						Statement.RETURN_GENERATED_KEYS);
+			}
+			try {
+				record.fill(insert, 1);
+				insert.executeUpdate();
+				if (hasKeys) {
+					final ResultSet keys = insert.getGeneratedKeys();
+					try {
+						if (keys.next()) {
+							record.readPk(keys, 1);
+						}
+					} finally {
+						keys.close();
 					}
-				} finally {
-					keys.close();
 				}
+			} finally {
+				cache.checkIn(insert);
 			}
 		} catch (final SQLException e) {
 			throw new RecordException(e);
@@ -90,12 +99,17 @@ public class BaseMapper implements RecordMapper {
 	 */
 	@Override
   public void remove(AbstractRecord<?> record) {
-		if (delete == null) {
+		if (deleteSql == null) {
 			throw new UnsupportedOperationException();
 		}
 		try {
-			record.fillWithPk(delete, 1);
-			delete.executeUpdate();
+			final PreparedStatement delete = cache.prepare(deleteSql);
+			try {
+				record.fillWithPk(delete, 1);
+				delete.executeUpdate();
+			} finally {
+				cache.checkIn(delete);
+			}
 		} catch (final SQLException e) {
 			throw new RecordException(e);
 		}
@@ -109,19 +123,24 @@ public class BaseMapper implements RecordMapper {
 	@Override
   public boolean select(AbstractRecord<?> record) {
 		try {
-			if (select == null) {
+			if (selectSql == null) {
 				throw new UnsupportedOperationException();
 			}
-			record.fillWithNk(select, 1);
-			final ResultSet set = select.executeQuery();
+			final PreparedStatement select = cache.prepare(selectSql);
 			try {
-				final boolean found = set.next();
-				if (found) {
-					record.readAttributes(set, record.readPk(set, 1));
+				record.fillWithNk(select, 1);
+				final ResultSet set = select.executeQuery();
+				try {
+					final boolean found = set.next();
+					if (found) {
+						record.readAttributes(set, record.readPk(set, 1));
+					}
+					return found;
+				} finally {
+					set.close();
 				}
-				return found;
 			} finally {
-				set.close();
+				cache.checkIn(select);
 			}
 		} catch (final SQLException e) {
 			throw new RecordException(e);
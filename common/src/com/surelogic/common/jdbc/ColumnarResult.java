@@ -0,0 +1,508 @@
+package com.surelogic.common.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.surelogic.common.i18n.I18N;
+
+/**
+ * The rows of a query result stored by column. Integer columns are kept as
+ * <tt>long</tt> values and all other columns as codes into a per-column
+ * dictionary of their distinct string values, so a result whose rows repeat
+ * the same names takes a fraction of the memory of a <tt>String[][]</tt>. The
+ * text of any cell, as {@link ResultSet#getString(int)} would have returned it,
+ * is available from {@link #getString(int, int)}.
+ * <p>
+ * Instances are built with {@link #read(ResultSet, int)}, or a chunk at a time
+ * with a {@link Reader}, and are not mutated afterwards.
+ */
+public final class ColumnarResult {
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  /**
+   * Approximate heap overheads, in bytes, used by
+   * {@link #getEstimatedSize()}.
+   */
+  private static final int ARRAY_OVERHEAD = 16;
+  private static final int STRING_OVERHEAD = 40;
+
+  /**
+   * Reads rows, up to a maximum, from a result set. The result set is not
+   * closed by this method.
+   *
+   * @param rs
+   *          a result set.
+   * @param maxRows
+   *          the maximum number of rows to read. A value of 0 indicates no
+   *          maximum.
+   * @return the rows read.
+   * @throws SQLException
+   *           if something fails while working with the result set.
+   */
+  public static ColumnarResult read(final ResultSet rs, final int maxRows) throws SQLException {
+    final Reader reader = new Reader(rs, maxRows);
+    reader.read(0);
+    return reader.finish();
+  }
+
+  /**
+   * Reads the rows of a result set a chunk at a time, so that the rows read so
+   * far can be used while the rest are still being fetched. The result set is
+   * not closed by a reader.
+   * <p>
+   * Instances are not thread-safe, but the results returned by
+   * {@link #snapshot()} and {@link #finish()} may be passed to other threads.
+   */
+  public static final class Reader {
+
+    private final ResultSet f_rs;
+    private final int f_maxRows;
+    private final String[] f_labels;
+    private final Column[] f_columns;
+    private int f_rowCount;
+    private int f_drainedRowCount;
+    private boolean f_limited;
+    private boolean f_done;
+
+    /**
+     * Constructs a reader.
+     *
+     * @param rs
+     *          a result set.
+     * @param maxRows
+     *          the maximum number of rows to read. A value of 0 indicates no
+     *          maximum.
+     * @throws SQLException
+     *           if something fails while working with the result set.
+     */
+    public Reader(final ResultSet rs, final int maxRows) throws SQLException {
+      if (rs == null) {
+        throw new IllegalArgumentException(I18N.err(44, "rs"));
+      }
+      f_rs = rs;
+      f_maxRows = maxRows;
+      final ResultSetMetaData meta = rs.getMetaData();
+      final int columnCount = meta.getColumnCount();
+      f_labels = new String[columnCount];
+      f_columns = new Column[columnCount];
+      for (int i = 1; i <= columnCount; i++) {
+        f_labels[i - 1] = meta.getColumnLabel(i);
+        final int type = meta.getColumnType(i);
+        f_columns[i - 1] = isIntegral(type) ? new LongColumn() : new StringColumn(isCharacter(type));
+      }
+    }
+
+    /**
+     * Reads up to the passed number of rows.
+     *
+     * @param chunkSize
+     *          the maximum number of rows to read. A value of 0 indicates that
+     *          all remaining rows should be read.
+     * @return the number of rows read by this call.
+     * @throws SQLException
+     *           if something fails while working with the result set.
+     */
+    public int read(final int chunkSize) throws SQLException {
+      int result = 0;
+      while (!f_done && (chunkSize <= 0 || result < chunkSize)) {
+        if (!f_rs.next()) {
+          f_done = true;
+          break;
+        }
+        for (int i = 1; i <= f_columns.length; i++) {
+          f_columns[i - 1].read(f_rs, i, f_rowCount);
+        }
+        f_rowCount++;
+        result++;
+        if (f_maxRows > 0 && f_drainedRowCount + f_rowCount >= f_maxRows) {
+          f_limited = true;
+          f_done = true;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Checks if all the rows, up to the maximum, have been read.
+     *
+     * @return {@code true} if no rows remain to be read, {@code false}
+     *         otherwise.
+     */
+    public boolean isDone() {
+      return f_done;
+    }
+
+    /**
+     * Gets the number of rows read so far, not counting rows returned by
+     * {@link #drain()}.
+     *
+     * @return the number of rows held by this reader.
+     */
+    public int getRowCount() {
+      return f_rowCount;
+    }
+
+    /**
+     * Copies the rows read so far. Only the per-row values are copied; the
+     * string dictionaries are shared with the reader, which only ever adds to
+     * them. The reader may continue to be used.
+     *
+     * @return the rows read so far.
+     */
+    public ColumnarResult snapshot() {
+      final Column[] columns = new Column[f_columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = f_columns[i].copy(f_rowCount);
+      }
+      return new ColumnarResult(f_labels.clone(), columns, f_rowCount, f_limited, f_done);
+    }
+
+    /**
+     * Returns the rows read so far without copying them, and forgets them, so
+     * that a large result set can be read a chunk at a time in bounded memory.
+     * The reader may continue to be used.
+     *
+     * @return the rows read since the reader was constructed or last drained.
+     */
+    public ColumnarResult drain() {
+      final Column[] columns = f_columns.clone();
+      for (int i = 0; i < columns.length; i++) {
+        columns[i].trim(f_rowCount);
+        f_columns[i] = columns[i].newEmpty();
+      }
+      final ColumnarResult result = new ColumnarResult(f_labels.clone(), columns, f_rowCount, f_limited, f_done);
+      f_drainedRowCount += f_rowCount;
+      f_rowCount = 0;
+      return result;
+    }
+
+    /**
+     * Returns the rows read so far without copying them. If rows remain to be
+     * read, e.g., because the query was cancelled, the result is marked as
+     * limited. The reader must not be used afterwards.
+     *
+     * @return the rows read.
+     */
+    public ColumnarResult finish() {
+      for (final Column c : f_columns) {
+        c.trim(f_rowCount);
+      }
+      if (!f_done) {
+        f_limited = true;
+        f_done = true;
+      }
+      return new ColumnarResult(f_labels, f_columns, f_rowCount, f_limited, true);
+    }
+  }
+
+  /**
+   * Stores already materialized rows.
+   *
+   * @param labels
+   *          the column labels.
+   * @param rows
+   *          the rows, each with one entry per label. Entries may be
+   *          <code>null</code>.
+   * @param limited
+   *          whether the rows were truncated.
+   * @return the stored rows.
+   */
+  public static ColumnarResult of(final String[] labels, final String[][] rows, final boolean limited) {
+    if (labels == null) {
+      throw new IllegalArgumentException(I18N.err(44, "labels"));
+    }
+    if (rows == null) {
+      throw new IllegalArgumentException(I18N.err(44, "rows"));
+    }
+    final Column[] columns = new Column[labels.length];
+    for (int colI = 0; colI < labels.length; colI++) {
+      final StringColumn column = new StringColumn(true);
+      for (int rowI = 0; rowI < rows.length; rowI++) {
+        column.add(rowI, rows[rowI][colI]);
+      }
+      column.trim(rows.length);
+      columns[colI] = column;
+    }
+    return new ColumnarResult(labels.clone(), columns, rows.length, limited, true);
+  }
+
+  private static boolean isIntegral(final int sqlType) {
+    switch (sqlType) {
+    case Types.TINYINT:
+    case Types.SMALLINT:
+    case Types.INTEGER:
+    case Types.BIGINT:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isCharacter(final int sqlType) {
+    switch (sqlType) {
+    case Types.CHAR:
+    case Types.VARCHAR:
+    case Types.LONGVARCHAR:
+    case Types.CLOB:
+    case Types.NCHAR:
+    case Types.NVARCHAR:
+    case Types.LONGNVARCHAR:
+    case Types.NCLOB:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  private abstract static class Column {
+    abstract void read(ResultSet rs, int col, int row) throws SQLException;
+
+    abstract String getString(int row);
+
+    abstract void trim(int rowCount);
+
+    abstract Column copy(int rowCount);
+
+    abstract Column newEmpty();
+
+    abstract long estimateSize();
+  }
+
+  private static final class LongColumn extends Column {
+    long[] values = new long[INITIAL_CAPACITY];
+    final BitSet nulls = new BitSet();
+
+    @Override
+    void read(ResultSet rs, int col, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      values[row] = rs.getLong(col);
+      if (rs.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    String getString(int row) {
+      return nulls.get(row) ? null : Long.toString(values[row]);
+    }
+
+    @Override
+    void trim(int rowCount) {
+      values = Arrays.copyOf(values, rowCount);
+    }
+
+    @Override
+    Column newEmpty() {
+      return new LongColumn();
+    }
+
+    @Override
+    Column copy(int rowCount) {
+      final LongColumn result = new LongColumn();
+      result.values = Arrays.copyOf(values, rowCount);
+      result.nulls.or(nulls);
+      return result;
+    }
+
+    @Override
+    long estimateSize() {
+      return ARRAY_OVERHEAD + 8L * values.length + nulls.size() / 8;
+    }
+  }
+
+  private static final class StringColumn extends Column {
+    /**
+     * The distinct values, in the order they were read. Code 0 is reserved for
+     * <code>null</code>. Entries below {@link #dictionarySize} are never
+     * changed, and the array is replaced rather than grown, so a copy of the
+     * column can share it while more values are added to this column.
+     */
+    String[] dictionary = new String[INITIAL_CAPACITY];
+    int dictionarySize = 1;
+    final Map<String, Integer> codes = new HashMap<>();
+    int[] values = new int[INITIAL_CAPACITY];
+    /**
+     * Whether the column was read as an SQL character type.
+     */
+    final boolean character;
+
+    StringColumn(final boolean character) {
+      this.character = character;
+    }
+
+    private StringColumn(final StringColumn from, final int rowCount) {
+      character = from.character;
+      dictionary = from.dictionary;
+      dictionarySize = from.dictionarySize;
+      values = Arrays.copyOf(from.values, rowCount);
+    }
+
+    @Override
+    void read(ResultSet rs, int col, int row) throws SQLException {
+      add(row, rs.getString(col));
+    }
+
+    void add(int row, String value) {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, row * 2);
+      }
+      int code = 0;
+      if (value != null) {
+        final Integer existing = codes.get(value);
+        if (existing == null) {
+          if (dictionarySize == dictionary.length) {
+            dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+          }
+          code = dictionarySize++;
+          dictionary[code] = value;
+          codes.put(value, code);
+        } else {
+          code = existing;
+        }
+      }
+      values[row] = code;
+    }
+
+    @Override
+    String getString(int row) {
+      return dictionary[values[row]];
+    }
+
+    @Override
+    void trim(int rowCount) {
+      values = Arrays.copyOf(values, rowCount);
+      codes.clear();
+      dictionary = Arrays.copyOf(dictionary, dictionarySize);
+    }
+
+    @Override
+    Column copy(int rowCount) {
+      return new StringColumn(this, rowCount);
+    }
+
+    @Override
+    Column newEmpty() {
+      return new StringColumn(character);
+    }
+
+    @Override
+    long estimateSize() {
+      long result = ARRAY_OVERHEAD + 4L * values.length + ARRAY_OVERHEAD + 8L * dictionary.length;
+      for (int i = 1; i < dictionarySize; i++) {
+        result += STRING_OVERHEAD + 2L * dictionary[i].length();
+      }
+      return result;
+    }
+  }
+
+  private final String[] f_columnLabels;
+  private final Column[] f_columns;
+  private final int f_rowCount;
+  private final boolean f_limited;
+  private final boolean f_complete;
+
+  private ColumnarResult(final String[] labels, final Column[] columns, final int rowCount, final boolean limited,
+      final boolean complete) {
+    f_columnLabels = labels;
+    f_columns = columns;
+    f_rowCount = rowCount;
+    f_limited = limited;
+    f_complete = complete;
+  }
+
+  /**
+   * Gets the column labels. The returned array should not be mutated.
+   */
+  public String[] getColumnLabels() {
+    return f_columnLabels;
+  }
+
+  public int getColumnCount() {
+    return f_columns.length;
+  }
+
+  public int getRowCount() {
+    return f_rowCount;
+  }
+
+  /**
+   * Indicates whether a column holds integer values.
+   *
+   * @param columnIndex
+   *          a zero-based column index.
+   * @return {@code true} if the column was read as an SQL integer type,
+   *         {@code false} otherwise.
+   */
+  public boolean isIntegralColumn(final int columnIndex) {
+    return f_columns[columnIndex] instanceof LongColumn;
+  }
+
+  /**
+   * Indicates whether a column holds character values.
+   *
+   * @param columnIndex
+   *          a zero-based column index.
+   * @return {@code true} if the column was read as an SQL character type, or
+   *         the rows were not read from the database, {@code false} otherwise.
+   */
+  public boolean isCharacterColumn(final int columnIndex) {
+    return f_columns[columnIndex] instanceof StringColumn && ((StringColumn) f_columns[columnIndex]).character;
+  }
+
+  /**
+   * Gets an estimate of the number of bytes of heap used by these rows.
+   *
+   * @return the estimated size in bytes.
+   */
+  public long getEstimatedSize() {
+    long result = 0;
+    for (final Column c : f_columns) {
+      result += c.estimateSize();
+    }
+    for (final String label : f_columnLabels) {
+      result += STRING_OVERHEAD + (label == null ? 0 : 2L * label.length());
+    }
+    return result;
+  }
+
+  /**
+   * Indicates whether rows were left unread because of the row limit.
+   */
+  public boolean isLimited() {
+    return f_limited;
+  }
+
+  /**
+   * Indicates whether these are all the rows that will be read, or a
+   * {@link Reader#snapshot()} taken while rows were still being read.
+   */
+  public boolean isComplete() {
+    return f_complete;
+  }
+
+  /**
+   * Gets the text of a cell.
+   *
+   * @param rowIndex
+   *          a zero-based row index.
+   * @param columnIndex
+   *          a zero-based column index.
+   * @return the text, or <code>null</code> if SQL <tt>NULL</tt> was what was
+   *         in the database.
+   */
+  public String getString(final int rowIndex, final int columnIndex) {
+    if (rowIndex < 0 || rowIndex >= f_rowCount) {
+      throw new IndexOutOfBoundsException("rowIndex=" + rowIndex + " must be less than " + f_rowCount);
+    }
+    return f_columns[columnIndex].getString(rowIndex);
+  }
+}
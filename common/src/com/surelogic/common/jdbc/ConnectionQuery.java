@@ -1,19 +1,18 @@
 package com.surelogic.common.jdbc;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Implementation of {@link Query} using a {@link Connection}. ConnectionQuery
  * produces JDBC statements and prepared statements. The statements are stored
  * in the query bank accessible by {@link QB}. See
  * {@link QueryablePreparedStatement} and {@link QueryableStatement} for more on
- * the behavior of this class.
+ * the behavior of this class. Prepared statements are checked out of the
+ * {@link StatementCache} of the connection for each call of a
+ * {@link Queryable}, and so are reused by later calls and by later queries on
+ * the same connection.
  * 
  * 
  * 
@@ -21,37 +20,42 @@ import java.util.Map;
  * 
  */
 // TODO: Change the Record pattern such that LazyPreparedStatement is no longer
-// necessary. We will probably have to use a shared prepared statement cache
-// mechanism here.
+// necessary.
 public class ConnectionQuery implements Query {
 
   private final Connection conn;
 
-  private final Map<String, PreparedStatement> map;
+  private final StatementCache cache;
 
   public ConnectionQuery(Connection conn) {
     this.conn = conn;
-    map = new HashMap<>();
+    cache = StatementCache.forConnection(conn);
   }
 
   @Override
   public Queryable<Void> prepared(String key) {
-    return new QueryablePreparedStatement<>(findOrCreate(key), new EmptyResultHandler());
+    return new QueryablePreparedStatement<>(cache, QB.get(key), new EmptyResultHandler());
   }
 
   @Override
   public <T> Queryable<List<T>> prepared(String key, RowHandler<T> rh) {
-    return new QueryablePreparedStatement<>(findOrCreate(key), new ResultRowHandler<>(rh));
+    return new QueryablePreparedStatement<>(cache, QB.get(key), new ResultRowHandler<>(rh));
   }
 
   @Override
   public <T> Queryable<T> prepared(String key, ResultHandler<T> rh) {
-    return new QueryablePreparedStatement<>(findOrCreate(key), rh);
+    return new QueryablePreparedStatement<>(cache, QB.get(key), rh);
   }
 
   @Override
   public <T> Queryable<T> prepared(String key, KeyHandler<T> kh) {
-    return new QueryableKeyedStatement<>(findOrCreateKeyed(key, kh.keyNames()), kh);
+    final String[] keyNames;
+    try {
+      keyNames = JDBCUtils.getDb(conn) == DBType.ORACLE ? kh.keyNames() : null;
+    } catch (final SQLException e) {
+      throw new StatementException(e);
+    }
+    return new QueryableKeyedStatement<>(cache, QB.get(key), keyNames, kh);
   }
 
   @Override
@@ -106,34 +110,4 @@ public class ConnectionQuery implements Query {
     }
   }
 
-  private PreparedStatement findOrCreate(String key) {
-    PreparedStatement st = map.get(key);
-    if (st == null) {
-      try {
-        st = conn.prepareStatement(QB.get(key));
-        map.put(key, st);
-      } catch (final SQLException e) {
-        throw new StatementException(e);
-      }
-    }
-    return st;
-  }
-
-  private PreparedStatement findOrCreateKeyed(String key, String[] keys) {
-    PreparedStatement st = map.get(key);
-    if (st == null) {
-      try {
-        if (JDBCUtils.getDb(conn) == DBType.ORACLE) {
-          st = conn.prepareStatement(QB.get(key), keys);
-        } else {
-          st = conn.prepareStatement(QB.get(key), Statement.RETURN_GENERATED_KEYS);
-        }
-        map.put(key, st);
-      } catch (final SQLException e) {
-        throw new StatementException(e);
-      }
-    }
-    return st;
-  }
-
 }
@@ -3,6 +3,8 @@ package com.surelogic.common.jdbc;
 import java.lang.reflect.Method;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
@@ -109,9 +111,31 @@ public final class QB {
     return result;
   }
 
+  /**
+   * The queries already looked up for a database type and qualifier. Replaced
+   * when either changes.
+   */
+  private static final class Resolved {
+    final DatabaseType type;
+    final String qualifier;
+    final ConcurrentMap<String, String> queries = new ConcurrentHashMap<>();
+
+    Resolved(DatabaseType type, String qualifier) {
+      this.type = type;
+      this.qualifier = qualifier;
+    }
+
+    boolean isFor(DatabaseType type, String qualifier) {
+      return this.type == type && (this.qualifier == null ? qualifier == null : this.qualifier.equals(qualifier));
+    }
+  }
+
+  private static final AtomicReference<Resolved> f_resolved = new AtomicReference<>(new Resolved(DatabaseType.derby, null));
+
   /**
    * This method basically implements {@link #get(String)}. It doesn't, however,
-   * log its result.
+   * log its result. Lookups are memoized for the current database type and
+   * qualifier.
    * 
    * @see #get(String)
    */
@@ -119,9 +143,22 @@ public final class QB {
     if (key == null)
       throw new IllegalArgumentException(I18N.err(44, "key"));
 
-    final String type = f_databaseType.get().toString();
+    final DatabaseType type = f_databaseType.get();
     final String qualifier = f_databaseQualifier.get();
+    Resolved resolved = f_resolved.get();
+    if (!resolved.isFor(type, qualifier)) {
+      resolved = new Resolved(type, qualifier);
+      f_resolved.set(resolved);
+    }
+    String result = resolved.queries.get(key);
+    if (result == null) {
+      result = lookupQueryString(key, type.toString(), qualifier);
+      resolved.queries.put(key, result);
+    }
+    return result;
+  }
 
+  private static String lookupQueryString(final String key, final String type, final String qualifier) {
     final String keyDotType = key + "." + type;
     if (qualifier != null) {
       final String keyDotTypeDotQualifier = keyDotType + "." + qualifier;
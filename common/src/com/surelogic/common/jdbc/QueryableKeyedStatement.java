@@ -4,12 +4,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * A queryable prepared statement that returns the keys generated when called.
  * Arguments passed to call are interpreted as parameters to the statement, and
  * should be of the form specified by
- * {@link JDBCUtils#fill(PreparedStatement, Object[])}
+ * {@link JDBCUtils#fill(PreparedStatement, Object[])}. Statements prepared by
+ * a {@link ConnectionQuery} are checked out of the {@link StatementCache} of
+ * the connection for each {@link #call(Object...)}, and checked back in when
+ * it returns.
  * 
  * @author nathan
  * 
@@ -17,42 +21,92 @@ import java.sql.SQLException;
  */
 public class QueryableKeyedStatement<T> implements Queryable<T> {
 
+	/**
+	 * The statement owned by this object, or {@code null} if statements are
+	 * checked out of {@link #cache}.
+	 */
 	private final PreparedStatement st;
 	private final KeyHandler<T> kh;
+	/**
+	 * The cache statements for {@link #sql} are checked out of, or
+	 * {@code null} if {@link #st} is owned by this object.
+	 */
+	private final StatementCache cache;
+	private final String sql;
+	/**
+	 * The names of the key columns to return, or {@code null} if the keys
+	 * generated are returned.
+	 */
+	private final String[] keyNames;
 
 	public QueryableKeyedStatement(PreparedStatement st, KeyHandler<T> kh) {
 		this.st = st;
 		this.kh = kh;
+		cache = null;
+		sql = null;
+		keyNames = null;
+	}
+
+	/**
+	 * Constructs a queryable statement that checks a statement for the passed
+	 * SQL out of a statement cache for each call.
+	 */
+	QueryableKeyedStatement(StatementCache cache, String sql,
+			String[] keyNames, KeyHandler<T> kh) {
+		st = null;
+		this.kh = kh;
+		this.cache = cache;
+		this.sql = sql;
+		this.keyNames = keyNames;
 	}
 
 	public QueryableKeyedStatement(Connection conn, String key, KeyHandler<T> kh) {
+		this(prepare(conn, key), kh);
+	}
+
+	private static PreparedStatement prepare(Connection conn, String key) {
 		try {
-			st = conn.prepareStatement(QB.get(key));
+			return conn.prepareStatement(QB.get(key));
 		} catch (final SQLException e) {
 			throw new StatementException(e);
 		}
-		this.kh = kh;
 	}
 
 	@Override
   public T call(Object... args) {
 		try {
-			JDBCUtils.fill(st, args);
-			st.execute();
-			final ResultSet set = st.getGeneratedKeys();
-			set.next();
-			return kh.handle(new ResultSetRow(set));
+			if (cache == null) {
+				return call(st, args);
+			}
+			final PreparedStatement checkedOut = keyNames == null ? cache
+					.prepare(sql, Statement.RETURN_GENERATED_KEYS) : cache
+					.prepare(sql, keyNames);
+			try {
+				return call(checkedOut, args);
+			} finally {
+				cache.checkIn(checkedOut);
+			}
 		} catch (final SQLException e) {
 			throw new StatementException(e);
 		}
 	}
 
+	private T call(PreparedStatement st, Object... args) throws SQLException {
+		JDBCUtils.fill(st, args);
+		st.execute();
+		final ResultSet set = st.getGeneratedKeys();
+		set.next();
+		return kh.handle(new ResultSetRow(set));
+	}
+
 	@Override
   public void finished() {
-		try {
-			st.close();
-		} catch (final SQLException e) {
-			throw new StatementException(e);
+		if (cache == null) {
+			try {
+				st.close();
+			} catch (final SQLException e) {
+				throw new StatementException(e);
+			}
 		}
 	}
 
@@ -7,7 +7,10 @@ import java.sql.SQLException;
 /**
  * A queryable prepared statement. Arguments passed to call are interpreted as
  * parameters to the statement, and should be of the form specified by
- * {@link JDBCUtils#fill(PreparedStatement, Object[])}
+ * {@link JDBCUtils#fill(PreparedStatement, Object[])}. Statements prepared from
+ * a query bank key are checked out of the {@link StatementCache} of the
+ * connection for each {@link #call(Object...)}, and checked back in when it
+ * returns, so nothing need be done by {@link #finished()}.
  * 
  * @author nathan
  * 
@@ -15,47 +18,81 @@ import java.sql.SQLException;
  */
 public class QueryablePreparedStatement<T> implements Queryable<T> {
 
+	/**
+	 * The statement owned by this object, or {@code null} if statements are
+	 * checked out of {@link #cache}.
+	 */
 	private final PreparedStatement st;
 	private final ResultHandler<T> rh;
+	/**
+	 * The cache statements for {@link #sql} are checked out of, or
+	 * {@code null} if {@link #st} is owned by this object.
+	 */
+	private final StatementCache cache;
+	private final String sql;
 
 	public QueryablePreparedStatement(final PreparedStatement st,
 			final ResultHandler<T> rh) {
 		this.st = st;
 		this.rh = rh;
+		cache = null;
+		sql = null;
 	}
 
-	public QueryablePreparedStatement(final Connection conn, final String key,
+	/**
+	 * Constructs a queryable statement that checks a statement for the passed
+	 * SQL out of a statement cache for each call.
+	 */
+	QueryablePreparedStatement(final StatementCache cache, final String sql,
 			final ResultHandler<T> rh) {
-		try {
-			st = conn.prepareStatement(QB.get(key));
-		} catch (final SQLException e) {
-			throw new StatementException(e);
-		}
+		st = null;
 		this.rh = rh;
+		this.cache = cache;
+		this.sql = sql;
+	}
+
+	public QueryablePreparedStatement(final Connection conn, final String key,
+			final ResultHandler<T> rh) {
+		this(StatementCache.forConnection(conn), QB.get(key), rh);
 	}
 
 	@Override
 	public T call(final Object... args) {
 		try {
-			JDBCUtils.fill(st, args);
-			st.execute();
-			final ResultSetResult rs = new ResultSetResult(st.getResultSet());
+			if (cache == null) {
+				return call(st, args);
+			}
+			final PreparedStatement checkedOut = cache.prepare(sql);
 			try {
-				return rh.handle(rs);
+				return call(checkedOut, args);
 			} finally {
-				rs.close();
+				cache.checkIn(checkedOut);
 			}
 		} catch (final SQLException e) {
 			throw new StatementException(e);
 		}
 	}
 
+	private T call(final PreparedStatement st, final Object... args)
+			throws SQLException {
+		JDBCUtils.fill(st, args);
+		st.execute();
+		final ResultSetResult rs = new ResultSetResult(st.getResultSet());
+		try {
+			return rh.handle(rs);
+		} finally {
+			rs.close();
+		}
+	}
+
 	@Override
 	public void finished() {
-		try {
-			st.close();
-		} catch (final SQLException e) {
-			throw new StatementException(e);
+		if (cache == null) {
+			try {
+				st.close();
+			} catch (final SQLException e) {
+				throw new StatementException(e);
+			}
 		}
 	}
 
@@ -74,6 +74,7 @@ public final class ResultSetUtility {
      *             if something fails while working with the result set.
      * @throws IllegalArgumentException
      *             if the result set is null.
+     * @see ColumnarResult#read(ResultSet, int)
      */
     public static Result getRows(final ResultSet rs, final int maxRows,
             final String[] labels) throws SQLException {
@@ -0,0 +1,444 @@
+package com.surelogic.common.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * A least-recently-used cache of the prepared statements of a single
+ * {@link Connection}. Every {@link Query} created on a connection, and every
+ * {@link BaseMapper} and {@link QueryablePreparedStatement} constructed from
+ * one, obtains its statements through the cache for that connection, so that
+ * repeated short transactions on the same connection do not prepare the same
+ * SQL again.
+ * <p>
+ * A cache is only shared by everyone using a connection if the connection was
+ * passed to {@link #register(Connection)}, e.g., by a connection pool, which
+ * must pass it to {@link #release(Connection)} when it closes it. Any other
+ * connection gets a new cache from each call to
+ * {@link #forConnection(Connection)}, which is dropped along with its caller,
+ * so that nothing holds on to connections that are simply closed.
+ * <p>
+ * A statement obtained from {@link #prepare(String)} is checked out to the
+ * caller until it is given back with {@link #checkIn(Statement)}, and is never
+ * handed to anyone else in the meantime. If the cached statement for some SQL
+ * is checked out, e.g., by an enclosing query running the same SQL, another
+ * statement is prepared for the new caller and closed when it is checked in.
+ * Statements evicted from the cache are closed once they are checked in, never
+ * while a caller holds them. A cached statement that has been closed is
+ * prepared again on its next use.
+ * <p>
+ * The number of statements kept per connection may be set with the
+ * {@value #SIZE_PROP} system property. Instances are thread-safe.
+ */
+public final class StatementCache {
+
+  /**
+   * The system property that sets the maximum number of statements kept per
+   * connection. A value of <tt>0</tt> disables caching.
+   */
+  public static final String SIZE_PROP = "com.surelogic.common.jdbc.statementCacheSize";
+
+  public static final int DEFAULT_SIZE = 64;
+
+  static final int SIZE = Math.max(0, Integer.getInteger(SIZE_PROP, DEFAULT_SIZE));
+
+  /**
+   * The caches of registered connections.
+   */
+  private static final Map<Connection, StatementCache> CACHES = new HashMap<>();
+
+  private static final AtomicLong TOTAL_HITS = new AtomicLong();
+  private static final AtomicLong TOTAL_MISSES = new AtomicLong();
+
+  /**
+   * Returns the statement cache of the given connection. If the connection is
+   * not registered, a new cache is returned that is not shared with anyone
+   * else.
+   *
+   * @param conn
+   *          a connection.
+   * @return the cache for <tt>conn</tt>.
+   */
+  public static StatementCache forConnection(final Connection conn) {
+    if (conn == null) {
+      throw new IllegalArgumentException("conn must be non-null");
+    }
+    synchronized (CACHES) {
+      final StatementCache cache = CACHES.get(conn);
+      if (cache != null) {
+        return cache;
+      }
+    }
+    return new StatementCache(conn, SIZE);
+  }
+
+  /**
+   * Registers a connection, so that everyone using it shares one statement
+   * cache. The cache, and the connection, are held until
+   * {@link #release(Connection)} is called.
+   *
+   * @param conn
+   *          a connection.
+   * @return the shared cache for <tt>conn</tt>.
+   */
+  public static StatementCache register(final Connection conn) {
+    if (conn == null) {
+      throw new IllegalArgumentException("conn must be non-null");
+    }
+    synchronized (CACHES) {
+      StatementCache cache = CACHES.get(conn);
+      if (cache == null) {
+        cache = new StatementCache(conn, SIZE);
+        CACHES.put(conn, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Discards the statement cache of the given registered connection, closing
+   * its statements.
+   */
+  public static void release(final Connection conn) {
+    final StatementCache cache;
+    synchronized (CACHES) {
+      cache = CACHES.remove(conn);
+    }
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Gives back a statement obtained from the statement cache of the passed
+   * connection, closing it if that cache does not keep it or the connection
+   * is not registered.
+   *
+   * @param conn
+   *          the connection that created <tt>st</tt>.
+   * @param st
+   *          a statement.
+   * @see #checkIn(Statement)
+   */
+  public static void checkIn(final Connection conn, final Statement st) throws SQLException {
+    final StatementCache cache;
+    synchronized (CACHES) {
+      cache = CACHES.get(conn);
+    }
+    if (cache == null) {
+      st.close();
+    } else {
+      cache.checkIn(st);
+    }
+  }
+
+  /**
+   * The number of statements served from a cache, over all connections.
+   */
+  public static long getTotalHits() {
+    return TOTAL_HITS.get();
+  }
+
+  /**
+   * The number of statements that had to be prepared, over all connections.
+   */
+  public static long getTotalMisses() {
+    return TOTAL_MISSES.get();
+  }
+
+  static final class Key {
+    final String sql;
+    final int autoGeneratedKeys;
+    final String[] columnNames;
+
+    Key(String sql, int autoGeneratedKeys, String[] columnNames) {
+      this.sql = sql;
+      this.autoGeneratedKeys = autoGeneratedKeys;
+      this.columnNames = columnNames;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + autoGeneratedKeys;
+      result = prime * result + Arrays.hashCode(columnNames);
+      result = prime * result + sql.hashCode();
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      final Key other = (Key) obj;
+      return autoGeneratedKeys == other.autoGeneratedKeys && sql.equals(other.sql)
+          && Arrays.equals(columnNames, other.columnNames);
+    }
+  }
+
+  /**
+   * A cached statement and whether it is checked out.
+   */
+  private static final class CacheEntry {
+    final PreparedStatement statement;
+    boolean checkedOut;
+    /**
+     * Set when the entry is evicted while it is checked out, so that the
+     * statement is closed when it is checked in.
+     */
+    boolean evicted;
+
+    CacheEntry(PreparedStatement statement) {
+      this.statement = statement;
+    }
+  }
+
+  /**
+   * Used as the auto-generated keys flag of statements prepared without one.
+   */
+  private static final int NO_FLAG = -1;
+
+  private final Connection f_conn;
+  private final Map<Key, CacheEntry> f_statements;
+  /**
+   * The entries of the statements checked out, including evicted ones.
+   */
+  private final Map<Statement, CacheEntry> f_checkedOut = new IdentityHashMap<>();
+  private long f_hits;
+  private long f_misses;
+  private long f_evictions;
+
+  private StatementCache(final Connection conn, final int maxSize) {
+    f_conn = conn;
+    f_statements = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+        if (size() > maxSize) {
+          f_evictions++;
+          final CacheEntry entry = eldest.getValue();
+          if (entry.checkedOut) {
+            entry.evicted = true;
+          } else {
+            close(entry.statement);
+          }
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Checks out a prepared statement for the given SQL. The statement must be
+   * given back with {@link #checkIn(Statement)} rather than closed.
+   *
+   * @see Connection#prepareStatement(String)
+   */
+  public PreparedStatement prepare(final String sql) throws SQLException {
+    return prepare(new Key(sql, NO_FLAG, null));
+  }
+
+  /**
+   * Checks out a prepared statement for the given SQL that can return
+   * auto-generated keys.
+   *
+   * @see Connection#prepareStatement(String, int)
+   */
+  public PreparedStatement prepare(final String sql, final int autoGeneratedKeys) throws SQLException {
+    return prepare(new Key(sql, autoGeneratedKeys, null));
+  }
+
+  /**
+   * Checks out a prepared statement for the given SQL that returns the named
+   * auto-generated key columns.
+   *
+   * @see Connection#prepareStatement(String, String[])
+   */
+  public PreparedStatement prepare(final String sql, final String[] columnNames) throws SQLException {
+    return prepare(new Key(sql, NO_FLAG, columnNames.clone()));
+  }
+
+  /**
+   * Adds a statement prepared outside this cache for the given SQL, e.g., once
+   * it is known to work, and checks it out to the caller. If this cache
+   * already holds a statement for the SQL, the passed statement is not kept
+   * and is closed when it is checked in.
+   *
+   * @param sql
+   *          the SQL <tt>st</tt> was prepared from with
+   *          {@link Connection#prepareStatement(String)}.
+   * @param st
+   *          a statement prepared on the connection of this cache.
+   * @return <tt>st</tt>, checked out.
+   */
+  public synchronized PreparedStatement add(final String sql, final PreparedStatement st) {
+    final Key key = new Key(sql, NO_FLAG, null);
+    if (SIZE > 0 && !f_statements.containsKey(key)) {
+      final CacheEntry entry = new CacheEntry(st);
+      entry.checkedOut = true;
+      f_statements.put(key, entry);
+      f_checkedOut.put(st, entry);
+    }
+    return st;
+  }
+
+  private synchronized PreparedStatement prepare(final Key key) throws SQLException {
+    final CacheEntry cached = f_statements.get(key);
+    if (cached != null && !cached.checkedOut) {
+      if (!isClosed(cached.statement)) {
+        f_hits++;
+        TOTAL_HITS.incrementAndGet();
+        cached.checkedOut = true;
+        f_checkedOut.put(cached.statement, cached);
+        return cached.statement;
+      }
+      f_statements.remove(key);
+    }
+    f_misses++;
+    TOTAL_MISSES.incrementAndGet();
+    final PreparedStatement st;
+    if (key.columnNames != null) {
+      st = f_conn.prepareStatement(key.sql, key.columnNames);
+    } else if (key.autoGeneratedKeys != NO_FLAG) {
+      st = f_conn.prepareStatement(key.sql, key.autoGeneratedKeys);
+    } else {
+      st = f_conn.prepareStatement(key.sql);
+    }
+    if (SIZE > 0 && (cached == null || !cached.checkedOut)) {
+      // otherwise, the cached statement is checked out and this one is extra
+      final CacheEntry entry = new CacheEntry(st);
+      entry.checkedOut = true;
+      f_statements.put(key, entry);
+      f_checkedOut.put(st, entry);
+    }
+    return st;
+  }
+
+  /**
+   * Gives back a statement obtained from {@link #prepare(String)}, or one of
+   * its overloads, so that it can be handed out again. Statements this cache
+   * does not keep, either because it evicted them or because they were
+   * prepared while the cached statement was checked out, are closed.
+   *
+   * @param st
+   *          a statement checked out from this cache.
+   */
+  public void checkIn(final Statement st) throws SQLException {
+    final boolean close;
+    synchronized (this) {
+      final CacheEntry entry = f_checkedOut.remove(st);
+      if (entry != null) {
+        entry.checkedOut = false;
+        close = entry.evicted;
+      } else {
+        close = true;
+      }
+    }
+    if (close) {
+      st.close();
+    }
+  }
+
+  /**
+   * Checks in every statement still checked out, e.g., when the connection is
+   * returned to a pool and no caller can still be using them. Evicted
+   * statements are closed.
+   */
+  public synchronized void checkInAll() {
+    for (final CacheEntry entry : f_checkedOut.values()) {
+      entry.checkedOut = false;
+      if (entry.evicted) {
+        close(entry.statement);
+      }
+    }
+    f_checkedOut.clear();
+  }
+
+  private static boolean isClosed(final PreparedStatement st) {
+    try {
+      return st.isClosed();
+    } catch (final SQLException e) {
+      return true;
+    }
+  }
+
+  private static void close(final Statement st) {
+    try {
+      st.close();
+    } catch (final SQLException e) {
+      SLLogger.getLogger().log(Level.WARNING, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Checks whether the given statement is held by this cache.
+   */
+  public synchronized boolean isCached(final Statement st) {
+    for (final CacheEntry entry : f_statements.values()) {
+      if (entry.statement == st) {
+        return true;
+      }
+    }
+    final CacheEntry entry = f_checkedOut.get(st);
+    return entry != null && !entry.evicted;
+  }
+
+  /**
+   * Closes and forgets every cached statement.
+   */
+  public synchronized void clear() {
+    for (final CacheEntry entry : f_statements.values()) {
+      close(entry.statement);
+    }
+    for (final CacheEntry entry : f_checkedOut.values()) {
+      if (entry.evicted) {
+        close(entry.statement);
+      }
+    }
+    f_statements.clear();
+    f_checkedOut.clear();
+  }
+
+  public synchronized long getHits() {
+    return f_hits;
+  }
+
+  public synchronized long getMisses() {
+    return f_misses;
+  }
+
+  public synchronized long getEvictions() {
+    return f_evictions;
+  }
+
+  public synchronized int size() {
+    return f_statements.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "StatementCache [size=" + f_statements.size() + ", hits=" + f_hits + ", misses=" + f_misses + ", evictions="
+        + f_evictions + "]";
+  }
+}
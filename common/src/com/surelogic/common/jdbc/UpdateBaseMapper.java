@@ -6,39 +6,36 @@ import java.sql.SQLException;
 
 public class UpdateBaseMapper extends BaseMapper implements UpdateRecordMapper {
 
-	private final PreparedStatement update;
+	private final String updateSql;
 
 	public UpdateBaseMapper(Connection conn, String insertSql,
 			String selectSql, String deleteSql, String updateSql,
 			boolean generateKeys) throws SQLException {
 		super(conn, insertSql, selectSql, deleteSql, generateKeys);
-		if (updateSql != null) {
-			update = conn.prepareStatement(updateSql);
-		} else {
-			update = null;
-		}
+		this.updateSql = updateSql;
 	}
 
 	public UpdateBaseMapper(Connection conn, String insertSql,
 			String selectSql, String deleteSql, String updateSql)
 			throws SQLException {
 		super(conn, insertSql, selectSql, deleteSql);
-		if (updateSql != null) {
-			update = conn.prepareStatement(updateSql);
-		} else {
-			update = null;
-		}
+		this.updateSql = updateSql;
 	}
 
 	@Override
   public void update(AbstractUpdatableRecord<?> record) {
 		try {
-			if (update == null) {
+			if (updateSql == null) {
 				throw new UnsupportedOperationException();
 			}
-			final int idx = record.fillUpdatedFields(update, 1);
-			record.fillWithPk(update, idx);
-			update.executeUpdate();
+			final PreparedStatement update = checkOut(updateSql);
+			try {
+				final int idx = record.fillUpdatedFields(update, 1);
+				record.fillWithPk(update, idx);
+				update.executeUpdate();
+			} finally {
+				checkIn(update);
+			}
 		} catch (final SQLException e) {
 			throw new RecordException(e);
 		}
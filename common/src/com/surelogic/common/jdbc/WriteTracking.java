@@ -0,0 +1,25 @@
+package com.surelogic.common.jdbc;
+
+/**
+ * Implemented by a {@link DBConnection} that knows when writes to its database
+ * commit. Anything read from such a database may be reused for as long as its
+ * write generation does not change. Results read from a {@link DBConnection}
+ * that does not implement this interface should not be reused.
+ */
+public interface WriteTracking {
+
+	/**
+	 * Returned by {@link #getWriteGeneration()} when writes to the database are
+	 * not being tracked.
+	 */
+	public static final int NOT_TRACKED = -1;
+
+	/**
+	 * Gets the write generation of the database. It advances each time a write
+	 * to the database may have been committed.
+	 * 
+	 * @return the write generation of the database, or {@link #NOT_TRACKED} if
+	 *         writes to the database are not currently being tracked.
+	 */
+	public int getWriteGeneration();
+}
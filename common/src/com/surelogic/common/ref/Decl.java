@@ -1753,6 +1753,8 @@ public abstract class Decl implements IDecl {
     IDecl dThis = this;
     IDecl dO = o;
     while (true) {
+      if (dThis == dO)
+        return true;
       if (dThis.isSameSimpleDeclarationAs(dO)) {
         dThis = dThis.getParent();
         dO = dO.getParent();
@@ -1772,6 +1774,8 @@ public abstract class Decl implements IDecl {
     IDecl dThis = this;
     IDecl dO = o;
     while (true) {
+      if (dThis == dO)
+        return true;
       if (dThis.isSameSimpleDeclarationAsSloppy(dO, true)) {
         dThis = dThis.getParent();
         dO = dO.getParent();
@@ -1800,6 +1804,8 @@ public abstract class Decl implements IDecl {
 
   @Override
   public final boolean equals(Object obj) {
+    if (obj == this)
+      return true;
     if (obj instanceof IDecl)
       return isSameDeclarationAs((IDecl) obj);
     else
@@ -2021,6 +2027,51 @@ public abstract class Decl implements IDecl {
     return b.toString();
   }
 
+  /**
+   * Encodes a single node of a declaration tree, with all of its children
+   * except one, for persistence as a string. The node is marked as the
+   * declaration to return, so that
+   * {@link #parseEncodedNodeToDeclBuilder(DeclBuilder, String)} gives its
+   * builder. Used by {@link JavaRefCodec} to share the nodes that the trees of
+   * many declarations have in common.
+   * 
+   * @param decl
+   *          any declaration.
+   * @param omit
+   *          a child of <tt>decl</tt> to leave out, or {@code null} to encode
+   *          all of its children.
+   * @return a string.
+   */
+  @NonNull
+  static String encodeNodeForPersistence(@NonNull final IDecl decl, @Nullable final IDecl omit) {
+    final StringBuilder b = new StringBuilder();
+    encodeHelper(decl, b, decl, omit);
+    return b.toString();
+  }
+
+  /**
+   * Parses the result of {@link #encodeNodeForPersistence(IDecl, IDecl)} back
+   * to a {@link DeclBuilder}, which is added as the last child of the passed
+   * builder.
+   * 
+   * @param parent
+   *          the builder of the parent of the encoded node, {@code null} at
+   *          the root.
+   * @param value
+   *          an encoded string.
+   * @return the builder of the encoded node.
+   * 
+   * @throws IllegalArgumentException
+   *           if something goes wrong.
+   */
+  @NonNull
+  static DeclBuilder parseEncodedNodeToDeclBuilder(@Nullable final DeclBuilder parent, @NonNull final String value) {
+    final DeclBuilder result = parseToBuilderHelper(parent, new StringBuilder(value));
+    if (result == null)
+      throw new IllegalArgumentException("no encoded declaration to return found in: " + value);
+    return result;
+  }
+
   /**
    * Recursive call to encode a declaration and its children into the passed
    * {@link StringBuilder}.
@@ -2031,6 +2082,10 @@ public abstract class Decl implements IDecl {
    *          a mutable string.
    */
   private static void encodeHelper(final IDecl decl, final StringBuilder b, final IDecl toReturn) {
+    encodeHelper(decl, b, toReturn, null);
+  }
+
+  private static void encodeHelper(final IDecl decl, final StringBuilder b, final IDecl toReturn, final IDecl omit) {
     if (decl == null)
       throw new IllegalArgumentException(I18N.err(44, "decl"));
     if (decl == toReturn)
@@ -2115,7 +2170,8 @@ public abstract class Decl implements IDecl {
       break;
     }
     for (final IDecl child : decl.getChildren()) {
-      encodeHelper(child, b, toReturn);
+      if (child != omit)
+        encodeHelper(child, b, toReturn);
     }
     b.append(END);
   }
@@ -2145,7 +2201,9 @@ public abstract class Decl implements IDecl {
 
   /**
    * Parses the result of {@link #encodeForPersistence(IDecl)} back to a
-   * {@link IDecl}.
+   * {@link IDecl}. Identical declarations, e.g., of the many results about
+   * the same method in a snapshot, are parsed only once and returned as the
+   * same instance while it is still referenced.
    * 
    * @param value
    *          an encoded string.
@@ -2156,7 +2214,34 @@ public abstract class Decl implements IDecl {
    */
   @NonNull
   public static IDecl parseEncodedForPersistence(@NonNull final String value) {
-    return parseEncodedForPersistenceToDeclBuilder(value).build();
+    if (value == null)
+      throw new IllegalArgumentException(I18N.err(44, "value"));
+    final String key = value.trim();
+    final IDecl cached = DeclCache.get(key);
+    if (cached != null)
+      return cached;
+    final IDecl result = canonicalize(parseEncodedForPersistenceToDeclBuilder(key).build());
+    if (DeclCache.DISABLE)
+      return result;
+    // cache under the passed encoding as well, in case it is not canonical
+    return DeclCache.canonicalize(key, result);
+  }
+
+  /**
+   * Gets the canonical instance of a declaration read from persistence, so
+   * that identical declarations read from a snapshot are the same instance
+   * while it is still referenced. Declarations built by a {@link DeclBuilder}
+   * are not canonicalized, so that building them stays cheap.
+   * 
+   * @param decl
+   *          a declaration.
+   * @return the canonical instance of <tt>decl</tt>.
+   */
+  @NonNull
+  static IDecl canonicalize(@NonNull final IDecl decl) {
+    if (DeclCache.DISABLE)
+      return decl;
+    return DeclCache.canonicalize(encodeForPersistence(decl), decl);
   }
 
   /**
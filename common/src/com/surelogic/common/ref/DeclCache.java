@@ -0,0 +1,114 @@
+package com.surelogic.common.ref;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.surelogic.NonNull;
+import com.surelogic.ThreadSafe;
+
+/**
+ * Canonicalizes declarations so that identical declarations, e.g., those of
+ * the many results about the same method in a snapshot, are the same instance.
+ * Only declarations read from persistence, by
+ * {@link Decl#parseEncodedForPersistence(String)} or {@link JavaRefCodec}, are
+ * canonicalized.
+ * <p>
+ * A declaration knows both its parent and its children, so a node can only be
+ * shared if its whole tree is the same. Declarations are therefore keyed on
+ * their {@link Decl#encodeForPersistence(IDecl)} string, which records the
+ * kind, name, and attributes of every node of the tree and which node is the
+ * declaration. Values are weakly held, so a declaration is dropped from the
+ * cache once nothing else refers to it.
+ * <p>
+ * Setting the {@value #DISABLE_PROP} system property to <tt>true</tt> turns
+ * canonicalization off.
+ */
+@ThreadSafe
+final class DeclCache {
+
+  static final String DISABLE_PROP = "com.surelogic.common.ref.disableDeclCache";
+
+  static final boolean DISABLE = Boolean.getBoolean(DISABLE_PROP);
+
+  /**
+   * A weak reference to a declaration that remembers its key, so it can be
+   * removed from the cache once the declaration is collected.
+   */
+  private static final class Value extends WeakReference<IDecl> {
+    final String f_key;
+
+    Value(String key, IDecl decl, ReferenceQueue<IDecl> queue) {
+      super(decl, queue);
+      f_key = key;
+    }
+  }
+
+  private static final ConcurrentMap<String, Value> f_cache = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<IDecl> f_collected = new ReferenceQueue<>();
+
+  /**
+   * Gets the canonical instance of a declaration.
+   *
+   * @param key
+   *          the encoding of <tt>decl</tt> for persistence.
+   * @param decl
+   *          a declaration.
+   * @return the declaration cached for <tt>key</tt>, or <tt>decl</tt> if none
+   *         was, in which case <tt>decl</tt> is cached.
+   */
+  @NonNull
+  static IDecl canonicalize(@NonNull final String key, @NonNull final IDecl decl) {
+    if (DISABLE)
+      return decl;
+    purge();
+    final Value value = new Value(key, decl, f_collected);
+    while (true) {
+      final Value cached = f_cache.putIfAbsent(key, value);
+      if (cached == null)
+        return decl;
+      final IDecl result = cached.get();
+      if (result != null)
+        return result;
+      // collected but not yet purged
+      if (f_cache.replace(key, cached, value))
+        return decl;
+    }
+  }
+
+  /**
+   * Gets the cached declaration with the passed encoding, if any.
+   *
+   * @param key
+   *          the encoding of a declaration for persistence.
+   * @return the cached declaration, or {@code null} if none is cached.
+   */
+  static IDecl get(@NonNull final String key) {
+    if (DISABLE)
+      return null;
+    final Value cached = f_cache.get(key);
+    return cached == null ? null : cached.get();
+  }
+
+  /**
+   * Gets the number of declarations cached, including any that have been
+   * collected but not yet removed.
+   *
+   * @return the number of declarations cached.
+   */
+  static int size() {
+    return f_cache.size();
+  }
+
+  private static void purge() {
+    Value collected;
+    while ((collected = (Value) f_collected.poll()) != null) {
+      f_cache.remove(collected.f_key, collected);
+    }
+  }
+
+  private DeclCache() {
+    // no instances
+  }
+}
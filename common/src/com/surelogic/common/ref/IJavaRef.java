@@ -18,7 +18,9 @@ import com.surelogic.common.ref.JavaRef.Builder;
  * Encoding into a text string (via {@link #encodeForPersistence()}) and
  * decoding back into an instance (via
  * {@link JavaRef#parseEncodedForPersistence(String)}) are supported, for
- * example, to persist to and restore from an XML attribute.
+ * example, to persist to and restore from an XML attribute. Large numbers of
+ * code references are better persisted to a stream with a
+ * {@link JavaRefCodec.Writer}, which shares their declarations.
  */
 @Immutable
 @ValueObject
@@ -0,0 +1,370 @@
+package com.surelogic.common.ref;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.surelogic.NonNull;
+import com.surelogic.NotThreadSafe;
+import com.surelogic.Nullable;
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.ref.Decl.DeclBuilder;
+
+/**
+ * A compact binary encoding of a sequence of code references, for persisting
+ * the many references of a snapshot. The text encoding of
+ * {@link IJavaRef#encodeForPersistence()} repeats the whole declaration tree,
+ * from its package down, in every reference. This encoding instead writes each
+ * node of a declaration tree, and each string, once, the first time a
+ * reference needs it, and later references just give its number.
+ * <p>
+ * A node is written as the number of its parent, its position among the
+ * children of its parent, and its text encoding, without the child that leads
+ * to the declaration of the reference. Nodes that are the same in many trees,
+ * e.g., the package and class of the methods of a class, are thus written only
+ * once. A reference is written as the numbers of its strings and of the node
+ * of its declaration, and its line, offset, and length as variable-length
+ * integers.
+ * <p>
+ * The encoding is version {@value #VERSION}, following the text encoding
+ * versions, which {@link JavaRef#parseEncodedForPersistence(String)} still
+ * reads.
+ */
+public final class JavaRefCodec {
+
+  public static final int VERSION = 4;
+
+  private static final int MAGIC = 0x534C4A52; // "SLJR"
+
+  private static final int TAG_END = 0;
+  private static final int TAG_STRING = 1;
+  private static final int TAG_NODE = 2;
+  private static final int TAG_REF = 3;
+
+  /**
+   * Writes code references to a stream.
+   */
+  @NotThreadSafe
+  public static final class Writer implements Closeable {
+
+    private final DataOutputStream f_out;
+    private final Map<String, Integer> f_stringIds = new HashMap<>();
+    /**
+     * Parent number, position, and text encoding of a node &rarr; node number.
+     */
+    private final Map<String, Integer> f_nodeIds = new HashMap<>();
+    /**
+     * Declarations already written. Identical declarations are often the same
+     * instance, so most lookups are answered here without encoding any nodes.
+     */
+    private final Map<IDecl, Integer> f_declIds = new IdentityHashMap<>();
+
+    /**
+     * Constructs a writer and writes the header of the encoding.
+     *
+     * @param out
+     *          the stream to write to, which is closed by {@link #close()}.
+     * @throws IOException
+     *           if the header can't be written.
+     */
+    public Writer(@NonNull final OutputStream out) throws IOException {
+      if (out == null)
+        throw new IllegalArgumentException(I18N.err(44, "out"));
+      f_out = new DataOutputStream(new BufferedOutputStream(out));
+      f_out.writeInt(MAGIC);
+      f_out.writeInt(VERSION);
+    }
+
+    /**
+     * Writes a code reference.
+     *
+     * @param ref
+     *          a code reference.
+     * @throws IOException
+     *           if the reference can't be written.
+     */
+    public void write(@NonNull final IJavaRef ref) throws IOException {
+      if (ref == null)
+        throw new IllegalArgumentException(I18N.err(44, "ref"));
+      final int within = getStringId(ref.getWithin().name());
+      final int position = getStringId(ref.getPositionRelativeToDeclaration().name());
+      final int project = getStringIdOrZero(ref.getEclipseProjectNameOrNull());
+      final int absolutePath = getStringIdOrZero(ref.getAbsolutePathOrNull());
+      final int jarRelativePath = getStringIdOrZero(ref.getJarRelativePathOrNull());
+      final int decl = getDeclId(ref.getDeclaration());
+      f_out.writeByte(TAG_REF);
+      writeVarInt(f_out, within);
+      writeVarInt(f_out, position);
+      writeVarInt(f_out, project);
+      writeVarInt(f_out, zigzag(ref.getLineNumber()));
+      writeVarInt(f_out, zigzag(ref.getOffset()));
+      writeVarInt(f_out, zigzag(ref.getLength()));
+      writeVarInt(f_out, absolutePath);
+      writeVarInt(f_out, jarRelativePath);
+      writeVarInt(f_out, decl);
+    }
+
+    /**
+     * Writes the end of the encoding and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+      try {
+        f_out.writeByte(TAG_END);
+      } finally {
+        f_out.close();
+      }
+    }
+
+    private int getStringIdOrZero(@Nullable final String value) throws IOException {
+      return value == null ? 0 : getStringId(value) + 1;
+    }
+
+    private int getStringId(@NonNull final String value) throws IOException {
+      Integer result = f_stringIds.get(value);
+      if (result == null) {
+        result = f_stringIds.size();
+        f_stringIds.put(value, result);
+        f_out.writeByte(TAG_STRING);
+        writeString(f_out, value);
+      }
+      return result;
+    }
+
+    private int getDeclId(@NonNull final IDecl decl) throws IOException {
+      Integer result = f_declIds.get(decl);
+      if (result == null) {
+        final List<IDecl> path = new ArrayList<>();
+        for (IDecl node = decl; node != null; node = node.getParent()) {
+          path.add(node);
+        }
+        int parentId = -1;
+        for (int i = path.size() - 1; i >= 0; i--) {
+          final IDecl node = path.get(i);
+          final IDecl onPath = i > 0 ? path.get(i - 1) : null;
+          final int slot = node.getParent() == null ? 0 : indexOf(node.getParent().getChildren(), node);
+          final String text = Decl.encodeNodeForPersistence(node, onPath);
+          final String key = parentId + "|" + slot + "|" + text;
+          Integer id = f_nodeIds.get(key);
+          if (id == null) {
+            id = f_nodeIds.size();
+            f_nodeIds.put(key, id);
+            f_out.writeByte(TAG_NODE);
+            writeVarInt(f_out, parentId + 1);
+            writeVarInt(f_out, slot);
+            writeString(f_out, text);
+          }
+          parentId = id;
+        }
+        result = parentId;
+        f_declIds.put(decl, result);
+      }
+      return result;
+    }
+
+    private static int indexOf(final List<IDecl> children, final IDecl child) {
+      for (int i = 0; i < children.size(); i++) {
+        if (children.get(i) == child)
+          return i;
+      }
+      throw new IllegalStateException(child + " is not a child of its parent");
+    }
+  }
+
+  /**
+   * Reads code references from a stream written by a {@link Writer}. The
+   * declaration of a node is only built the first time a reference to it is
+   * read, and is then shared by all the references to it.
+   */
+  @NotThreadSafe
+  public static final class Reader implements Closeable {
+
+    private static final class Node {
+      final int f_parent;
+      final int f_slot;
+      final String f_text;
+      IDecl f_decl;
+
+      Node(int parent, int slot, String text) {
+        f_parent = parent;
+        f_slot = slot;
+        f_text = text;
+      }
+    }
+
+    private final DataInputStream f_in;
+    private final List<String> f_strings = new ArrayList<>();
+    private final List<Node> f_nodes = new ArrayList<>();
+
+    /**
+     * Constructs a reader and reads the header of the encoding.
+     *
+     * @param in
+     *          the stream to read from, which is closed by {@link #close()}.
+     * @throws IOException
+     *           if the header can't be read or is not for this encoding.
+     */
+    public Reader(@NonNull final InputStream in) throws IOException {
+      if (in == null)
+        throw new IllegalArgumentException(I18N.err(44, "in"));
+      f_in = new DataInputStream(new BufferedInputStream(in));
+      if (f_in.readInt() != MAGIC || f_in.readInt() != VERSION)
+        throw new IOException(I18N.err(377, VERSION));
+    }
+
+    /**
+     * Reads the next code reference.
+     *
+     * @return the next code reference, or {@code null} if all of them have
+     *         been read.
+     * @throws IOException
+     *           if the stream can't be read or is damaged.
+     */
+    @Nullable
+    public IJavaRef read() throws IOException {
+      while (true) {
+        final int tag = f_in.readByte();
+        switch (tag) {
+        case TAG_END:
+          return null;
+        case TAG_STRING:
+          f_strings.add(readString(f_in));
+          break;
+        case TAG_NODE:
+          final int parent = readVarInt(f_in) - 1;
+          final int slot = readVarInt(f_in);
+          f_nodes.add(new Node(checkId(parent, f_nodes.size()), slot, readString(f_in)));
+          break;
+        case TAG_REF:
+          return readRef();
+        default:
+          throw new IOException(I18N.err(377, VERSION));
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      f_in.close();
+    }
+
+    private IJavaRef readRef() throws IOException {
+      final IJavaRef.Within within = IJavaRef.Within.valueOf(getString(readVarInt(f_in)));
+      final IJavaRef.Position position = IJavaRef.Position.valueOf(getString(readVarInt(f_in)));
+      final String project = getStringOrNull(readVarInt(f_in));
+      final int lineNumber = unzigzag(readVarInt(f_in));
+      final int offset = unzigzag(readVarInt(f_in));
+      final int length = unzigzag(readVarInt(f_in));
+      final String absolutePath = getStringOrNull(readVarInt(f_in));
+      final String jarRelativePath = getStringOrNull(readVarInt(f_in));
+      final IDecl declaration = getDecl(checkId(readVarInt(f_in), f_nodes.size()));
+
+      final JavaRef.Builder builder = new JavaRef.Builder(declaration);
+      builder.setWithin(within);
+      builder.setPositionRelativeToDeclaration(position);
+      builder.setEclipseProjectName(project);
+      builder.setLineNumber(lineNumber);
+      builder.setOffset(offset);
+      builder.setLength(length);
+      builder.setAbsolutePath(absolutePath);
+      builder.setJarRelativePath(jarRelativePath);
+      return builder.build();
+    }
+
+    private String getString(final int id) throws IOException {
+      return f_strings.get(checkId(id, f_strings.size()));
+    }
+
+    private String getStringOrNull(final int idOrZero) throws IOException {
+      return idOrZero == 0 ? null : getString(idOrZero - 1);
+    }
+
+    private IDecl getDecl(final int id) {
+      final Node leaf = f_nodes.get(id);
+      if (leaf.f_decl == null) {
+        final List<Node> path = new ArrayList<>();
+        for (Node node = leaf; node != null; node = node.f_parent < 0 ? null : f_nodes.get(node.f_parent)) {
+          path.add(node);
+        }
+        DeclBuilder parent = null;
+        DeclBuilder builder = null;
+        for (int i = path.size() - 1; i >= 0; i--) {
+          final Node node = path.get(i);
+          builder = Decl.parseEncodedNodeToDeclBuilder(parent, node.f_text);
+          if (parent != null) {
+            // move it from last to where it was among its siblings
+            final List<DeclBuilder> siblings = parent.f_childBuilders;
+            siblings.remove(siblings.size() - 1);
+            siblings.add(Math.min(node.f_slot, siblings.size()), builder);
+          }
+          parent = builder;
+        }
+        leaf.f_decl = Decl.canonicalize(builder.build());
+      }
+      return leaf.f_decl;
+    }
+
+    /**
+     * Checks that a number read refers to a string or node already read.
+     */
+    private static int checkId(final int id, final int count) throws IOException {
+      if (id >= count)
+        throw new IOException(I18N.err(377, VERSION));
+      return id;
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[readVarInt(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarInt(final DataOutputStream out, int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(final DataInputStream in) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final int b = in.readUnsignedByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return result;
+    }
+    throw new IOException(I18N.err(377, VERSION));
+  }
+
+  private static int zigzag(final int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static int unzigzag(final int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private JavaRefCodec() {
+    // no instances
+  }
+}
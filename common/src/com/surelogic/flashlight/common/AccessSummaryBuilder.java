@@ -0,0 +1,321 @@
+package com.surelogic.flashlight.common;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jdbc.DBQuery;
+import com.surelogic.common.jdbc.DBTransaction;
+import com.surelogic.common.jdbc.QB;
+import com.surelogic.common.jdbc.Query;
+import com.surelogic.common.jdbc.Row;
+import com.surelogic.common.jdbc.RowHandler;
+import com.surelogic.common.jobs.NullSLProgressMonitor;
+import com.surelogic.common.jobs.SLProgressMonitor;
+
+/**
+ * Computes the access summary of every interesting field of a run and stores
+ * it in the {@link AccessSummaryTable}. The fields are partitioned across a
+ * {@link ForkJoinPool}; each partition is summarized on its own connection
+ * with its own {@link HappensBeforeAnalysis}, while the happens-before index
+ * and thread reachability cache of the run are shared.
+ * <p>
+ * A run is summarized once it has been prepared by invoking an
+ * {@link AccessSummarySLJob}.
+ */
+public final class AccessSummaryBuilder {
+
+  /**
+   * How many partitions we aim for per thread, so that an uneven
+   * distribution of accesses across fields still keeps every thread busy.
+   */
+  private static final int PARTITIONS_PER_THREAD = 4;
+
+  static final class FieldRef {
+    final long field;
+    final long receiver;
+    final boolean isStatic;
+
+    FieldRef(long field, long receiver, boolean isStatic) {
+      this.field = field;
+      this.receiver = receiver;
+      this.isStatic = isStatic;
+    }
+  }
+
+  private final DBConnection f_dbc;
+  private final int f_parallelism;
+
+  public AccessSummaryBuilder(DBConnection dbc) {
+    this(dbc, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param dbc
+   *          the run database
+   * @param parallelism
+   *          the number of threads to use
+   */
+  public AccessSummaryBuilder(DBConnection dbc, int parallelism) {
+    if (dbc == null) {
+      throw new IllegalArgumentException("dbc must be non-null");
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    f_dbc = dbc;
+    f_parallelism = parallelism;
+  }
+
+  /**
+   * Replaces the contents of the summary tables, creating them if necessary,
+   * with the summaries of all interesting fields.
+   *
+   * @return the number of fields summarized
+   */
+  public int build() {
+    return build(new NullSLProgressMonitor());
+  }
+
+  /**
+   * Replaces the contents of the summary tables, creating them if necessary,
+   * with the summaries of all interesting fields. One unit of work is reported
+   * per field. If the monitor is canceled, the fields not yet summarized are
+   * skipped.
+   *
+   * @param monitor
+   *          the progress monitor.
+   * @return the number of fields summarized
+   */
+  public int build(SLProgressMonitor monitor) {
+    try {
+      prepareTables(true);
+      return summarize(selectFields("Accesses.prep.selectFields", "Accesses.prep.selectStatics"), monitor);
+    } finally {
+      monitor.done();
+    }
+  }
+
+  /**
+   * Summarizes the interesting fields that are not yet in the summary tables,
+   * creating the tables if necessary. This is meant to be called once a run
+   * has been prepared; if it is interrupted, calling it again picks up where
+   * it left off.
+   *
+   * @return the number of fields summarized
+   */
+  public int update() {
+    return update(new NullSLProgressMonitor());
+  }
+
+  /**
+   * Summarizes the interesting fields that are not yet in the summary tables,
+   * like {@link #update()}. One unit of work is reported per field. If the
+   * monitor is canceled, the fields not yet summarized are skipped, and are
+   * summarized by the next call.
+   *
+   * @param monitor
+   *          the progress monitor.
+   * @return the number of fields summarized
+   */
+  public int update(SLProgressMonitor monitor) {
+    try {
+      prepareTables(false);
+      return summarize(
+          selectFields("Accesses.summary.selectUnsummarizedFields", "Accesses.summary.selectUnsummarizedStatics"), monitor);
+    } finally {
+      monitor.done();
+    }
+  }
+
+  private void prepareTables(final boolean clear) {
+    f_dbc.withTransaction(new DBTransaction<Void>() {
+      @Override
+      public Void perform(Connection conn) throws Exception {
+        AccessSummaryTable.create(conn);
+        if (clear) {
+          AccessSummaryTable.clear(conn);
+        }
+        return null;
+      }
+    });
+  }
+
+  List<FieldRef> selectFields(final String fieldsKey, final String staticsKey) {
+    return f_dbc.withReadOnly(new DBQuery<List<FieldRef>>() {
+      @Override
+      public List<FieldRef> perform(Query q) {
+        final List<FieldRef> fields = new ArrayList<>();
+        fields.addAll(q.prepared(fieldsKey, new RowHandler<FieldRef>() {
+          @Override
+          public FieldRef handle(Row r) {
+            return new FieldRef(r.nextLong(), r.nextLong(), false);
+          }
+        }).call());
+        fields.addAll(q.prepared(staticsKey, new RowHandler<FieldRef>() {
+          @Override
+          public FieldRef handle(Row r) {
+            return new FieldRef(r.nextLong(), -1, true);
+          }
+        }).call());
+        return fields;
+      }
+    });
+  }
+
+  int summarize(List<FieldRef> fields, SLProgressMonitor monitor) {
+    monitor.begin(fields.size());
+    if (fields.isEmpty()) {
+      return 0;
+    }
+    final int partitionSize = Math.max(1, fields.size() / (f_parallelism * PARTITIONS_PER_THREAD));
+    final SummarizeProgress progress = new SummarizeProgress(monitor);
+    final ForkJoinPool pool = new ForkJoinPool(f_parallelism);
+    try {
+      pool.invoke(new SummarizeAction(fields, 0, fields.size(), partitionSize, progress));
+    } finally {
+      pool.shutdown();
+    }
+    return progress.summarized.get();
+  }
+
+  /**
+   * Reports the fields summarized by each partition to a monitor that may not
+   * be thread-safe.
+   */
+  private static final class SummarizeProgress {
+    final SLProgressMonitor monitor;
+    final AtomicInteger summarized = new AtomicInteger();
+
+    SummarizeProgress(SLProgressMonitor monitor) {
+      this.monitor = monitor;
+    }
+
+    boolean isCanceled() {
+      synchronized (monitor) {
+        return monitor.isCanceled();
+      }
+    }
+
+    void summarized(int count) {
+      summarized.addAndGet(count);
+      synchronized (monitor) {
+        monitor.worked(count);
+      }
+    }
+  }
+
+  private class SummarizeAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    final List<FieldRef> fields;
+    final int from;
+    final int to;
+    final int partitionSize;
+    final SummarizeProgress progress;
+
+    SummarizeAction(List<FieldRef> fields, int from, int to, int partitionSize, SummarizeProgress progress) {
+      this.fields = fields;
+      this.from = from;
+      this.to = to;
+      this.partitionSize = partitionSize;
+      this.progress = progress;
+    }
+
+    @Override
+    protected void compute() {
+      if (progress.isCanceled()) {
+        return;
+      }
+      if (to - from <= partitionSize) {
+        f_dbc.withTransaction(new DBTransaction<Void>() {
+          @Override
+          public Void perform(Connection conn) throws Exception {
+            summarize(conn, fields.subList(from, to));
+            return null;
+          }
+        });
+        progress.summarized(to - from);
+      } else {
+        final int mid = from + to >>> 1;
+        invokeAll(new SummarizeAction(fields, from, mid, partitionSize, progress),
+            new SummarizeAction(fields, mid, to, partitionSize, progress));
+      }
+    }
+  }
+
+  /**
+   * Summarizes each of the given fields and inserts the result into the
+   * summary table, using the given connection for both.
+   */
+  static void summarize(Connection conn, List<FieldRef> fields) throws SQLException {
+    final HappensBeforeAnalysis hb = new HappensBeforeAnalysis(conn, HappensBeforeIndex.getInstance(conn),
+        new ThreadReachabilityCache(ThreadReachabilityCache.DEFAULT_SIZE));
+    final PreparedStatement staticSt = conn.prepareStatement(QB.get("Accesses.selectByField"));
+    final PreparedStatement instanceSt = conn.prepareStatement(QB.get("Accesses.selectByFieldAndReceiver"));
+    final PreparedStatement insertSt = conn.prepareStatement(QB.get("Accesses.summary.insert"));
+    final PreparedStatement insertFieldSt = conn.prepareStatement(QB.get("Accesses.summary.insertField"));
+    try {
+      for (final FieldRef f : fields) {
+        final PreparedStatement st;
+        if (f.isStatic) {
+          st = staticSt;
+          st.setLong(1, f.field);
+        } else {
+          st = instanceSt;
+          st.setLong(1, f.field);
+          st.setLong(2, f.receiver);
+        }
+        final ResultSet summary = new RollupAccessesResultSet(hb, false, st.executeQuery(), f.isStatic, f.field);
+        try {
+          int seq = 0;
+          while (summary.next()) {
+            int idx = 1;
+            insertSt.setLong(idx++, f.field);
+            if (f.isStatic) {
+              insertSt.setNull(idx++, Types.BIGINT);
+            } else {
+              insertSt.setLong(idx++, f.receiver);
+            }
+            insertSt.setInt(idx++, seq++);
+            insertSt.setLong(idx++, summary.getLong(1));
+            insertSt.setTimestamp(idx++, summary.getTimestamp(3));
+            insertSt.setTimestamp(idx++, summary.getTimestamp(4));
+            insertSt.setInt(idx++, summary.getInt(5));
+            insertSt.setInt(idx++, summary.getInt(6));
+            insertSt.setString(idx++, summary.getString(7));
+            insertSt.setTimestamp(idx++, summary.getTimestamp(8));
+            insertSt.setLong(idx++, summary.getLong(9));
+            insertSt.setInt(idx++, summary.getInt(10));
+            insertSt.setInt(idx++, summary.getInt(11));
+            insertSt.addBatch();
+          }
+        } finally {
+          summary.close();
+        }
+        insertSt.executeBatch();
+        insertFieldSt.setLong(1, f.field);
+        if (f.isStatic) {
+          insertFieldSt.setNull(2, Types.BIGINT);
+        } else {
+          insertFieldSt.setLong(2, f.receiver);
+        }
+        insertFieldSt.executeUpdate();
+      }
+    } finally {
+      insertFieldSt.close();
+      insertSt.close();
+      instanceSt.close();
+      staticSt.close();
+      hb.finished();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.surelogic.flashlight.common;
+
+import com.surelogic.common.i18n.I18N;
+import com.surelogic.common.jdbc.DBConnection;
+import com.surelogic.common.jobs.AbstractSLJob;
+import com.surelogic.common.jobs.SLProgressMonitor;
+import com.surelogic.common.jobs.SLStatus;
+
+/**
+ * A job to summarize the accesses of the interesting fields of a prepared run
+ * into the {@link AccessSummaryTable}, so that the access summary functions
+ * read the stored rows rather than recomputing them. Fields that are already
+ * summarized are skipped, so the job may be run again after it is canceled.
+ * This job is meant to be invoked as the last step of preparing a run.
+ *
+ * @see AccessSummaryBuilder#update(SLProgressMonitor)
+ */
+public final class AccessSummarySLJob extends AbstractSLJob {
+
+  private final AccessSummaryBuilder f_builder;
+
+  /**
+   * Constructs a job to summarize the field accesses of a run.
+   *
+   * @param dbc
+   *          the database of a prepared run. Cannot be {@code null}.
+   */
+  public AccessSummarySLJob(final DBConnection dbc) {
+    super(I18N.msg("flashlight.jobs.accessSummary.name"));
+    if (dbc == null) {
+      throw new IllegalArgumentException(I18N.err(44, "dbc"));
+    }
+    f_builder = new AccessSummaryBuilder(dbc);
+  }
+
+  @Override
+  public SLStatus run(final SLProgressMonitor monitor) {
+    try {
+      f_builder.update(monitor);
+    } catch (final Exception e) {
+      final int code = 379;
+      return SLStatus.createErrorStatus(code, I18N.err(code), e);
+    }
+    return monitor.isCanceled() ? SLStatus.CANCEL_STATUS : SLStatus.OK_STATUS;
+  }
+}
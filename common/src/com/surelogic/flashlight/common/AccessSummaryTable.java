@@ -0,0 +1,191 @@
+package com.surelogic.flashlight.common;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.surelogic.common.derby.sqlfunctions.Functions;
+import com.surelogic.common.jdbc.QB;
+
+/**
+ * Operations on the ACCESSSUMMARY table, which holds the output of
+ * {@link Functions#accessSummary(long, long)} and
+ * {@link Functions#staticAccessSummary(long)} precomputed for the interesting
+ * fields of a run, and the ACCESSSUMMARYFIELD table, which records the fields
+ * that have been summarized. A field is only summarized once its rows and its
+ * ACCESSSUMMARYFIELD entry have been committed together, so a partially built
+ * table may still be read. See {@link AccessSummaryBuilder}.
+ */
+public final class AccessSummaryTable {
+
+  static final String TABLE = "ACCESSSUMMARY";
+  static final String FIELD_TABLE = "ACCESSSUMMARYFIELD";
+
+  /**
+   * Whether the summary tables exist, by database URL. The tables are only
+   * created by {@link #create(Connection)}, which records them here, so each
+   * database is only checked once.
+   */
+  private static final Map<String, Boolean> AVAILABLE = new HashMap<>();
+
+  private AccessSummaryTable() {
+    // No instances
+  }
+
+  /**
+   * Checks whether the summary table has been created in the database
+   * <tt>conn</tt> is connected to.
+   */
+  public static boolean exists(Connection conn) throws SQLException {
+    return tableExists(conn, TABLE) && tableExists(conn, FIELD_TABLE);
+  }
+
+  /**
+   * Checks whether the summary tables exist, like {@link #exists(Connection)},
+   * but only asks the database the first time it is called for a database.
+   * This is meant for callers, like {@link Functions}, that check once per
+   * row of a query.
+   */
+  public static boolean isAvailable(Connection conn) throws SQLException {
+    final String url = conn.getMetaData().getURL();
+    synchronized (AVAILABLE) {
+      final Boolean result = AVAILABLE.get(url);
+      if (result != null) {
+        return result;
+      }
+    }
+    final boolean result = exists(conn);
+    synchronized (AVAILABLE) {
+      if (!AVAILABLE.containsKey(url)) {
+        AVAILABLE.put(url, result);
+      }
+      return AVAILABLE.get(url);
+    }
+  }
+
+  /**
+   * Discards what is known about which databases have summary tables. This
+   * must be called if the database of a run is replaced.
+   */
+  public static void invalidate() {
+    synchronized (AVAILABLE) {
+      AVAILABLE.clear();
+    }
+  }
+
+  private static void forget(Connection conn) throws SQLException {
+    final String url = conn.getMetaData().getURL();
+    synchronized (AVAILABLE) {
+      AVAILABLE.remove(url);
+    }
+  }
+
+  private static boolean tableExists(Connection conn, String table) throws SQLException {
+    final ResultSet set = conn.getMetaData().getTables(null, null, table, null);
+    try {
+      return set.next();
+    } finally {
+      set.close();
+    }
+  }
+
+  /**
+   * Creates the summary tables and their indexes, if they do not already
+   * exist.
+   */
+  static void create(Connection conn) throws SQLException {
+    final Statement st = conn.createStatement();
+    try {
+      if (!tableExists(conn, TABLE)) {
+        st.execute(QB.get("Accesses.summary.createTable"));
+        st.execute(QB.get("Accesses.summary.createIndex"));
+      }
+      if (!tableExists(conn, FIELD_TABLE)) {
+        st.execute(QB.get("Accesses.summary.createFieldTable"));
+        st.execute(QB.get("Accesses.summary.createFieldIndex"));
+      }
+    } finally {
+      st.close();
+    }
+    synchronized (AVAILABLE) {
+      AVAILABLE.put(conn.getMetaData().getURL(), Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Removes all summaries from the tables.
+   */
+  static void clear(Connection conn) throws SQLException {
+    final Statement st = conn.createStatement();
+    try {
+      st.executeUpdate(QB.get("Accesses.summary.clearFields"));
+      st.executeUpdate(QB.get("Accesses.summary.clear"));
+    } finally {
+      st.close();
+    }
+  }
+
+  /**
+   * Checks whether the given instance field has been summarized. The summary
+   * tables must exist.
+   */
+  public static boolean isSummarized(Connection conn, long fieldId, long receiverId) throws SQLException {
+    return hasRow(conn, "Accesses.summary.isFieldSummarized", fieldId, receiverId);
+  }
+
+  /**
+   * Checks whether the given static field has been summarized. The summary
+   * tables must exist.
+   */
+  public static boolean isSummarized(Connection conn, long fieldId) throws SQLException {
+    return hasRow(conn, "Accesses.summary.isStaticSummarized", fieldId);
+  }
+
+  private static boolean hasRow(Connection conn, String key, long... params) throws SQLException {
+    try {
+      final PreparedStatement st = conn.prepareStatement(QB.get(key));
+      try {
+        for (int i = 0; i < params.length; i++) {
+          st.setLong(i + 1, params[i]);
+        }
+        final ResultSet set = st.executeQuery();
+        try {
+          return set.next();
+        } finally {
+          set.close();
+        }
+      } finally {
+        st.close();
+      }
+    } catch (SQLException e) {
+      // the tables may be gone, so check again next time
+      forget(conn);
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the stored summary of an instance field, with the same columns as
+   * {@link RollupAccessesResultSet#createForField(Connection, long, long)}.
+   */
+  public static ResultSet selectForField(Connection conn, long fieldId, long receiverId) throws SQLException {
+    PreparedStatement st = conn.prepareStatement(QB.get("Accesses.summary.selectByFieldAndReceiver"));
+    st.setLong(1, fieldId);
+    st.setLong(2, receiverId);
+    return st.executeQuery();
+  }
+
+  /**
+   * Returns the stored summary of a static field, with the same columns as
+   * {@link RollupAccessesResultSet#createForStaticField(Connection, long)}.
+   */
+  public static ResultSet selectForStaticField(Connection conn, long fieldId) throws SQLException {
+    PreparedStatement st = conn.prepareStatement(QB.get("Accesses.summary.selectByField"));
+    st.setLong(1, fieldId);
+    return st.executeQuery();
+  }
+}
@@ -6,15 +6,20 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import com.carrotsearch.hppc.LongLongMap;
+import com.carrotsearch.hppc.LongLongScatterMap;
 import com.carrotsearch.hppc.LongObjectMap;
 import com.carrotsearch.hppc.LongObjectScatterMap;
-import com.carrotsearch.hppc.predicates.LongObjectPredicate;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.ObjectIntMap;
+import com.carrotsearch.hppc.predicates.LongLongPredicate;
 import com.surelogic.common.jdbc.QB;
 
 public class HappensBeforeAnalysis {
@@ -43,14 +48,49 @@ public class HappensBeforeAnalysis {
   final PreparedStatement hbLookupAccess;
   final PreparedStatement isFinalSt;
   final PreparedStatement traceMethodCalledSt;
-  final LongObjectMap<Timestamp> targetsCache = new LongObjectScatterMap<>();
-  final LongObjectMap<Timestamp> sourcesCache = new LongObjectScatterMap<>();
-  final Map<Obj, Timestamp> objTargetsCache = new HashMap<>();
-  final Map<Obj, Timestamp> objSourcesCache = new HashMap<>();
-  final Map<LockId, Timestamp> lockTargetsCache = new HashMap<>();
-  final Map<LockId, Timestamp> lockSourcesCache = new HashMap<>();
+  /*
+   * Scratch maps used when matching sources to targets. Times are kept as
+   * nanoseconds since the epoch, see HappensBeforeIndex.nanos. Locks are
+   * keyed on lockKey, and objects on the pair of the object and the code for
+   * its id in idCodes.
+   */
+  final LongLongMap targetsCache = new LongLongScatterMap();
+  final LongLongMap sourcesCache = new LongLongScatterMap();
+  final LongPairLongMap objTargetsCache = new LongPairLongMap();
+  final LongPairLongMap objSourcesCache = new LongPairLongMap();
+  final LongLongMap lockTargetsCache = new LongLongScatterMap();
+  final LongLongMap lockSourcesCache = new LongLongScatterMap();
+  final ObjectIntMap<String> idCodes = new ObjectIntHashMap<>();
+  final SourceBeforeTarget sourceBeforeTarget = new SourceBeforeTarget();
+  final Connection conn;
+  final HappensBeforeIndex index;
+  final LongLongMap indexScratch = new LongLongScatterMap();
+  final ThreadReachabilityCache threadCache;
+  final LongLongMap visitedThreads = new LongLongScatterMap();
 
   public HappensBeforeAnalysis(Connection conn) throws SQLException {
+    this(conn, null, null);
+  }
+
+  /**
+   * Constructs an analysis that answers {@link #hasHappensBefore} from an
+   * in-memory index of the happens-before edges, if one is provided, and that
+   * remembers the answers to {@link #happensBeforeThread}.
+   *
+   * @param conn
+   * @param index
+   *          the index for the run <tt>conn</tt> is connected to, or
+   *          <code>null</code> to query the database for every check
+   * @param threadCache
+   *          a cache of thread reachability answers, which may be shared with
+   *          other analyses of the same run, or <code>null</code>
+   * @throws SQLException
+   */
+  public HappensBeforeAnalysis(Connection conn, HappensBeforeIndex index, ThreadReachabilityCache threadCache)
+      throws SQLException {
+    this.conn = conn;
+    this.index = index;
+    this.threadCache = threadCache;
     hbSt = conn.prepareStatement(QB.get("Accesses.happensBefore"));
     isFinalSt = conn.prepareStatement(QB.get("Accesses.isFieldFinal"));
     hbVolReadSt = conn.prepareStatement(QB.get("Accesses.happensBeforeVolatileRead"));
@@ -127,31 +167,17 @@ public class HappensBeforeAnalysis {
         if (!targetSet.next()) {
           return false;
         }
-        final LongObjectMap<Timestamp> sources = genSources(sourceSet);
+        final LongLongMap sources = genSources(sourceSet);
         sourceSet.close();
         if (sources.isEmpty()) {
           return false;
         }
-        final LongObjectMap<Timestamp> targets = genTargets(targetSet);
+        final LongLongMap targets = genTargets(targetSet);
         targetSet.close();
         if (targets.isEmpty()) {
           return false;
         }
-        class WithResult implements LongObjectPredicate<Timestamp> {
-
-          boolean result = true;
-
-          public boolean apply(long field, Timestamp sourceTs) {
-            Timestamp targetTs = targets.get(field);
-            result = targetTs == null || !sourceTs.before(targetTs);
-            return result;
-          }
-
-        }
-        final WithResult pred = new WithResult();
-        sources.forEach(pred);
-        boolean found = !pred.result;
-        return found;
+        return sourceBeforeTarget.test(sources, targets);
       } finally {
         targetSet.close();
       }
@@ -164,54 +190,96 @@ public class HappensBeforeAnalysis {
     return happensBefore(hbVolWriteSt, hbVolReadSt, write, writeThread, read, readThread);
   }
 
-  Map<LockId, Timestamp> genLockSources(ResultSet set) throws SQLException {
+  /**
+   * Checks whether some key has an earlier time in the sources than in the
+   * targets. Reused to avoid allocating a predicate per check.
+   */
+  static class SourceBeforeTarget implements LongLongPredicate {
+    LongLongMap targets;
+    boolean found;
+
+    boolean test(LongLongMap sources, LongLongMap targets) {
+      this.targets = targets;
+      found = false;
+      sources.forEach(this);
+      this.targets = null;
+      return found;
+    }
+
+    @Override
+    public boolean apply(long key, long sourceTs) {
+      final int idx = targets.indexOf(key);
+      found = targets.indexExists(idx) && sourceTs < targets.indexGet(idx);
+      return !found;
+    }
+  }
+
+  static void putMin(LongLongMap map, long key, long ts) {
+    final int idx = map.indexOf(key);
+    if (!map.indexExists(idx)) {
+      map.indexInsert(idx, key, ts);
+    } else if (map.indexGet(idx) > ts) {
+      map.indexReplace(idx, ts);
+    }
+  }
+
+  static void putMax(LongLongMap map, long key, long ts) {
+    final int idx = map.indexOf(key);
+    if (!map.indexExists(idx)) {
+      map.indexInsert(idx, key, ts);
+    } else if (map.indexGet(idx) < ts) {
+      map.indexReplace(idx, ts);
+    }
+  }
+
+  /**
+   * Packs a lock and its type into a single key.
+   */
+  static long lockKey(long lock, String typeFlag) {
+    return lock << 1 | LockType.fromFlag(typeFlag).ordinal();
+  }
+
+  /**
+   * Returns a small number standing for the given object id string.
+   */
+  int idCode(String id) {
+    final int idx = idCodes.indexOf(id);
+    if (idCodes.indexExists(idx)) {
+      return idCodes.indexGet(idx);
+    }
+    final int code = idCodes.size();
+    idCodes.indexInsert(idx, id, code);
+    return code;
+  }
+
+  LongLongMap genLockSources(ResultSet set) throws SQLException {
     lockSourcesCache.clear();
     do {
-      LockId sourceLock = new LockId(set.getLong(1), LockType.fromFlag(set.getString(2)));
-      Timestamp sourceTs = set.getTimestamp(3);
-      Timestamp ts = lockSourcesCache.get(sourceLock);
-      if (ts == null || ts.after(sourceTs)) {
-        lockSourcesCache.put(sourceLock, sourceTs);
-      }
+      putMin(lockSourcesCache, lockKey(set.getLong(1), set.getString(2)), HappensBeforeIndex.nanos(set.getTimestamp(3)));
     } while (set.next());
     return lockSourcesCache;
   }
 
-  LongObjectMap<Timestamp> genSources(ResultSet set) throws SQLException {
+  LongLongMap genSources(ResultSet set) throws SQLException {
     sourcesCache.clear();
     do {
-      long targetField = set.getLong(1);
-      Timestamp sourceTs = set.getTimestamp(2);
-      Timestamp ts = sourcesCache.get(targetField);
-      if (ts == null || ts.after(sourceTs)) {
-        sourcesCache.put(targetField, sourceTs);
-      }
+      putMin(sourcesCache, set.getLong(1), HappensBeforeIndex.nanos(set.getTimestamp(2)));
     } while (set.next());
     return sourcesCache;
   }
 
-  Map<LockId, Timestamp> genLockTargets(ResultSet set) throws SQLException {
+  LongLongMap genLockTargets(ResultSet set) throws SQLException {
     lockTargetsCache.clear();
     do {
-      LockId targetLock = new LockId(set.getLong(1), LockType.fromFlag(set.getString(2)));
-      Timestamp targetTs = set.getTimestamp(3);
-      Timestamp ts = lockTargetsCache.get(targetLock);
-      if (ts == null || ts.before(targetTs)) {
-        lockTargetsCache.put(targetLock, targetTs);
-      }
+      putMax(lockTargetsCache, lockKey(set.getLong(1), set.getString(2)), HappensBeforeIndex.nanos(set.getTimestamp(3)));
     } while (set.next());
     return lockTargetsCache;
   }
 
-  LongObjectMap<Timestamp> genTargets(ResultSet set) throws SQLException {
+  LongLongMap genTargets(ResultSet set) throws SQLException {
     targetsCache.clear();
     do {
-      long targetField = set.getLong(1);
-      Timestamp targetTs = set.getTimestamp(2);
-      Timestamp ts = targetsCache.get(targetField);
-      if (ts == null || ts.before(targetTs)) {
-        targetsCache.put(targetField, targetTs);
-      }
+      putMax(targetsCache, set.getLong(1), HappensBeforeIndex.nanos(set.getTimestamp(2)));
     } while (set.next());
     return targetsCache;
   }
@@ -242,6 +310,31 @@ public class HappensBeforeAnalysis {
   }
 
   public boolean happensBeforeThread(Timestamp write, long writeThread, Timestamp read, long readThread) throws SQLException {
+    if (write == null || read == null) {
+      return false;
+    }
+    final long start = HappensBeforeIndex.nanos(write);
+    final long end = HappensBeforeIndex.nanos(read);
+    if (threadCache != null) {
+      Boolean answer = threadCache.get(writeThread, start, end, readThread);
+      if (answer != null) {
+        return answer;
+      }
+    }
+    visitedThreads.clear();
+    final boolean answer = index != null ? index.happensBeforeThread(start, writeThread, end, readThread, visitedThreads)
+        : happensBeforeThread(write, start, writeThread, read, readThread);
+    if (threadCache != null) {
+      threadCache.put(writeThread, start, end, readThread, answer);
+    }
+    return answer;
+  }
+
+  private boolean happensBeforeThread(Timestamp write, long start, long writeThread, Timestamp read, long readThread)
+      throws SQLException {
+    if (!HappensBeforeIndex.visit(visitedThreads, writeThread, start)) {
+      return false;
+    }
     int idx = 1;
     hbSt.setLong(idx++, writeThread);
     hbSt.setTimestamp(idx++, write);
@@ -261,7 +354,7 @@ public class HappensBeforeAnalysis {
       hbSet.close();
     }
     for (Possible p : possibles) {
-      if (happensBeforeThread(p.ts, p.target, read, readThread)) {
+      if (happensBeforeThread(p.ts, HappensBeforeIndex.nanos(p.ts), p.target, read, readThread)) {
         return true;
       }
     }
@@ -341,19 +434,18 @@ public class HappensBeforeAnalysis {
         if (!targetSet.next()) {
           return false;
         }
-        final Map<Obj, Timestamp> sources = genObjSources(sourceSet);
+        final LongPairLongMap sources = genObjSources(sourceSet);
         sourceSet.close();
         if (sources.isEmpty()) {
           return false;
         }
-        final Map<Obj, Timestamp> targets = genObjTargets(targetSet);
+        final LongPairLongMap targets = genObjTargets(targetSet);
         targetSet.close();
         if (targets.isEmpty()) {
           return false;
         }
-        for (Entry<Obj, Timestamp> sourceEntry : sources.entrySet()) {
-          Timestamp targetTs = targets.get(sourceEntry.getKey());
-          if (targetTs != null && sourceEntry.getValue().before(targetTs)) {
+        for (int i = 0; i < sources.capacity(); i++) {
+          if (sources.isUsed(i) && sources.value(i) < targets.get(sources.first(i), sources.second(i), Long.MIN_VALUE)) {
             return true;
           }
         }
@@ -366,32 +458,22 @@ public class HappensBeforeAnalysis {
     return false;
   }
 
-  private Map<Obj, Timestamp> genObjTargets(ResultSet set) throws SQLException {
+  private LongPairLongMap genObjTargets(ResultSet set) throws SQLException {
     objTargetsCache.clear();
     do {
       long o = set.getLong(1);
-      Timestamp targetTs = set.getTimestamp(2);
-      String id = set.getString(3);
-      Obj targetObj = new Obj(o, id);
-      Timestamp ts = objTargetsCache.get(targetObj);
-      if (ts == null || ts.before(targetTs)) {
-        objTargetsCache.put(targetObj, targetTs);
-      }
+      long targetTs = HappensBeforeIndex.nanos(set.getTimestamp(2));
+      objTargetsCache.putMax(o, idCode(set.getString(3)), targetTs);
     } while (set.next());
     return objTargetsCache;
   }
 
-  private Map<Obj, Timestamp> genObjSources(ResultSet set) throws SQLException {
+  private LongPairLongMap genObjSources(ResultSet set) throws SQLException {
     objSourcesCache.clear();
     do {
       long o = set.getLong(1);
-      Timestamp sourceTs = set.getTimestamp(2);
-      String id = set.getString(3);
-      Obj sourceObj = new Obj(o, id);
-      Timestamp ts = objSourcesCache.get(sourceObj);
-      if (ts == null || ts.after(sourceTs)) {
-        objSourcesCache.put(sourceObj, sourceTs);
-      }
+      long sourceTs = HappensBeforeIndex.nanos(set.getTimestamp(2));
+      objSourcesCache.putMin(o, idCode(set.getString(3)), sourceTs);
     } while (set.next());
     return objSourcesCache;
   }
@@ -413,29 +495,23 @@ public class HappensBeforeAnalysis {
         if (!targetSet.next()) {
           return false;
         }
-        final Map<LockId, Timestamp> sources = genLockSources(sourceSet);
+        final LongLongMap sources = genLockSources(sourceSet);
         sourceSet.close();
         if (sources.isEmpty()) {
           return false;
         }
-        final Map<LockId, Timestamp> targets = genLockTargets(targetSet);
+        final LongLongMap targets = genLockTargets(targetSet);
         targetSet.close();
         if (targets.isEmpty()) {
           return false;
         }
-        for (Entry<LockId, Timestamp> sourceEntry : sources.entrySet()) {
-          Timestamp targetTs = targets.get(sourceEntry.getKey());
-          if (targetTs != null && sourceEntry.getValue().before(targetTs)) {
-            return true;
-          }
-        }
+        return sourceBeforeTarget.test(sources, targets);
       } finally {
         targetSet.close();
       }
     } finally {
       sourceSet.close();
     }
-    return false;
   }
 
   /**
@@ -453,12 +529,114 @@ public class HappensBeforeAnalysis {
    * @throws SQLException
    */
   public boolean hasHappensBefore(Timestamp write, long writeThread, Timestamp read, long readThread) throws SQLException {
+    if (index != null) {
+      return hasHappensBefore(index, write, writeThread, read, readThread);
+    }
     return write == null || writeThread == readThread || happensBeforeVolatile(write, writeThread, read, readThread)
         || happensBeforeThread(write, writeThread, read, readThread) || happensBeforeObject(write, writeThread, read, readThread)
         || happensBeforeLock(write, writeThread, read, readThread) || happensBeforeCollection(write, writeThread, read, readThread)
         || happensBeforeClassInitialization(write, writeThread, read, readThread);
   }
 
+  private boolean hasHappensBefore(HappensBeforeIndex edges, Timestamp write, long writeThread, Timestamp read, long readThread)
+      throws SQLException {
+    if (write == null || writeThread == readThread) {
+      return true;
+    }
+    final long w = HappensBeforeIndex.nanos(write);
+    final long r = HappensBeforeIndex.nanos(read);
+    return edges.happensBeforeVolatile(w, writeThread, r, readThread, indexScratch)
+        || happensBeforeThread(write, writeThread, read, readThread)
+        || edges.happensBeforeObject(w, writeThread, r, readThread, indexScratch)
+        || edges.happensBeforeLock(w, writeThread, r, readThread, indexScratch)
+        || edges.happensBeforeCollection(w, writeThread, r, readThread, indexScratch)
+        || edges.happensBeforeClassInitialization(w, writeThread, r, readThread, indexScratch);
+  }
+
+  /**
+   * A pending happens-before check, from a write in one thread to a read in
+   * another.
+   */
+  public static final class AccessPair {
+    final Timestamp write;
+    final long writeThread;
+    final Timestamp read;
+    final long readThread;
+
+    public AccessPair(Timestamp write, long writeThread, Timestamp read, long readThread) {
+      this.write = write;
+      this.writeThread = writeThread;
+      this.read = read;
+      this.readThread = readThread;
+    }
+
+    boolean isTrivial() {
+      return write == null || writeThread == readThread;
+    }
+
+    @Override
+    public String toString() {
+      return "AccessPair [write=" + write + ", writeThread=" + writeThread + ", read=" + read + ", readThread=" + readThread + "]";
+    }
+  }
+
+  /**
+   * Answers a batch of happens-before checks at once. The result is the same
+   * as calling {@link #hasHappensBefore(Timestamp, long, Timestamp, long)} on
+   * each pair in turn. If this analysis has an in-memory index it is used
+   * directly. Otherwise the checks are grouped by thread, and each edge table
+   * is scanned once per thread over the union of that thread's windows,
+   * instead of once per check. Thread edges are still followed per check, see
+   * {@link #happensBeforeThread(Timestamp, long, Timestamp, long)}.
+   *
+   * @param pairs
+   *          the checks to make
+   * @return a set with bit <i>i</i> set if the <i>i</i>th pair has a
+   *         happens-before relationship
+   * @throws SQLException
+   */
+  public BitSet evaluate(List<AccessPair> pairs) throws SQLException {
+    final BitSet result = new BitSet(pairs.size());
+    HappensBeforeIndex edges = index;
+    if (edges == null) {
+      final LongObjectMap<Timestamp[]> sourceWindows = new LongObjectScatterMap<>();
+      final LongObjectMap<Timestamp[]> targetWindows = new LongObjectScatterMap<>();
+      for (AccessPair p : pairs) {
+        if (!p.isTrivial()) {
+          widen(sourceWindows, p.writeThread, p.write, p.read);
+          widen(targetWindows, p.readThread, p.write, p.read);
+        }
+      }
+      if (sourceWindows.isEmpty()) {
+        result.set(0, pairs.size());
+        return result;
+      }
+      edges = HappensBeforeIndex.loadWindows(conn, sourceWindows, targetWindows);
+    }
+    int i = 0;
+    for (AccessPair p : pairs) {
+      if (hasHappensBefore(edges, p.write, p.writeThread, p.read, p.readThread)) {
+        result.set(i);
+      }
+      i++;
+    }
+    return result;
+  }
+
+  private static void widen(LongObjectMap<Timestamp[]> windows, long thread, Timestamp from, Timestamp to) {
+    final Timestamp[] window = windows.get(thread);
+    if (window == null) {
+      windows.put(thread, new Timestamp[] { from, to });
+    } else {
+      if (from.before(window[0])) {
+        window[0] = from;
+      }
+      if (to.after(window[1])) {
+        window[1] = to;
+      }
+    }
+  }
+
   public List<HBEdge> happensBeforeTraces(Timestamp write, long writeThread, Timestamp read, long readThread) throws SQLException {
     if (write == null) {
       return Collections.emptyList();
@@ -0,0 +1,551 @@
+package com.surelogic.flashlight.common;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import com.carrotsearch.hppc.LongLongMap;
+import com.carrotsearch.hppc.LongObjectMap;
+import com.carrotsearch.hppc.LongObjectScatterMap;
+import com.carrotsearch.hppc.cursors.LongObjectCursor;
+import com.surelogic.common.jdbc.QB;
+import com.surelogic.common.logging.SLLogger;
+
+/**
+ * An in-memory index of the happens-before edges of a single Flashlight run.
+ * The HAPPENSBEFORE*, LOCKDURATION, CLASSINIT and CLASSACCESS tables are read
+ * once, and each edge is stored in a per-thread array sorted by time, so that
+ * the checks made by {@link HappensBeforeAnalysis#hasHappensBefore} become
+ * binary searches and short scans rather than JDBC queries.
+ * <p>
+ * An index is immutable once loaded and may be shared by any number of
+ * threads. Callers supply their own scratch map to the query methods.
+ * Indexes are cached by run: the database URL together with the catalog id of
+ * its HAPPENSBEFORE table, which changes whenever the run is prepared again
+ * into a new database or its tables are recreated. Use {@link #invalidate()}
+ * if the rows of the underlying tables are changed in place after an index has
+ * been loaded.
+ */
+public final class HappensBeforeIndex {
+
+  /**
+   * System property that may be set to <tt>false</tt> to turn off the
+   * in-memory index and use the SQL queries in {@link HappensBeforeAnalysis}
+   * instead.
+   */
+  public static final String ENABLED_PROP = "com.surelogic.flashlight.hbIndex";
+
+  static final boolean ENABLED = !"false".equals(System.getProperty(ENABLED_PROP));
+
+  /**
+   * The number of runs that we keep indexes around for.
+   */
+  private static final int CACHED_RUNS = 2;
+
+  /**
+   * The index of a run, which is loaded by the first thread to ask for it
+   * while holding a lock on the entry, so that only threads wanting the same
+   * run wait for the load.
+   */
+  private static final class IndexEntry {
+    final String runId;
+    HappensBeforeIndex index;
+
+    IndexEntry(String runId) {
+      this.runId = runId;
+    }
+  }
+
+  /**
+   * Database URL &rarr; the entry of the run last seen there.
+   */
+  private static final Map<String, IndexEntry> CACHE = new LinkedHashMap<String, IndexEntry>(4, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, IndexEntry> eldest) {
+      return size() > CACHED_RUNS;
+    }
+  };
+
+  /**
+   * Returns the index for the database <tt>conn</tt> is connected to, loading
+   * it if necessary.
+   *
+   * @param conn
+   *          a connection to a Flashlight run database
+   * @return the index, or <code>null</code> if the index is disabled or could
+   *         not be loaded, in which case the SQL queries should be used
+   */
+  public static HappensBeforeIndex getInstance(Connection conn) {
+    if (!ENABLED) {
+      return null;
+    }
+    final String url;
+    final String runId;
+    try {
+      url = conn.getMetaData().getURL();
+      runId = getRunId(conn);
+    } catch (SQLException e) {
+      SLLogger.getLogger().log(Level.WARNING, "Could not determine the run of a connection", e);
+      return null;
+    }
+    if (runId == null) {
+      return null;
+    }
+    IndexEntry entry;
+    synchronized (CACHE) {
+      entry = CACHE.get(url);
+      if (entry == null || !entry.runId.equals(runId)) {
+        entry = new IndexEntry(runId);
+        CACHE.put(url, entry);
+      }
+    }
+    synchronized (entry) {
+      if (entry.index == null) {
+        try {
+          entry.index = load(conn);
+        } catch (SQLException e) {
+          SLLogger.getLogger().log(Level.WARNING, "Could not build the happens-before index for " + url, e);
+          return null;
+        }
+      }
+      return entry.index;
+    }
+  }
+
+  /**
+   * Gets the catalog id of the HAPPENSBEFORE table of the database
+   * <tt>conn</tt> is connected to, which identifies the run it holds.
+   *
+   * @return the id, or <code>null</code> if the database has no such table.
+   */
+  private static String getRunId(Connection conn) throws SQLException {
+    final Statement st = conn.createStatement();
+    try {
+      final ResultSet set = st.executeQuery(QB.get("Accesses.index.runId"));
+      try {
+        return set.next() ? set.getString(1) : null;
+      } finally {
+        set.close();
+      }
+    } finally {
+      st.close();
+    }
+  }
+
+  /**
+   * Discards all cached indexes. This must be called if the happens-before
+   * tables of a run are modified.
+   */
+  public static void invalidate() {
+    synchronized (CACHE) {
+      CACHE.clear();
+    }
+  }
+
+  /**
+   * Converts a timestamp into nanoseconds since the epoch, so that it can be
+   * compared without any loss of precision.
+   */
+  static long nanos(Timestamp ts) {
+    long millis = ts.getTime();
+    long seconds = millis / 1000;
+    if (millis % 1000 < 0) {
+      seconds--;
+    }
+    return seconds * 1000000000L + ts.getNanos();
+  }
+
+  /**
+   * The events of one thread for one kind of edge, sorted by time. Each event
+   * has an associated key, which is used to match the source and target of an
+   * edge.
+   */
+  static final class Events {
+    long[] ts = new long[8];
+    long[] keys = new long[8];
+    int size;
+
+    void add(long t, long key) {
+      if (size == ts.length) {
+        ts = Arrays.copyOf(ts, size * 2);
+        keys = Arrays.copyOf(keys, size * 2);
+      }
+      ts[size] = t;
+      keys[size] = key;
+      size++;
+    }
+
+    void trim() {
+      ts = Arrays.copyOf(ts, size);
+      keys = Arrays.copyOf(keys, size);
+    }
+
+    /**
+     * The index of the first event with a time greater than or equal to
+     * <tt>t</tt>.
+     */
+    int lowerBound(long t) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+        int mid = lo + hi >>> 1;
+        if (ts[mid] < t) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+
+    /**
+     * The index of the first event with a time strictly greater than
+     * <tt>t</tt>.
+     */
+    int upperBound(long t) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+        int mid = lo + hi >>> 1;
+        if (ts[mid] <= t) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo;
+    }
+  }
+
+  final LongObjectMap<Events> threadEdges = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> volatileWrites = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> volatileReads = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> objSources = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> objTargets = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> lockSources = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> lockTargets = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> collSources = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> collTargets = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> classInits = new LongObjectScatterMap<>();
+  final LongObjectMap<Events> classAccesses = new LongObjectScatterMap<>();
+
+  /**
+   * Used while loading to give each composite key (object and id, lock and
+   * type, collection, object and id) a unique number.
+   */
+  private final Map<Object, Long> keyIds = new HashMap<>();
+
+  private HappensBeforeIndex() {
+    // Use load
+  }
+
+  static HappensBeforeIndex load(Connection conn) throws SQLException {
+    final HappensBeforeIndex index = new HappensBeforeIndex();
+    final Statement st = conn.createStatement();
+    try {
+      index.load(st, "Accesses.index.happensBefore", index.threadEdges, SIMPLE);
+      index.load(st, "Accesses.index.happensBeforeVolatileWrite", index.volatileWrites, SIMPLE);
+      index.load(st, "Accesses.index.happensBeforeVolatileRead", index.volatileReads, SIMPLE);
+      index.load(st, "Accesses.index.happensBeforeSourceObject", index.objSources, OBJ);
+      index.load(st, "Accesses.index.happensBeforeTargetObject", index.objTargets, OBJ);
+      index.load(st, "Accesses.index.happensBeforeSourceLock", index.lockSources, LOCK);
+      index.load(st, "Accesses.index.happensBeforeTargetLock", index.lockTargets, LOCK);
+      index.load(st, "Accesses.index.happensBeforeSourceColl", index.collSources, COLL);
+      index.load(st, "Accesses.index.happensBeforeTargetColl", index.collTargets, COLL);
+      index.load(st, "Accesses.index.classInit", index.classInits, SIMPLE);
+      index.load(st, "Accesses.index.classAccess", index.classAccesses, SIMPLE);
+    } finally {
+      st.close();
+    }
+    index.keyIds.clear();
+    return index;
+  }
+
+  /**
+   * The parameters a windowed query takes after the thread.
+   */
+  enum Range {
+    /** Events between the start and end of the window. */
+    BETWEEN,
+    /** Events strictly after the start of the window. */
+    AFTER,
+    /** Events strictly before the end of the window. */
+    BEFORE
+  }
+
+  /**
+   * Loads a partial index holding only the events needed to answer checks
+   * over the given windows. Each edge table is scanned once per thread, over
+   * the union of the windows for that thread. Thread edges are not loaded, as
+   * they must be followed transitively into other threads.
+   *
+   * @param conn
+   * @param sourceWindows
+   *          for each writing thread, the earliest write and latest read of
+   *          the checks it takes part in
+   * @param targetWindows
+   *          for each reading thread, the earliest write and latest read of
+   *          the checks it takes part in
+   */
+  static HappensBeforeIndex loadWindows(Connection conn, LongObjectMap<Timestamp[]> sourceWindows,
+      LongObjectMap<Timestamp[]> targetWindows) throws SQLException {
+    final HappensBeforeIndex index = new HappensBeforeIndex();
+    index.loadWindows(conn, "Accesses.batch.happensBeforeVolatileWrite", index.volatileWrites, SIMPLE, sourceWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeVolatileRead", index.volatileReads, SIMPLE, targetWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeSourceObject", index.objSources, OBJ, sourceWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeTargetObject", index.objTargets, OBJ, targetWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeSourceLock", index.lockSources, LOCK, sourceWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeTargetLock", index.lockTargets, LOCK, targetWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeSourceColl", index.collSources, COLL, sourceWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.happensBeforeTargetColl", index.collTargets, COLL, targetWindows, Range.BETWEEN);
+    index.loadWindows(conn, "Accesses.batch.classInit", index.classInits, SIMPLE, sourceWindows, Range.AFTER);
+    index.loadWindows(conn, "Accesses.batch.classAccess", index.classAccesses, SIMPLE, targetWindows, Range.BEFORE);
+    index.keyIds.clear();
+    return index;
+  }
+
+  private static Events eventsFor(LongObjectMap<Events> map, long thread) {
+    Events events = map.get(thread);
+    if (events == null) {
+      events = new Events();
+      map.put(thread, events);
+    }
+    return events;
+  }
+
+  private long keyId(Object key) {
+    Long id = keyIds.get(key);
+    if (id == null) {
+      id = Long.valueOf(keyIds.size());
+      keyIds.put(key, id);
+    }
+    return id;
+  }
+
+  private static void trimAll(LongObjectMap<Events> map) {
+    for (LongObjectCursor<Events> c : map) {
+      c.value.trim();
+    }
+  }
+
+  /*
+   * The kinds of key an edge table has. Each query returns INTHREAD, TS,
+   * followed by the columns that make up the key, ordered by INTHREAD and TS.
+   */
+  private static final int SIMPLE = 0;
+  private static final int OBJ = 1;
+  private static final int LOCK = 2;
+  private static final int COLL = 3;
+
+  private void load(Statement st, String query, LongObjectMap<Events> map, int kind) throws SQLException {
+    final ResultSet set = st.executeQuery(QB.get(query));
+    try {
+      read(set, map, kind);
+    } finally {
+      set.close();
+    }
+    trimAll(map);
+  }
+
+  private void loadWindows(Connection conn, String query, LongObjectMap<Events> map, int kind,
+      LongObjectMap<Timestamp[]> windows, Range range) throws SQLException {
+    if (windows.isEmpty()) {
+      return;
+    }
+    final PreparedStatement st = conn.prepareStatement(QB.get(query));
+    try {
+      for (LongObjectCursor<Timestamp[]> c : windows) {
+        int idx = 1;
+        st.setLong(idx++, c.key);
+        if (range != Range.BEFORE) {
+          st.setTimestamp(idx++, c.value[0]);
+        }
+        if (range != Range.AFTER) {
+          st.setTimestamp(idx++, c.value[1]);
+        }
+        final ResultSet set = st.executeQuery();
+        try {
+          read(set, map, kind);
+        } finally {
+          set.close();
+        }
+      }
+    } finally {
+      st.close();
+    }
+  }
+
+  private void read(ResultSet set, LongObjectMap<Events> map, int kind) throws SQLException {
+    while (set.next()) {
+      final long key;
+      switch (kind) {
+      case OBJ:
+        key = keyId(new HappensBeforeAnalysis.Obj(set.getLong(3), set.getString(4)));
+        break;
+      case LOCK:
+        key = keyId(new LockId(set.getLong(3), LockType.fromFlag(set.getString(4))));
+        break;
+      case COLL:
+        key = keyId(new HappensBeforeAnalysis.Coll(set.getLong(3), set.getLong(4), set.getString(5)));
+        break;
+      default:
+        key = set.getLong(3);
+      }
+      eventsFor(map, set.getLong(1)).add(nanos(set.getTimestamp(2)), key);
+    }
+  }
+
+  /**
+   * Determines whether an edge of one kind exists from <tt>writeThread</tt> to
+   * <tt>readThread</tt>, that is, whether some key has a source event in the
+   * writing thread that precedes a target event in the reading thread, with
+   * both events falling between <tt>write</tt> and <tt>read</tt>.
+   */
+  static boolean happensBefore(LongObjectMap<Events> sourceMap, LongObjectMap<Events> targetMap, long write, long writeThread,
+      long read, long readThread, LongLongMap scratch) {
+    final Events sources = sourceMap.get(writeThread);
+    if (sources == null) {
+      return false;
+    }
+    final Events targets = targetMap.get(readThread);
+    if (targets == null) {
+      return false;
+    }
+    final int sFrom = sources.lowerBound(write);
+    final int sTo = sources.upperBound(read);
+    if (sFrom >= sTo) {
+      return false;
+    }
+    final int tFrom = targets.lowerBound(write);
+    final int tTo = targets.upperBound(read);
+    if (tFrom >= tTo) {
+      return false;
+    }
+    // Events are sorted, so the first one we see for a key is the earliest
+    scratch.clear();
+    for (int i = sFrom; i < sTo; i++) {
+      final int idx = scratch.indexOf(sources.keys[i]);
+      if (!scratch.indexExists(idx)) {
+        scratch.indexInsert(idx, sources.keys[i], sources.ts[i]);
+      }
+    }
+    for (int i = tTo - 1; i >= tFrom; i--) {
+      final int idx = scratch.indexOf(targets.keys[i]);
+      if (scratch.indexExists(idx) && scratch.indexGet(idx) < targets.ts[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean happensBeforeVolatile(long write, long writeThread, long read, long readThread, LongLongMap scratch) {
+    return happensBefore(volatileWrites, volatileReads, write, writeThread, read, readThread, scratch);
+  }
+
+  boolean happensBeforeObject(long write, long writeThread, long read, long readThread, LongLongMap scratch) {
+    return happensBefore(objSources, objTargets, write, writeThread, read, readThread, scratch);
+  }
+
+  boolean happensBeforeLock(long write, long writeThread, long read, long readThread, LongLongMap scratch) {
+    return happensBefore(lockSources, lockTargets, write, writeThread, read, readThread, scratch);
+  }
+
+  boolean happensBeforeCollection(long write, long writeThread, long read, long readThread, LongLongMap scratch) {
+    return happensBefore(collSources, collTargets, write, writeThread, read, readThread, scratch);
+  }
+
+  /**
+   * Records that the edges out of <tt>thread</tt> from time <tt>start</tt> on
+   * are being explored. Anything reachable from a later start time is also
+   * reachable from an earlier one, so a thread only needs to be explored again
+   * if it is entered earlier than before.
+   *
+   * @return <code>true</code> if the thread should be explored,
+   *         <code>false</code> if it has already been explored from an earlier
+   *         or equal time
+   */
+  static boolean visit(LongLongMap visited, long thread, long start) {
+    final int idx = visited.indexOf(thread);
+    if (visited.indexExists(idx)) {
+      if (visited.indexGet(idx) <= start) {
+        return false;
+      }
+      visited.indexReplace(idx, start);
+    } else {
+      visited.indexInsert(idx, thread, start);
+    }
+    return true;
+  }
+
+  /**
+   * Follows thread start/join style edges, transitively, from the writing
+   * thread to the reading thread. Mirrors
+   * {@link HappensBeforeAnalysis#happensBeforeThread}.
+   *
+   * @param visited
+   *          the threads explored so far during this check, see
+   *          {@link #visit(LongLongMap, long, long)}
+   */
+  boolean happensBeforeThread(long write, long writeThread, long read, long readThread, LongLongMap visited) {
+    if (!visit(visited, writeThread, write)) {
+      return false;
+    }
+    final Events edges = threadEdges.get(writeThread);
+    if (edges == null) {
+      return false;
+    }
+    final int from = edges.lowerBound(write);
+    final int to = edges.upperBound(read);
+    for (int i = from; i < to; i++) {
+      if (edges.keys[i] == readThread) {
+        return true;
+      }
+    }
+    for (int i = from; i < to; i++) {
+      if (happensBeforeThread(edges.ts[i], edges.keys[i], read, readThread, visited)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks for a class that was initialized in the writing thread after the
+   * write, and then accessed in the reading thread before the read.
+   */
+  boolean happensBeforeClassInitialization(long write, long writeThread, long read, long readThread, LongLongMap scratch) {
+    final Events inits = classInits.get(writeThread);
+    if (inits == null) {
+      return false;
+    }
+    final Events accesses = classAccesses.get(readThread);
+    if (accesses == null) {
+      return false;
+    }
+    final int iFrom = inits.upperBound(write);
+    final int aTo = accesses.lowerBound(read);
+    if (iFrom >= inits.size || aTo == 0) {
+      return false;
+    }
+    scratch.clear();
+    for (int i = iFrom; i < inits.size; i++) {
+      scratch.put(inits.keys[i], inits.ts[i]);
+    }
+    for (int i = 0; i < aTo; i++) {
+      if (scratch.containsKey(accesses.keys[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
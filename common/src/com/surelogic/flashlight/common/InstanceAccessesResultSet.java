@@ -1,19 +1,16 @@
 package com.surelogic.flashlight.common;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 
+import com.surelogic.common.derby.sqlfunctions.StreamingResultSet;
 import com.surelogic.common.jdbc.QB;
 
-public class InstanceAccessesResultSet implements InvocationHandler {
+public class InstanceAccessesResultSet extends StreamingResultSet {
 
-  boolean wasNull;
   final ResultSet set;
   AccessBlock block;
   AccessBlock next;
@@ -30,8 +27,7 @@ public class InstanceAccessesResultSet implements InvocationHandler {
     st.setLong(1, receiverId);
     st.setTimestamp(2, begin);
     st.setTimestamp(3, end);
-    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
-        new InstanceAccessesResultSet(st.executeQuery()));
+    return new InstanceAccessesResultSet(st.executeQuery());
   }
 
   public static ResultSet create(Connection conn, long receiverId, Timestamp begin, Timestamp end, long fieldId, long secondFieldId)
@@ -42,34 +38,82 @@ public class InstanceAccessesResultSet implements InvocationHandler {
     st.setTimestamp(3, end);
     st.setLong(4, fieldId);
     st.setLong(5, secondFieldId);
-    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
-        new InstanceAccessesResultSet(st.executeQuery()));
+    return new InstanceAccessesResultSet(st.executeQuery());
 
   }
 
   @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    final String methodName = method.getName();
-    if ("next".equals(methodName)) {
-      if (next == null) {
-        return false;
-      }
-      block = next;
-      next = block.accumulate();
-      return true;
-    } else if ("close".equals(methodName)) {
-      set.close();
-      return null;
-    } else if (methodName.startsWith("get") && args != null) {
-      Object o = block.get((Integer) args[0]);
-      wasNull = o == null;
-      return o;
-    } else if (methodName.equals("getWarnings")) {
-      return null;
-    } else if (methodName.equals("wasNull")) {
-      return wasNull;
+  public boolean next() throws SQLException {
+    if (next == null) {
+      return false;
+    }
+    block = next;
+    next = block.accumulate();
+    return true;
+  }
+
+  @Override
+  protected void closeStream() throws SQLException {
+    set.close();
+  }
+
+  @Override
+  protected Object getColumn(int col) {
+    return block.get(col);
+  }
+
+  @Override
+  public long getLong(int col) throws SQLException {
+    switch (col) {
+    case 1:
+      return longValue(block.fieldId);
+    case 4:
+      return longValue(block.threadId);
+    default:
+      return super.getLong(col);
+    }
+  }
+
+  @Override
+  public int getInt(int col) throws SQLException {
+    switch (col) {
+    case 8:
+      return intValue(block.reads);
+    case 9:
+      return intValue(block.writes);
+    case 10:
+      return intValue(block.readsUC);
+    case 11:
+      return intValue(block.writesUC);
+    default:
+      return super.getInt(col);
+    }
+  }
+
+  @Override
+  public String getString(int col) throws SQLException {
+    switch (col) {
+    case 2:
+      return value(block.fieldName);
+    case 3:
+      return value(block.fieldCode);
+    case 5:
+      return value(block.threadName);
+    default:
+      return super.getString(col);
+    }
+  }
+
+  @Override
+  public Timestamp getTimestamp(int col) throws SQLException {
+    switch (col) {
+    case 6:
+      return value(block.start);
+    case 7:
+      return value(block.stop);
+    default:
+      return super.getTimestamp(col);
     }
-    throw new UnsupportedOperationException(method.getName());
   }
 
   private class AccessBlock {
@@ -0,0 +1,151 @@
+package com.surelogic.flashlight.common;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from a pair of <tt>long</tt> values to a
+ * <tt>long</tt> value. It is used to keep the earliest or latest time seen for
+ * a composite key, such as an object and an id, without allocating a key
+ * object per row. Instances are meant to be cleared and reused.
+ * <p>
+ * Iterate with a loop from <tt>0</tt> to {@link #capacity()}, skipping slots
+ * for which {@link #isUsed(int)} is <code>false</code>.
+ */
+final class LongPairLongMap {
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] firsts;
+  private long[] seconds;
+  private long[] values;
+  private boolean[] used;
+  private int size;
+
+  LongPairLongMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    firsts = new long[capacity];
+    seconds = new long[capacity];
+    values = new long[capacity];
+    used = new boolean[capacity];
+    size = 0;
+  }
+
+  private static int hash(long first, long second) {
+    long h = first * 0x9E3779B97F4A7C15L + second;
+    h ^= h >>> 32;
+    h *= 0x9E3779B97F4A7C15L;
+    return (int) (h ^ h >>> 29);
+  }
+
+  /**
+   * Returns the slot holding the key, or the empty slot it would be placed in.
+   */
+  private int slot(long first, long second) {
+    final int mask = used.length - 1;
+    int i = hash(first, second) & mask;
+    while (used[i] && (firsts[i] != first || seconds[i] != second)) {
+      i = i + 1 & mask;
+    }
+    return i;
+  }
+
+  private void insert(int i, long first, long second, long value) {
+    used[i] = true;
+    firsts[i] = first;
+    seconds[i] = second;
+    values[i] = value;
+    if (++size * 2 > used.length) {
+      rehash();
+    }
+  }
+
+  private void rehash() {
+    final long[] oldFirsts = firsts;
+    final long[] oldSeconds = seconds;
+    final long[] oldValues = values;
+    final boolean[] oldUsed = used;
+    allocate(oldUsed.length * 2);
+    for (int i = 0; i < oldUsed.length; i++) {
+      if (oldUsed[i]) {
+        int j = slot(oldFirsts[i], oldSeconds[i]);
+        used[j] = true;
+        firsts[j] = oldFirsts[i];
+        seconds[j] = oldSeconds[i];
+        values[j] = oldValues[i];
+        size++;
+      }
+    }
+  }
+
+  /**
+   * Associates the value with the key unless a smaller value is already
+   * present.
+   */
+  void putMin(long first, long second, long value) {
+    final int i = slot(first, second);
+    if (!used[i]) {
+      insert(i, first, second, value);
+    } else if (values[i] > value) {
+      values[i] = value;
+    }
+  }
+
+  /**
+   * Associates the value with the key unless a larger value is already
+   * present.
+   */
+  void putMax(long first, long second, long value) {
+    final int i = slot(first, second);
+    if (!used[i]) {
+      insert(i, first, second, value);
+    } else if (values[i] < value) {
+      values[i] = value;
+    }
+  }
+
+  /**
+   * Returns the value for the key, or <tt>missing</tt> if there is none.
+   */
+  long get(long first, long second, long missing) {
+    final int i = slot(first, second);
+    return used[i] ? values[i] : missing;
+  }
+
+  void clear() {
+    if (size > 0) {
+      Arrays.fill(used, false);
+      size = 0;
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int capacity() {
+    return used.length;
+  }
+
+  boolean isUsed(int slot) {
+    return used[slot];
+  }
+
+  long first(int slot) {
+    return firsts[slot];
+  }
+
+  long second(int slot) {
+    return seconds[slot];
+  }
+
+  long value(int slot) {
+    return values[slot];
+  }
+}
@@ -1,16 +1,19 @@
 package com.surelogic.flashlight.common;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 
 import com.surelogic.common.derby.sqlfunctions.Functions;
+import com.surelogic.common.derby.sqlfunctions.StreamingResultSet;
 import com.surelogic.common.jdbc.QB;
+import com.surelogic.flashlight.common.HappensBeforeAnalysis.AccessPair;
 
 /**
  * An implementation of ResultSet for use with
@@ -22,17 +25,43 @@ import com.surelogic.common.jdbc.QB;
  * @author nathan
  *
  */
-public class RollupAccessesResultSet implements InvocationHandler {
+public class RollupAccessesResultSet extends StreamingResultSet {
+
+  /**
+   * The number of access blocks we read ahead, so that their happens-before
+   * checks can be answered together by {@link HappensBeforeAnalysis#evaluate}.
+   */
+  static final int BATCH_SIZE = 256;
 
   final HappensBeforeAnalysis hb;
+  final boolean ownsAnalysis;
   final ResultSet set;
+  final ArrayDeque<AccessBlock> ready = new ArrayDeque<>();
+  final List<AccessPair> pendingChecks = new ArrayList<>();
+  final List<AccessBlock> pendingBlocks = new ArrayList<>();
   AccessBlock block;
   AccessBlock next;
-  boolean wasNull;
 
   RollupAccessesResultSet(Connection conn, ResultSet set, boolean isStatic, long fieldId) throws SQLException {
+    this(new HappensBeforeAnalysis(conn, HappensBeforeIndex.getInstance(conn), new ThreadReachabilityCache(
+        ThreadReachabilityCache.DEFAULT_SIZE)), true, set, isStatic, fieldId);
+  }
+
+  /**
+   * Summarizes the accesses in <tt>set</tt>, which must have the columns of
+   * <tt>Accesses.selectByField</tt> if <tt>isStatic</tt> is set and of
+   * <tt>Accesses.selectByFieldAndReceiver</tt> otherwise.
+   *
+   * @param hb
+   *          the analysis to use
+   * @param ownsAnalysis
+   *          whether closing this result set should also finish <tt>hb</tt>
+   */
+  RollupAccessesResultSet(HappensBeforeAnalysis hb, boolean ownsAnalysis, ResultSet set, boolean isStatic, long fieldId)
+      throws SQLException {
+    this.hb = hb;
+    this.ownsAnalysis = ownsAnalysis;
     this.set = set;
-    hb = new HappensBeforeAnalysis(conn);
     if (set.next()) {
       next = new AccessBlock(new Access(set, isStatic), isStatic, hb.happensBeforeFinal(fieldId));
     }
@@ -42,48 +71,129 @@ public class RollupAccessesResultSet implements InvocationHandler {
     PreparedStatement st = conn.prepareStatement(QB.get("Accesses.selectByFieldAndReceiver"));
     st.setLong(1, fieldId);
     st.setLong(2, receiverId);
-    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
-        new RollupAccessesResultSet(conn, st.executeQuery(), false, fieldId));
+    return new RollupAccessesResultSet(conn, st.executeQuery(), false, fieldId);
   }
 
   public static ResultSet createForStaticField(Connection conn, long fieldId) throws SQLException {
     PreparedStatement st = conn.prepareStatement(QB.get("Accesses.selectByField"));
     st.setLong(1, fieldId);
-    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
-        new RollupAccessesResultSet(conn, st.executeQuery(), true, fieldId));
+    return new RollupAccessesResultSet(conn, st.executeQuery(), true, fieldId);
   }
 
   @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    final String methodName = method.getName();
-    if ("next".equals(methodName)) {
-      if (next == null) {
-        return false;
-      }
-      block = next;
-      next = block.accumulate();
-      return true;
-    } else if ("close".equals(methodName)) {
-      set.close();
+  public boolean next() throws SQLException {
+    if (ready.isEmpty() && !fill()) {
+      return false;
+    }
+    block = ready.poll();
+    return true;
+  }
+
+  @Override
+  protected void closeStream() throws SQLException {
+    set.close();
+    if (ownsAnalysis) {
       hb.finished();
-      return null;
-    } else if (methodName.startsWith("get") && args != null) {
-      Object o = block.get((Integer) args[0]);
-      wasNull = o == null;
-      return o;
-    } else if (methodName.equals("getWarnings")) {
-      return null;
-    } else if (methodName.equals("wasNull")) {
-      return wasNull;
     }
-    throw new UnsupportedOperationException(method.getName());
+  }
+
+  @Override
+  protected Object getColumn(int col) {
+    return block.get(col);
+  }
+
+  @Override
+  public long getLong(int col) throws SQLException {
+    switch (col) {
+    case 1:
+      return longValue(block.threadId);
+    case 9:
+      return longValue(block.lastWriteThread);
+    default:
+      return super.getLong(col);
+    }
+  }
+
+  @Override
+  public int getInt(int col) throws SQLException {
+    switch (col) {
+    case 5:
+      return intValue(block.reads);
+    case 6:
+      return intValue(block.writes);
+    case 10:
+      return intValue(block.readsUC);
+    case 11:
+      return intValue(block.writesUC);
+    default:
+      return super.getInt(col);
+    }
+  }
+
+  @Override
+  public String getString(int col) throws SQLException {
+    switch (col) {
+    case 2:
+      return value(block.threadName);
+    case 7:
+      return value(block.happensBefore.getDisplay());
+    default:
+      return super.getString(col);
+    }
+  }
+
+  @Override
+  public Timestamp getTimestamp(int col) throws SQLException {
+    switch (col) {
+    case 3:
+      return value(block.start);
+    case 4:
+      return value(block.lastAccess);
+    case 8:
+      return value(block.getLastWrite());
+    default:
+      return super.getTimestamp(col);
+    }
+  }
+
+  /**
+   * Reads ahead up to {@link #BATCH_SIZE} access blocks, and then answers the
+   * happens-before checks for all of them at once.
+   *
+   * @return whether any blocks are ready
+   */
+  private boolean fill() throws SQLException {
+    while (next != null && ready.size() < BATCH_SIZE) {
+      final AccessBlock b = next;
+      next = b.accumulate();
+      ready.add(b);
+      if (next != null && next.check != null) {
+        pendingChecks.add(next.check);
+        pendingBlocks.add(next);
+      }
+    }
+    if (!pendingChecks.isEmpty()) {
+      final BitSet results = hb.evaluate(pendingChecks);
+      for (int i = 0; i < pendingBlocks.size(); i++) {
+        final AccessBlock b = pendingBlocks.get(i);
+        b.happensBefore = b.isFinal || results.get(i) ? HappensBeforeState.YES : HappensBeforeState.NO;
+      }
+      pendingChecks.clear();
+      pendingBlocks.clear();
+    }
+    return !ready.isEmpty();
   }
 
   private class AccessBlock {
     final boolean isStatic;
     final boolean isFinal;
 
-    final HappensBeforeState happensBefore;
+    HappensBeforeState happensBefore;
+    /**
+     * The check that decides {@link #happensBefore}, if it has not been made
+     * yet.
+     */
+    final AccessPair check;
     final long threadId;
     final String threadName;
     final Timestamp start;
@@ -104,8 +214,16 @@ public class RollupAccessesResultSet implements InvocationHandler {
     Timestamp nextWrite;
     long nextWriteThread;
 
-    AccessBlock(Access first, boolean isStatic, boolean isFinal, HappensBeforeState happensBefore, Timestamp lastWrite,
-        long lastWriteThread) {
+    /**
+     * Gets the last write, or the epoch if there is none. A new epoch is
+     * returned each time, as callers may mutate a {@link Timestamp}.
+     */
+    Timestamp getLastWrite() {
+      return lastWrite == null ? new Timestamp(0) : lastWrite;
+    }
+
+    AccessBlock(Access first, boolean isStatic, boolean isFinal, HappensBeforeState happensBefore, AccessPair check,
+        Timestamp lastWrite, long lastWriteThread) {
       threadId = first.threadId;
       threadName = first.threadName;
       start = first.ts;
@@ -128,10 +246,11 @@ public class RollupAccessesResultSet implements InvocationHandler {
       this.isStatic = isStatic;
       this.isFinal = isFinal;
       this.happensBefore = happensBefore;
+      this.check = check;
     }
 
     AccessBlock(Access first, boolean isStatic, boolean isFinal) {
-      this(first, isStatic, isFinal, HappensBeforeState.FIRST, null, -1);
+      this(first, isStatic, isFinal, HappensBeforeState.FIRST, null, null, -1);
     }
 
     AccessBlock accumulate() throws SQLException {
@@ -153,9 +272,12 @@ public class RollupAccessesResultSet implements InvocationHandler {
             }
           }
         } else {
-          boolean hasHappensBefore = !a.isRead || hb.hasHappensBefore(nextWrite, nextWriteThread, a.ts, a.threadId);
-          return new AccessBlock(a, isStatic, isFinal,
-              isFinal || hasHappensBefore ? HappensBeforeState.YES : HappensBeforeState.NO, nextWrite, nextWriteThread);
+          // Reads are checked in a batch when the block is queued, see fill()
+          if (!a.isRead || isFinal) {
+            return new AccessBlock(a, isStatic, isFinal, HappensBeforeState.YES, null, nextWrite, nextWriteThread);
+          }
+          return new AccessBlock(a, isStatic, isFinal, null, new AccessPair(nextWrite, nextWriteThread, a.ts, a.threadId),
+              nextWrite, nextWriteThread);
         }
       }
       return null;
@@ -178,7 +300,7 @@ public class RollupAccessesResultSet implements InvocationHandler {
       case 7:
         return happensBefore.getDisplay();
       case 8:
-        return lastWrite == null ? new Timestamp(0) : lastWrite;
+        return getLastWrite();
       case 9:
         return lastWriteThread;
       case 10:
@@ -1,56 +1,95 @@
 package com.surelogic.flashlight.common;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 
+import com.surelogic.common.derby.sqlfunctions.StreamingResultSet;
 import com.surelogic.common.jdbc.QB;
 
-public class RollupIndirectAccessesResultSet implements InvocationHandler {
+public class RollupIndirectAccessesResultSet extends StreamingResultSet {
 
   final HappensBeforeAnalysis hb;
   final ResultSet set;
   AccessBlock block;
   AccessBlock next;
-  boolean wasNull;
 
   RollupIndirectAccessesResultSet(Connection conn, ResultSet set, long objectId) throws SQLException {
     this.set = set;
-    hb = new HappensBeforeAnalysis(conn);
+    hb = new HappensBeforeAnalysis(conn, HappensBeforeIndex.getInstance(conn), new ThreadReachabilityCache(
+        ThreadReachabilityCache.DEFAULT_SIZE));
     if (set.next()) {
       next = new AccessBlock(new Access(set));
     }
   }
 
   @Override
-  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-    final String methodName = method.getName();
-    if ("next".equals(methodName)) {
-      if (next == null) {
-        return false;
-      }
-      block = next;
-      next = block.accumulate();
-      return true;
-    } else if ("close".equals(methodName)) {
-      set.close();
-      hb.finished();
-      return null;
-    } else if (methodName.startsWith("get") && args != null) {
-      Object o = block.get((Integer) args[0]);
-      wasNull = o == null;
-      return o;
-    } else if (methodName.equals("getWarnings")) {
-      return null;
-    } else if (methodName.equals("wasNull")) {
-      return wasNull;
+  public boolean next() throws SQLException {
+    if (next == null) {
+      return false;
+    }
+    block = next;
+    next = block.accumulate();
+    return true;
+  }
+
+  @Override
+  protected void closeStream() throws SQLException {
+    set.close();
+    hb.finished();
+  }
+
+  @Override
+  protected Object getColumn(int col) {
+    return block.get(col);
+  }
+
+  @Override
+  public long getLong(int col) throws SQLException {
+    switch (col) {
+    case 1:
+      return longValue(block.threadId);
+    case 8:
+      return longValue(block.lastAccessThread);
+    default:
+      return super.getLong(col);
+    }
+  }
+
+  @Override
+  public int getInt(int col) throws SQLException {
+    if (col == 5) {
+      return intValue(block.accesses);
+    }
+    return super.getInt(col);
+  }
+
+  @Override
+  public String getString(int col) throws SQLException {
+    switch (col) {
+    case 2:
+      return value(block.threadName);
+    case 6:
+      return value(block.happensBefore.getDisplay());
+    default:
+      return super.getString(col);
+    }
+  }
+
+  @Override
+  public Timestamp getTimestamp(int col) throws SQLException {
+    switch (col) {
+    case 3:
+      return value(block.start);
+    case 4:
+      return value(block.stop);
+    case 7:
+      return value(block.lastAccess);
+    default:
+      return super.getTimestamp(col);
     }
-    throw new UnsupportedOperationException(method.getName());
   }
 
   private class AccessBlock {
@@ -139,7 +178,6 @@ public class RollupIndirectAccessesResultSet implements InvocationHandler {
   public static ResultSet createForObject(Connection conn, long objectId) throws SQLException {
     PreparedStatement st = conn.prepareStatement(QB.get("Accesses.selectByObject"));
     st.setLong(1, objectId);
-    return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] { ResultSet.class },
-        new RollupIndirectAccessesResultSet(conn, st.executeQuery(), objectId));
+    return new RollupIndirectAccessesResultSet(conn, st.executeQuery(), objectId);
   }
 }
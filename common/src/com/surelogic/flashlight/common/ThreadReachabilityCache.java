@@ -0,0 +1,129 @@
+package com.surelogic.flashlight.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of the answers to
+ * {@link HappensBeforeAnalysis#happensBeforeThread}, keyed on the source
+ * thread, the time window, and the target thread. Each query or analysis
+ * creates its own cache and passes it to the {@link HappensBeforeAnalysis}
+ * instances it uses, so answers never outlive the run they were computed on.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class ThreadReachabilityCache {
+
+  /**
+   * The default maximum number of answers kept.
+   */
+  public static final int DEFAULT_SIZE = 16384;
+
+  static final class Key {
+    final long source;
+    final long start;
+    final long end;
+    final long target;
+
+    Key(long source, long start, long end, long target) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.target = target;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + (int) (end ^ end >>> 32);
+      result = prime * result + (int) (source ^ source >>> 32);
+      result = prime * result + (int) (start ^ start >>> 32);
+      result = prime * result + (int) (target ^ target >>> 32);
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null) {
+        return false;
+      }
+      if (getClass() != obj.getClass()) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return source == other.source && start == other.start && end == other.end && target == other.target;
+    }
+  }
+
+  private final Map<Key, Boolean> answers;
+  private long hits;
+  private long misses;
+
+  /**
+   * Constructs an empty cache.
+   *
+   * @param maxSize
+   *          the maximum number of answers to keep.
+   */
+  public ThreadReachabilityCache(final int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    answers = new LinkedHashMap<Key, Boolean>(64, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Looks up a previously computed answer.
+   *
+   * @param source
+   *          the thread the window starts in
+   * @param start
+   *          the start of the window, in nanoseconds
+   * @param end
+   *          the end of the window, in nanoseconds
+   * @param target
+   *          the thread to be reached
+   * @return the answer, or <code>null</code> if it is not cached
+   */
+  synchronized Boolean get(long source, long start, long end, long target) {
+    final Boolean answer = answers.get(new Key(source, start, end, target));
+    if (answer == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return answer;
+  }
+
+  synchronized void put(long source, long start, long end, long target, boolean answer) {
+    answers.put(new Key(source, start, end, target), answer);
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized int size() {
+    return answers.size();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ThreadReachabilityCache [size=" + answers.size() + ", hits=" + hits + ", misses=" + misses + "]";
+  }
+}